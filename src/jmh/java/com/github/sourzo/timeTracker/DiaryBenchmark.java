@@ -0,0 +1,97 @@
+package com.github.sourzo.timeTracker;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.Comparator;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**Benchmarks of {@link Diary} operations on diaries with 1, 5 and 20 years of history.
+ * Run with {@code -prof gc} to see the allocation per operation.*/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DiaryBenchmark {
+	@Param({"1", "5", "20"})
+	public int years;
+
+	private Diary diary;
+	private Path directory;
+	private Path file;
+	private LocalDate today;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("diaryBenchmark");
+		file = directory.resolve("diary.txt");
+		diary = DiaryFixtures.diary(file.toString(), years, 42);
+		diary.save();
+		today = LocalDate.now();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		diary.closeJournal();
+		try (Stream<Path> files = Files.walk(directory)) {
+			for (Object path : files.sorted(Comparator.reverseOrder()).toArray()) {
+				Files.deleteIfExists((Path) path);
+			}
+		}
+	}
+
+	/**Stamps are journalled, so this includes one journal append.*/
+	@Benchmark
+	public Object stamp() {
+		return diary.stamp(StampType.IN);
+	}
+
+	@Benchmark
+	public void addActivity() {
+		diary.addActivity(ActivityType.TRAINING, Duration.ofMinutes(1));
+	}
+
+	@Benchmark
+	public Duration balanceToDate() {
+		return diary.balanceToDate(diary.getStartDate(), today);
+	}
+
+	@Benchmark
+	public TreeSet<LocalDate> getUnrecordedDays() {
+		return diary.getUnrecordedDays();
+	}
+
+	@Benchmark
+	public boolean hasUnrecordedDays() {
+		return diary.hasUnrecordedDays();
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public Diary saveAndLoad() {
+		diary.save();
+		Diary loaded = Diary.load(file.toString());
+		loaded.closeJournal();
+		return loaded;
+	}
+}
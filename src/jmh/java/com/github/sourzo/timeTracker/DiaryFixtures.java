@@ -0,0 +1,48 @@
+package com.github.sourzo.timeTracker;
+
+import java.time.DayOfWeek;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.Random;
+
+/**Synthetic diaries for the benchmarks.*/
+class DiaryFixtures {
+	private DiaryFixtures() {}
+
+	/**A diary covering {@code years} up to today: four stamps on each working day (with some
+	 * variation), and now and then an activity instead.*/
+	static Diary diary(String fileName, int years, long seed) {
+		CUI.setMessages(false);
+		Random random = new Random(seed);
+		Diary diary = new Diary(fileName);
+		LocalDate today = LocalDate.now();
+		LocalDate start = today.minusYears(years);
+		diary.restoreSettings(start, Duration.ofHours(7), diary.getRegularNonWorkingDays());
+		for (LocalDate date = start; !date.isAfter(today); date = date.plusDays(1)) {
+			if (date.getDayOfWeek() == DayOfWeek.SATURDAY || date.getDayOfWeek() == DayOfWeek.SUNDAY) {
+				continue;
+			}
+			WorkDay day = diary.get(date);
+			if (random.nextInt(20) == 0) {
+				day.addActivity(ActivityType.ANNUAL_LEAVE, Duration.ofHours(7));
+			} else {
+				day.addTimeStamp(LocalTime.of(8, random.nextInt(60)), StampType.IN);
+				day.addTimeStamp(LocalTime.of(12, random.nextInt(30)), StampType.OUT);
+				day.addTimeStamp(LocalTime.of(12, 30 + random.nextInt(30)), StampType.IN);
+				day.addTimeStamp(LocalTime.of(16, random.nextInt(60)), StampType.OUT);
+			}
+		}
+		return diary;
+	}
+
+	/**A day with {@code stamps} alternating IN/OUT stamps spread over the day, added in random order.*/
+	static WorkDay dayWithStamps(int stamps, long seed) {
+		Random random = new Random(seed);
+		WorkDay day = new WorkDay(LocalDate.now());
+		for (int i = 0; i < stamps; i++) {
+			day.addTimeStamp(LocalTime.of(0, 0).plusMinutes(random.nextInt(24 * 60)));
+		}
+		return day;
+	}
+}
@@ -0,0 +1,69 @@
+package com.github.sourzo.timeTracker;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**Runs an {@link OrgReport} over 1000 employees' diaries (5 years each) on 1 to 16 threads,
+ * for the last month and for the last year, to show how it scales with cores.*/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OrgReportBenchmark {
+	@Param({"1", "2", "4", "8", "16"})
+	public int threads;
+
+	@Param({"1", "12"})
+	public int months;
+
+	private Path directory;
+	private LocalDate from;
+	private LocalDate to;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("orgReportBenchmark");
+		for (int e = 0; e < 1000; e++) {
+			Diary diary = DiaryFixtures.diary(directory.resolve("e" + e + DiaryStore.FILE_EXTENSION).toString(), 5, e);
+			diary.save();
+			diary.closeJournal();
+		}
+		to = LocalDate.now();
+		from = to.minusMonths(months).plusDays(1);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		try (Stream<Path> files = Files.walk(directory)) {
+			for (Object path : files.sorted(Comparator.reverseOrder()).toArray()) {
+				Files.deleteIfExists((Path) path);
+			}
+		}
+	}
+
+	@Benchmark
+	public OrgReport report() throws IOException {
+		return OrgReport.run(directory, from, to, threads);
+	}
+}
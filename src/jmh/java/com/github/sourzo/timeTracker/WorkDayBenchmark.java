@@ -0,0 +1,67 @@
+package com.github.sourzo.timeTracker;
+
+import java.time.Duration;
+import java.time.LocalTime;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**Benchmarks of {@link WorkDay} with a normal number of stamps and with many (e.g. from door readers).
+ * Run with {@code -prof gc} to see the allocation per operation.*/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WorkDayBenchmark {
+	@Param({"4", "64", "512"})
+	public int stamps;
+
+	private WorkDay day;
+	private LocalTime[] times;
+	private int next;
+
+	@Setup(Level.Iteration)
+	public void setUp() {
+		CUI.setMessages(false);
+		day = DiaryFixtures.dayWithStamps(stamps, 42);
+		times = new LocalTime[1024];
+		for (int i = 0; i < times.length; i++) {
+			times[i] = LocalTime.of(0, 0).plusMinutes((i * 37) % (24 * 60));
+		}
+	}
+
+	/**Adds (or replaces) a stamp and removes it again, so that the day keeps its size.*/
+	@Benchmark
+	public Duration addAndRemoveTimeStamp() {
+		LocalTime time = times[next++ & (times.length - 1)];
+		boolean existed = day.getTimeStamps().containsKey(time);
+		day.addTimeStamp(time);
+		if (!existed) {
+			day.removeTimeStamp(time);
+		}
+		return day.getHoursWorked(false);
+	}
+
+	@Benchmark
+	public Duration timeStampsTotal() {
+		return day.timeStampsTotal();
+	}
+
+	@Benchmark
+	public Duration recalculateHoursWorked() {
+		return day.recalculateHoursWorked();
+	}
+}
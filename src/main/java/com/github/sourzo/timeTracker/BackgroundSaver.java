@@ -0,0 +1,102 @@
+package com.github.sourzo.timeTracker;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**Makes the changes to a {@link Diary} durable in the background, so that nobody waits for
+ * the disk and at most {@code window} of changes can be lost if the computer stops.
+ * <P>Each change is already appended to the diary's journal as it is made (see
+ * {@link DiaryJournal}); what is slow is forcing the journal onto the disk. The first change
+ * after a write schedules the next one for {@code window} later, on this saver's own thread.
+ * Any more changes before then are included in that write, so a burst of changes costs one
+ * disk sync. {@link #flush()} writes straight away and waits, e.g. before the program exits.
+ * <P>If a write fails, the changes stay pending (so {@link #isDurable()} stays false) and 
+ * the write is tried again {@code window} later.
+ * <P>The diary still needs {@link Diary#save()} now and then to fold the journal into its files.*/
+public class BackgroundSaver implements Closeable {
+	//Instance fields------------------------------------------------------
+	private final Diary diary;
+	private final long windowNanos;
+	private final ScheduledExecutorService writer;
+	/**Whether a write has been scheduled and not started yet.*/
+	private final AtomicBoolean pending = new AtomicBoolean();
+	private final AtomicLong changes = new AtomicLong();
+	private volatile long durableChanges = 0;
+	private final AtomicLong writes = new AtomicLong();
+
+	//Constructors----------------------------------------------------------
+	/**Starts saving the changes to {@code diary}.
+	 * @param window the longest a change waits before it is written*/
+	public BackgroundSaver(Diary diary, Duration window) {
+		this.diary = diary;
+		this.windowNanos = window.toNanos();
+		writer = Executors.newSingleThreadScheduledExecutor(task -> {
+			Thread thread = new Thread(task, "diary-saver");
+			thread.setDaemon(true);
+			return thread;
+		});
+		diary.setChangeListener(this::changed);
+	}
+
+	//Methods: get & set ---------------------------------------------------
+	/**The number of times the journal has been written to disk.*/
+	public long getWriteCount() {return writes.get();}
+	/**Whether every change so far has been written.*/
+	public boolean isDurable() {return durableChanges == changes.get();}
+
+	//Methods: other -------------------------------------------------------
+	/**Called (on the thread making the change) after each change to the diary.*/
+	private void changed() {
+		changes.incrementAndGet();
+		if (pending.compareAndSet(false, true)) {
+			writer.schedule(this::write, windowNanos, TimeUnit.NANOSECONDS);
+		}
+	}
+
+	/**Runs on the writer thread.*/
+	private void write() {
+		pending.set(false);
+		long upTo = changes.get();
+		if (upTo == durableChanges) {
+			return;
+		}
+		try {
+			diary.syncJournal();
+		} catch (IOException e) {
+			System.out.println(e);
+			if (pending.compareAndSet(false, true)) {
+				writer.schedule(this::write, windowNanos, TimeUnit.NANOSECONDS);		// Try again
+			}
+			return;
+		}
+		writes.incrementAndGet();
+		durableChanges = upTo;
+	}
+
+	/**Writes any changes which haven't been written yet, and waits until they are on disk (or 
+	 * the write fails: see {@link #isDurable()}).*/
+	public void flush() {
+		try {
+			writer.submit(this::write).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			System.out.println(e.getCause());
+		}
+	}
+
+	/**Flushes, then stops the writer thread and stops listening to the diary.*/
+	@Override
+	public void close() {
+		diary.setChangeListener(null);
+		flush();
+		writer.shutdown();
+	}
+}
@@ -0,0 +1,95 @@
+package com.github.sourzo.timeTracker;
+
+/**Running balance of a {@link Diary}, kept as a Fenwick tree (binary indexed tree) of the
+ * balance for each day, so that the balance over any range of days can be found in
+ * O(log n) time, and a change to one day can be applied in O(log n) time, instead of
+ * adding up every day in the diary each time.
+ * <P>Days are identified by their epoch day; balances are in seconds. The index grows
+ * (in either direction) as days outside the current range are set.*/
+class BalanceIndex {
+	//Instance fields------------------------------------------------------
+	/**Epoch day of the first slot in {@link #values}.*/
+	private long firstDay;
+	/**The balance for each day (0 if the day hasn't been recorded).*/
+	private long[] values = new long[0];
+	/**Fenwick tree over {@link #values}; {@code tree[i]} holds the sum of the {@code i & -i}
+	 * values ending at slot {@code i - 1}.*/
+	private long[] tree = new long[1];
+
+	//Methods: changing things ---------------------------------------------
+	/**Sets the balance for {@code epochDay} to {@code seconds}.*/
+	void set(long epochDay, long seconds) {
+		if (values.length == 0) {
+			firstDay = epochDay;
+		}
+		if (epochDay < firstDay || epochDay >= firstDay + values.length) {
+			grow(epochDay);
+		}
+		int slot = (int) (epochDay - firstDay);
+		long change = seconds - values[slot];
+		if (change != 0) {
+			values[slot] = seconds;
+			for (int i = slot + 1; i < tree.length; i += i & -i) {
+				tree[i] += change;
+			}
+		}
+	}
+
+	void clear() {
+		values = new long[0];
+		tree = new long[1];
+	}
+
+	/**Makes room for {@code epochDay}, doubling the size of the index so that a run of
+	 * new days only causes an occasional rebuild.*/
+	private void grow(long epochDay) {
+		long newFirst = Math.min(firstDay, epochDay);
+		long newEnd = Math.max(firstDay + values.length, epochDay + 1);
+		long extra = Math.max(newEnd - newFirst, 32);
+		if (epochDay < firstDay) {
+			newFirst = newEnd - 2 * extra;
+		} else {
+			newEnd = newFirst + 2 * extra;
+		}
+		long[] newValues = new long[(int) (newEnd - newFirst)];
+		System.arraycopy(values, 0, newValues, (int) (firstDay - newFirst), values.length);
+		firstDay = newFirst;
+		values = newValues;
+		rebuild();
+	}
+
+	/**Builds the Fenwick tree from {@link #values} in O(n).*/
+	private void rebuild() {
+		tree = new long[values.length + 1];
+		for (int i = 1; i < tree.length; i++) {
+			tree[i] += values[i - 1];
+			int parent = i + (i & -i);
+			if (parent < tree.length) {
+				tree[parent] += tree[i];
+			}
+		}
+	}
+
+	//Methods: descriptive -------------------------------------------------
+	/**The total balance for the days from {@code fromDay} to {@code toDay} (inclusive), in seconds.*/
+	long sum(long fromDay, long toDay) {
+		if (toDay < fromDay) {
+			return 0;
+		}
+		return prefixSum(toDay) - prefixSum(fromDay - 1);
+	}
+
+	long total() {
+		return prefixSum(firstDay + values.length - 1);
+	}
+
+	/**Sum of all days up to and including {@code epochDay}.*/
+	private long prefixSum(long epochDay) {
+		long slots = Math.min(epochDay - firstDay + 1, values.length);
+		long sum = 0;
+		for (int i = (int) Math.max(slots, 0); i > 0; i -= i & -i) {
+			sum += tree[i];
+		}
+		return sum;
+	}
+}
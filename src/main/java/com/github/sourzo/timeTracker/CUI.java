@@ -1,9 +1,11 @@
 package com.github.sourzo.timeTracker;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.time.Duration;
 import java.time.LocalDate;
 import java.time.LocalTime;
+import java.util.Arrays;
 import java.util.TreeSet;
 
 
@@ -23,56 +25,152 @@ public class CUI
 	
 	//Settings -------------------------------------------------------------
 	private static boolean warnings = true;
+	/**System property for the longest (in milliseconds) that changes wait before they are written to disk.*/
+	static final String SAVE_WINDOW_PROPERTY = "timeTracker.saveWindowMillis";
+	/**One-shot commands save the diary when loading it has to replay more changes than this from the journal.*/
+	static final int ONE_SHOT_SAVE_CHANGES = 500;
+	/**Whether to print confirmation messages (turned off when there's no-one at the console to read them).*/
+	private static boolean messages = true;
 	
 	//Methods: get & set ---------------------------------------------------
 	public static boolean getWarnings() {return warnings;}
+	public static void setMessages(boolean messages) {CUI.messages = messages;}
 	
 	//Methods: other -------------------------------------------------------	
+	/**Runs the menus, or with the arguments {@code serve [port] [directory]}, runs a 
+	 * {@link StampServer} instead, or with {@code report [directory] [month] [threads]}, prints 
+	 * an {@link OrgReport}, or with {@code export directory from to csv|json file}, runs a 
+	 * {@link DiaryExporter}, or with {@code batch [file]}, applies a script of changes with a 
+	 * {@link DiaryBatch}, or with {@code migrate directory file...}, moves diary files into a 
+	 * store with a {@link DiaryMigrator}, or with {@code generate directory employees [years] [seed]}, 
+	 * makes up diaries with a {@link WorkloadGenerator}, or with {@code loadtest directory rate 
+	 * seed|script}, load-tests them with a {@link LoadDriver}, or with {@code in}, {@code out} or 
+	 * {@code balance}, does just that (see {@link #oneShot(String)}).*/
 	public static void main(String[] args) throws IOException
 	{
+		if (args.length > 0 && args[0].equals("serve")) {
+			StampServer.main(Arrays.copyOfRange(args, 1, args.length));
+			return;
+		}
+		if (args.length > 0 && args[0].equals("report")) {
+			OrgReport.main(Arrays.copyOfRange(args, 1, args.length));
+			return;
+		}
+		if (args.length > 0 && args[0].equals("export")) {
+			DiaryExporter.main(Arrays.copyOfRange(args, 1, args.length));
+			return;
+		}
+		if (args.length > 0 && args[0].equals("batch")) {
+			DiaryBatch.main(Arrays.copyOfRange(args, 1, args.length));
+			return;
+		}
+		if (args.length > 0 && args[0].equals("migrate")) {
+			try {
+				DiaryMigrator.main(Arrays.copyOfRange(args, 1, args.length));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return;
+		}
+		if (args.length > 0 && args[0].equals("generate")) {
+			WorkloadGenerator.main(Arrays.copyOfRange(args, 1, args.length));
+			return;
+		}
+		if (args.length > 0 && args[0].equals("loadtest")) {
+			try {
+				LoadDriver.main(Arrays.copyOfRange(args, 1, args.length));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return;
+		}
+		if (args.length > 0 && (args[0].equals("in") || args[0].equals("out") || args[0].equals("balance"))) {
+			oneShot(args[0]);
+			return;
+		}
 		//Get diary
+		Metrics.publish();
 		Diary diary = Diary.load(null);
+		BackgroundSaver saver = new BackgroundSaver(diary, Duration.ofMillis(Long.getLong(SAVE_WINDOW_PROPERTY, 2000)));
+		Runtime.getRuntime().addShutdownHook(new Thread(saver::close));
 		mainMenu(diary);
 		
 	}
+	/**Clocks in or out, or prints the balance, then returns, e.g. for a desktop shortcut. Only 
+	 * the diary's manifest and the current month are read (the balance comes from the totals 
+	 * in the manifest), and a stamp is only written to the journal, which the next save folds 
+	 * into the diary's files.*/
+	static void oneShot(String command) {
+		Diary diary = Diary.load(null);
+		try {
+			switch (command) {
+			case "in":
+				diary.stamp(StampType.IN);
+				break;
+			case "out":
+				diary.stamp(StampType.OUT);
+				break;
+			case "balance":
+				System.out.println("Balance: " + TimeAndDate.parseDuration(diary.balanceToDate()));
+				break;
+			}
+			if (diary.getReplayedChanges() > ONE_SHOT_SAVE_CHANGES) {
+				diary.save();		// Keeps the journal (and so the time to load) short
+			}
+			diary.syncJournal();
+		} catch (IOException e) {
+			System.out.println("Not saved: " + e);
+		} catch (UncheckedIOException e) {
+			System.out.println("Not saved: " + e.getCause());
+		}
+		diary.closeJournal();
+	}
+	
 	public static void mainMenu(Diary diary) throws IOException {
 		//Main menu
 		boolean keepLoopingMM = true;
 		while (keepLoopingMM) {
 			
 			int choice = Menu.getOptionNumber(mainMenuOptions);
-			switch(choice) {
-			case 0:
-				//Clock in
-				diary.stamp(StampType.IN);
-				break;
-			case 1:
-				//Clock out
-				diary.stamp(StampType.OUT);
-				break;
-			case 2:
-				//Add activity
-				int activityNum = Menu.getOptionNumber(activityOptions);
-				ActivityType activity = ActivityType.fromLabel(activityOptions[activityNum]);
-				Duration duration = Menu.getDurationFromUser();
-				diary.addActivity(activity, duration);
-				break;
-			case 3:
-				//Check & amend
-				reviewClockings(diary);
-				break;
-			case 4:
-				//Missing days
-				TreeSet<LocalDate> missingDays = diary.getUnrecordedDays();
-				//TODO: Amend clockings
-				break;
-			case 5:
-				//Save & Quit
-				keepLoopingMM = false;
-				diary.save();
-	        	System.out.println();
-	        	System.out.println("Goodbye.");
-	        	System.exit(0);
+			try {
+				switch(choice) {
+				case 0:
+					//Clock in
+					diary.stamp(StampType.IN);
+					break;
+				case 1:
+					//Clock out
+					diary.stamp(StampType.OUT);
+					break;
+				case 2:
+					//Add activity
+					int activityNum = Menu.getOptionNumber(activityOptions);
+					ActivityType activity = ActivityType.fromLabel(activityOptions[activityNum]);
+					Duration duration = Menu.getDurationFromUser();
+					diary.addActivity(activity, duration);
+					break;
+				case 3:
+					//Check & amend
+					reviewClockings(diary);
+					break;
+				case 4:
+					//Missing days
+					TreeSet<LocalDate> missingDays = diary.getUnrecordedDays();
+					for (LocalDate missedStamps : diary.getMissedStampDays(diary.getStartDate(), LocalDate.now())) {
+						System.out.println("Missed time stamps: " + missedStamps);
+					}
+					//TODO: Amend clockings
+					break;
+				case 5:
+					//Save & Quit
+					keepLoopingMM = false;
+					diary.save();
+		        	System.out.println();
+		        	System.out.println("Goodbye.");
+		        	System.exit(0);
+				}
+			} catch (UncheckedIOException e) {
+				System.out.println("Not saved yet (it will be when you quit): " + e.getCause());
 			}
 		}
 	}
@@ -86,17 +184,20 @@ public class CUI
 		int reviewChoice = Menu.getOptionNumber(reviewOptions);
 		ViewType viewType = ViewType.fromLabel(reviewOptions[reviewChoice]);
 		boolean keepReviewing = true;
+		LocalDate date = LocalDate.now();
 		
 		while (keepReviewing) {
-			//View diary
-			LocalDate date = LocalDate.now();
+			//View diary (weeks are cached, so paging back and forth doesn't add them up again)
 			switch (viewType) {
 			case DAY:
 				diary.viewDay(date);
+				break;
 			case WEEK:
 				diary.viewWeek(date);
+				break;
 			case SUMMARY:
-				diary.balanceToDate(date);
+				System.out.println("Balance to " + date + ": " + TimeAndDate.parseDuration(diary.balanceToDate(date)));
+				break;
 			}
 			
 			//Choose what to do next
@@ -117,6 +218,7 @@ public class CUI
 					date = date.minusDays(7);
 					break;
 				}
+				break;
 			case 2:
 				//next day/week
 				switch (viewType) {
@@ -128,6 +230,7 @@ public class CUI
 					date = date.plusDays(7);
 					break;
 				}
+				break;
 			case 3:
 				//goto date
 				date = Menu.getDateFromUser();
@@ -183,6 +286,13 @@ public class CUI
 		warnings = false;
 	}
 	
+	/**Prints a confirmation message, e.g. after clocking in.*/
+	public static void inform(String message) {
+		if (messages) {
+			System.out.println(message);
+		}
+	}
+	
 	public static void warn(String message) {
 		if (warnings) {
 			System.out.println("Warning: " + message);
@@ -0,0 +1,154 @@
+package com.github.sourzo.timeTracker;
+
+import java.time.LocalDate;
+import java.util.TreeSet;
+
+/**One bit per day (by epoch day) showing which days have been recorded in a {@link Diary}
+ * (or which days have missed stamps, or which are working days).
+ * <P>Finding the days which should have been recorded but weren't is done 64 days at a
+ * time: each word of recorded days is combined with the same word of a bitmap of working 
+ * days (see {@link WorkingCalendar#workingDays}) using AND-NOT.*/
+class DayBitmap {
+	//Instance fields------------------------------------------------------
+	/**Index of the first word in {@link #words} (word {@code w} holds epoch days {@code 64w} to {@code 64w + 63}).*/
+	private long firstWord;
+	private long[] words = new long[0];
+
+	//Methods: changing things ---------------------------------------------
+	void set(long epochDay) {
+		long word = Math.floorDiv(epochDay, 64);
+		if (words.length == 0) {
+			firstWord = word;
+		}
+		if (word < firstWord || word >= firstWord + words.length) {
+			grow(word);
+		}
+		words[(int) (word - firstWord)] |= 1L << Math.floorMod(epochDay, 64);
+	}
+
+	void unset(long epochDay) {
+		long word = Math.floorDiv(epochDay, 64);
+		if (word >= firstWord && word < firstWord + words.length) {
+			words[(int) (word - firstWord)] &= ~(1L << Math.floorMod(epochDay, 64));
+		}
+	}
+
+	void clear() {
+		words = new long[0];
+	}
+
+	private void grow(long word) {
+		long newFirst = Math.min(firstWord, word);
+		long newEnd = Math.max(firstWord + words.length, word + 1);
+		long extra = Math.max(newEnd - newFirst, 4);
+		if (word < firstWord) {
+			newFirst = newEnd - 2 * extra;
+		} else {
+			newEnd = newFirst + 2 * extra;
+		}
+		long[] newWords = new long[(int) (newEnd - newFirst)];
+		System.arraycopy(words, 0, newWords, (int) (firstWord - newFirst), words.length);
+		firstWord = newFirst;
+		words = newWords;
+	}
+
+	//Methods: descriptive -------------------------------------------------
+	boolean contains(long epochDay) {
+		return (word(Math.floorDiv(epochDay, 64)) & 1L << Math.floorMod(epochDay, 64)) != 0;
+	}
+
+	/**The bits for epoch days {@code 64 * word} to {@code 64 * word + 63}.*/
+	long word(long word) {
+		if (word < firstWord || word >= firstWord + words.length) {
+			return 0;
+		}
+		return words[(int) (word - firstWord)];
+	}
+
+	/**Whether any day from {@code fromDay} to {@code toDay} (inclusive) is set.*/
+	boolean any(long fromDay, long toDay) {
+		for (long word = Math.floorDiv(fromDay, 64); word <= Math.floorDiv(toDay, 64) && fromDay <= toDay; word++) {
+			long bits = word(word);
+			long wordStart = word * 64;
+			if (fromDay > wordStart) {
+				bits &= -1L << (fromDay - wordStart);
+			}
+			if (toDay < wordStart + 63) {
+				bits &= -1L >>> (63 - (toDay - wordStart));
+			}
+			if (bits != 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**The days from {@code from} to {@code to} (inclusive) which are set.*/
+	TreeSet<LocalDate> days(LocalDate from, LocalDate to) {
+		TreeSet<LocalDate> days = new TreeSet<>();
+		long fromDay = from.toEpochDay();
+		long toDay = to.toEpochDay();
+		for (long word = Math.floorDiv(fromDay, 64); word <= Math.floorDiv(toDay, 64) && fromDay <= toDay; word++) {
+			long bits = word(word);
+			while (bits != 0) {
+				long day = word * 64 + Long.numberOfTrailingZeros(bits);
+				if (day >= fromDay && day <= toDay) {
+					days.add(LocalDate.ofEpochDay(day));
+				}
+				bits &= bits - 1;
+			}
+		}
+		return days;
+	}
+
+	/**The working days in word {@code word} (limited to {@code fromDay..toDay}) which have not been recorded.*/
+	private long missing(long word, long fromDay, long toDay, DayBitmap workingDays) {
+		long bits = workingDays.word(word) & ~word(word);
+		long wordStart = word * 64;
+		if (fromDay > wordStart) {
+			bits &= -1L << (fromDay - wordStart);
+		}
+		if (toDay < wordStart + 63) {
+			bits &= -1L >>> (63 - (toDay - wordStart));
+		}
+		return bits;
+	}
+
+	/**Whether any working day from {@code from} to {@code to} (inclusive) hasn't been recorded.*/
+	boolean anyMissing(LocalDate from, LocalDate to, DayBitmap workingDays) {
+		long fromDay = from.toEpochDay();
+		long toDay = to.toEpochDay();
+		for (long word = Math.floorDiv(fromDay, 64); word <= Math.floorDiv(toDay, 64) && fromDay <= toDay; word++) {
+			if (missing(word, fromDay, toDay, workingDays) != 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**The number of working days from {@code from} to {@code to} (inclusive) which haven't been recorded.*/
+	int countMissing(LocalDate from, LocalDate to, DayBitmap workingDays) {
+		long fromDay = from.toEpochDay();
+		long toDay = to.toEpochDay();
+		int count = 0;
+		for (long word = Math.floorDiv(fromDay, 64); word <= Math.floorDiv(toDay, 64) && fromDay <= toDay; word++) {
+			count += Long.bitCount(missing(word, fromDay, toDay, workingDays));
+		}
+		return count;
+	}
+
+	/**The working days from {@code from} to {@code to} (inclusive) which haven't been recorded.*/
+	TreeSet<LocalDate> missingDays(LocalDate from, LocalDate to, DayBitmap workingDays) {
+		TreeSet<LocalDate> missingDays = new TreeSet<>();
+		long fromDay = from.toEpochDay();
+		long toDay = to.toEpochDay();
+		for (long word = Math.floorDiv(fromDay, 64); word <= Math.floorDiv(toDay, 64) && fromDay <= toDay; word++) {
+			long bits = missing(word, fromDay, toDay, workingDays);
+			while (bits != 0) {
+				missingDays.add(LocalDate.ofEpochDay(word * 64 + Long.numberOfTrailingZeros(bits)));
+				bits &= bits - 1;
+			}
+		}
+		return missingDays;
+	}
+}
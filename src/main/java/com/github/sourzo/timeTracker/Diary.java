@@ -1,20 +1,34 @@
 package com.github.sourzo.timeTracker;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.time.DayOfWeek;
 import java.time.Duration;
+import java.time.Instant;
 import java.time.LocalDate;
 import java.time.LocalTime;
+import java.time.YearMonth;
+import java.time.temporal.TemporalAdjusters;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.function.Consumer;
 
 public class Diary implements Serializable {
 	//Static fields--------------------------------------------------------
@@ -22,7 +36,7 @@ public class Diary implements Serializable {
 	static String defaultFileName = "workDiary.txt";
 
 	//Instance fields------------------------------------------------------
-	private TreeMap<LocalDate, WorkDay> clockCard;
+	private TreeMap<LocalDate, WorkDay> clockCard = new TreeMap<>();
 	private Duration balanceOfRecordedDays = Duration.ofHours(0); 
 	private String fileName = defaultFileName;
 	private LocalDate diaryStart = LocalDate.now(); //TODO: today or first recorded day?
@@ -30,161 +44,657 @@ public class Diary implements Serializable {
 	 * divide your weekly contractual hours by 5.*/ 
 	private Duration dayTargetHours = Duration.ofHours(7);
 	private TreeSet<DayOfWeek> regularNonWorkingDays = new TreeSet<>();
+	/**Goes up by one every time the diary is saved. The journal records which generation 
+	 * it continues from, so that changes which are already in the saved file aren't replayed.*/
+	private long generation = 0;
+	/**Changes made since the last save. Null until the diary has been saved or loaded.*/
+	private transient volatile DiaryJournal journal;
+	/**The number of changes replayed from the journal when the diary was loaded.*/
+	private transient int replayedChanges = 0;
+	/**Every change ever made, for {@link #asOf(Instant)}. Null until the diary has been loaded.*/
+	private transient DiaryHistory history;
+	/**Told about every change once it has been journalled, e.g. by a {@link BackgroundSaver}. May be null.*/
+	private transient volatile Runnable changeListener;
+	/**Told about each day whose stamps have changed, e.g. by an {@link OccupancyIndex}. May be null.*/
+	private transient volatile Consumer<WorkDay> timeStampListener;
+	private transient WorkDayListener dayListener = new DayListener();
+	/**The balance of each recorded day, updated whenever a day changes.*/
+	private transient BalanceIndex balanceIndex = new BalanceIndex();
+	/**Which days have been recorded (see {@link #getUnrecordedDays()}).*/
+	private transient DayBitmap recordedDays = new DayBitmap();
+	/**Which days have missed stamps (see {@link #getMissedStampDays(LocalDate, LocalDate)}), 
+	 * including the days of months which haven't been read.*/
+	private transient DayBitmap missedStampDays = new DayBitmap();
+	/**The minutes expected on each day, from the day target and regular non-working days, any 
+	 * weekly patterns and overrides, and the shared public holidays (see {@link WorkingCalendar}).*/
+	private transient WorkingCalendar calendar = new WorkingCalendar();
+	/**The months of the diary, and which of them have been read from disk (see {@link DiarySegments}).
+	 * Only the months which are used are kept in {@link #clockCard}.*/
+	private transient DiarySegments segments = new DiarySegments();
+	/**Recently viewed weeks and months (see {@link #getWeek(LocalDate)}).*/
+	private transient RollupCache rollups = new RollupCache(RollupCache.DEFAULT_CAPACITY);
+	/**The diary as it is now, for reports (see {@link #snapshot()}). Replaced after each change.*/
+	private transient volatile DiarySnapshot snapshot;
+	/**The last revision given to a month of a snapshot (see {@link DiarySnapshot.Month#revision}).*/
+	private transient long monthRevisions = 0;
+	/**The manifest version the diary was read from (see {@link DiarySegments#VERSION}), or 0 if it 
+	 * was read from an older format (or hasn't been read).*/
+	private transient int readVersion = 0;
 	
 	//Constructors----------------------------------------------------------
 	public Diary() {
 		regularNonWorkingDays.add(DayOfWeek.SATURDAY);
 		regularNonWorkingDays.add(DayOfWeek.SUNDAY);
+		calendar.setDefaultWeek(dayTargetHours, regularNonWorkingDays);
+		publishAll();
 	}
 	public Diary(String fileName) {
-		regularNonWorkingDays.add(DayOfWeek.SATURDAY);
-		regularNonWorkingDays.add(DayOfWeek.SUNDAY);
+		this();
 		this.fileName = fileName;
 	}
+	
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		if (clockCard == null) {
+			clockCard = new TreeMap<>();
+		}
+		dayListener = new DayListener();
+		balanceIndex = new BalanceIndex();
+		recordedDays = new DayBitmap();
+		missedStampDays = new DayBitmap();
+		segments = new DiarySegments();
+		rollups = new RollupCache(RollupCache.DEFAULT_CAPACITY);
+		calendar = new WorkingCalendar();
+		calendar.setDefaultWeek(dayTargetHours, regularNonWorkingDays);
+		for (WorkDay day : clockCard.values()) {
+			day.setListener(dayListener);
+			recordedDays.set(day.getDate().toEpochDay());
+			updateMissedStamps(day);
+			segments.changed(YearMonth.from(day.getDate()));
+		}
+		rebuildBalanceIndex();
+		publishAll();
+	}
 
 	//Methods: load & save --------------------------------------------
-	/**Saves the current state of the Diary object (using serialization).*/
+	/**Saves the months which have changed and the manifest (see {@link DiarySegments} for the 
+	 * format), then starts a new journal. Years before this one are packed into archives 
+	 * (see {@link DiaryArchive}). Changes made after this are appended to the journal as 
+	 * they happen (see {@link DiaryJournal}), so the diary only needs to be saved again to tidy up.*/
 	public void save()
 	{
+		long startNanos = System.nanoTime();
 		try 
 		{
-			FileOutputStream fOut = new FileOutputStream(fileName);
-			ObjectOutputStream out = new ObjectOutputStream(fOut);
-			out.writeObject(this);
-			out.flush();
-			out.close();
+			write();
 		}
 		catch (Exception e) 
 		{
 			System.out.println(e);
 		}
+		publishAll();		// The saved months can be read from their new files
+		Metrics.SAVE.recordSince(startNanos);
+	}
+	
+	/**{@link #save()}, but throwing whatever goes wrong instead of reporting it. If it fails 
+	 * before the new manifest is in place, the diary carries on with its old generation and 
+	 * journal, so later changes are still journalled on top of the last save.*/
+	void write() throws IOException
+	{
+		if (history != null) {
+			try {
+				history.writeStart();		// Before the files it is read from are replaced
+			} catch (IOException e) {
+				System.out.println(e);
+			}
+		}
+		if (journal != null) {
+			try {
+				journal.close();			// Kept until the new one is opened, so a sync meanwhile isn't failed
+			} catch (IOException e) {
+				System.out.println(e);
+			}
+		}
+		long savedGeneration = generation;
+		Map<YearMonth, DiarySegments.Segment> savedSegments = segments.beforeSave();
+		generation++;
+		boolean moved = false;
+		try {
+			List<Path> replacedSegments = segments.writeChanged(this);
+			replacedSegments.addAll(archiveClosedYears());
+			Path tempPath = Paths.get(fileName + ".tmp");
+			int manifestBytes;
+			try (FileOutputStream fOut = new FileOutputStream(tempPath.toFile())) {
+				BufferedOutputStream out = new BufferedOutputStream(fOut);
+				manifestBytes = segments.writeManifest(this, out);
+				out.flush();
+				fOut.getFD().sync();
+			}
+			Files.move(tempPath, Paths.get(fileName), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			moved = true;
+			for (Path replaced : replacedSegments) {
+				Files.deleteIfExists(replaced);
+			}
+			Files.deleteIfExists(DiaryJournal.pathFor(fileName));
+			Metrics.SAVE_BYTES.record(manifestBytes + segments.getLastWriteBytes());
+			Metrics.DIARY_DAYS.record(segments.dayCount());
+		} finally {
+			if (!moved) {
+				generation = savedGeneration;
+				segments.restore(savedSegments);
+			}
+			journal = new DiaryJournal(DiaryJournal.pathFor(fileName), generation, history);
+		}
 	}
 	
 	public void saveAs(String filename) {
-		this.fileName = filename;
+		moveTo(filename);
 		this.save();
 	}
 	
-	/**Loads the diary from the saved state.
+	/**Makes {@code filename} the diary's file, so that the next save writes every month to it.*/
+	void moveTo(String filename) {
+		if (!filename.equals(this.fileName)) {
+			loadAllSegments();
+			segments.markAllChanged();
+			closeJournal();
+			history = null;		// The history stays with the old file
+		}
+		this.fileName = filename;
+	}
+	
+	/**Loads the diary from the saved state, and replays any changes which were journalled 
+	 * after it was saved. Only the manifest is read at first: each month is read the first 
+	 * time something in it is used (see {@link DiarySegments}).
+	 * <P>Diaries saved by older versions (using Java serialization, or {@link DiaryCodec} as 
+	 * one file) are converted to the current format the first time they are loaded. The old 
+	 * file is kept with ".legacy" added to its name.
+	 * <P>If the diary can't be read, the error is printed and an empty diary is returned (which 
+	 * isn't journalled), so that the menus can still be used; see {@link #open(Path)} to be told instead.
 	 * @param fileName the filename, e.g. "clockingDiary.txt". If left null, {@link #defaultFileName} will be used.
 	 * @return The loaded diary.*/
 	public static Diary load(String fileName)
 	{
-		Diary loadedDiary;
 		if (fileName == null) { //TODO Optional<>?
 			fileName = defaultFileName;
 		}
+		try
+		{
+			return open(Paths.get(fileName));
+		}
+		catch(IOException | RuntimeException e)
+		{
+			System.out.println(e);
+			return new Diary();
+		}
+	}
+	
+	/**{@link #load(String)}, but throwing whatever goes wrong instead of falling back to an empty 
+	 * diary, e.g. for a {@link DiaryStore}, where an empty diary would take stamps which are never 
+	 * journalled. A diary is only created if there is no file at {@code path} at all.
+	 * @throws IOException if the file (or its journal) can't be read, isn't a diary, or couldn't be converted*/
+	static Diary open(Path path) throws IOException {
+		long startNanos = System.nanoTime();
+		String fileName = path.toString();
 		
 		//If there is not file of that name, create a new Diary and save it.
-		Path path = Paths.get(fileName);
 		if(!Files.exists(path)) {
-			loadedDiary = new Diary();
-			loadedDiary.saveAs(fileName);
+			Diary newDiary = new Diary();
+			newDiary.moveTo(fileName);
+			newDiary.write();
+			newDiary.closeJournal();
 		}
 		
 		//Load the saved diary.
-		try
-		{
-			ObjectInputStream in = new ObjectInputStream(new FileInputStream(fileName));
-			loadedDiary = (Diary)in.readObject();
-			in.close();
-		}
-		catch(Exception e)
-		{
-			System.out.println(e);
-			loadedDiary = new Diary();
+		Diary loadedDiary = decode(path);
+		if (loadedDiary.readVersion == 0) {
+			migrateLegacyFile(loadedDiary);
+		} else if (loadedDiary.readVersion < DiarySegments.MISSED_STAMPS_VERSION) {
+			upgradeManifest(loadedDiary);
 		}
+		loadedDiary.readSharedHolidays();
+		loadedDiary.replayedChanges = DiaryJournal.replay(DiaryJournal.pathFor(fileName), loadedDiary.generation, loadedDiary);
+		loadedDiary.history = DiaryHistory.open(loadedDiary);
+		loadedDiary.journal = new DiaryJournal(DiaryJournal.pathFor(fileName), loadedDiary.generation, loadedDiary.history);
+		loadedDiary.publishAll();
+		Metrics.DIARY_DAYS.record(loadedDiary.segments.dayCount());
+		Metrics.LOAD.recordSince(startNanos);
 		return loadedDiary;
 	}
 	
+	/**Reads the diary file at {@code path} in any of the formats which {@link #load(String)} reads, 
+	 * without changing anything on disk (nothing is created, converted or replayed), e.g. for a 
+	 * {@link DiaryMigrator}. For a manifest, the months are read from beside it when they are used.
+	 * @throws IOException if the file can't be read, or isn't a diary*/
+	static Diary decode(Path path) throws IOException {
+		String fileName = path.toString();
+		try (InputStream in = new BufferedInputStream(new FileInputStream(fileName))) {
+			in.mark(5);
+			byte[] header = new byte[5];
+			int headerLength = in.read(header);
+			in.reset();
+			Diary diary;
+			if (headerLength == 5 && DiaryCodec.isCodecFormat(header) && DiarySegments.isManifest(header[4])) {
+				diary = DiarySegments.readManifest(in, fileName, header[4]);
+				diary.readVersion = header[4];
+			} else if (headerLength == 5 && DiaryCodec.isCodecFormat(header)) {
+				diary = DiaryCodec.read(in, fileName);
+			} else {
+				diary = (Diary)new ObjectInputStream(in).readObject();
+				diary.fileName = fileName;
+			}
+			return diary;
+		} catch (ClassNotFoundException | ClassCastException e) {
+			throw new IOException(path + " is not a diary", e);
+		}
+	}
+	
+	/**The diary at {@code path} as {@link #open(Path)} would load it (with the shared holidays and 
+	 * anything in its journal), but without changing anything on disk: nothing is created or 
+	 * converted, and it has no journal, so it mustn't be changed. E.g. for reports.
+	 * @throws IOException if the file (or its journal) can't be read, or isn't a diary*/
+	static Diary read(Path path) throws IOException {
+		Diary diary = decode(path);
+		diary.readSharedHolidays();
+		diary.replayedChanges = DiaryJournal.replay(DiaryJournal.pathFor(path.toString()), diary.generation, diary);
+		return diary;
+	}
+	
+	/**Reads the public holidays in {@link WorkingCalendar#HOLIDAYS_FILE_NAME} in the same directory 
+	 * as the diary file, if there is one (so every diary in a {@link DiaryStore} shares them).*/
+	private void readSharedHolidays() {
+		Path holidays = Paths.get(fileName).resolveSibling(WorkingCalendar.HOLIDAYS_FILE_NAME);
+		if (Files.exists(holidays)) {
+			try {
+				for (String skipped : loadHolidays(holidays)) {
+					System.out.println(holidays + " " + skipped + " (expected a date, DD/MM/YYYY)");
+				}
+			} catch (IOException e) {
+				System.out.println(e);
+			}
+		}
+	}
+	
+	/**Re-saves a diary which was read from an older format in the current format. 
+	 * Anything in its journal is replayed first so that it ends up in the new file.*/
+	private static void migrateLegacyFile(Diary legacyDiary) throws IOException {
+		String fileName = legacyDiary.fileName;
+		DiaryJournal.replay(DiaryJournal.pathFor(fileName), legacyDiary.generation, legacyDiary);
+		Files.copy(Paths.get(fileName), Paths.get(fileName + ".legacy"), StandardCopyOption.REPLACE_EXISTING);
+		legacyDiary.write();
+		legacyDiary.closeJournal();
+	}
+	
+	/**Re-saves a diary whose manifest is from before the missed stamps of each month were kept 
+	 * in it, reading each month once to find them.*/
+	private static void upgradeManifest(Diary diary) throws IOException {
+		DiaryJournal.replay(DiaryJournal.pathFor(diary.fileName), diary.generation, diary);
+		for (DiarySegments.Segment segment : diary.segments.all()) {
+			boolean wasLoaded = segment.loaded;
+			diary.loadSegment(segment.month.atDay(1));
+			segment.summarise(diary.daysIn(segment.month));
+			if (!wasLoaded && !segment.changed) {
+				diary.unloadSegment(segment);
+			}
+		}
+		diary.write();
+		diary.closeJournal();
+	}
+	
+	/**Makes sure that every change journalled so far is on disk. Changes are handed to the operating 
+	 * system as they are made, which survives the program stopping but not the computer stopping.
+	 * <P>This can be called from another thread while the diary is being changed.
+	 * @throws IOException if the changes couldn't be written, so may be lost if the computer stops, 
+	 * or if the diary has no journal (it hasn't been saved, or its journal has been closed)*/
+	public void syncJournal() throws IOException {
+		DiaryJournal journal = this.journal;
+		if (journal == null) {
+			throw new IOException(fileName + " has no journal, so its changes aren't being saved");
+		}
+		journal.sync();
+	}
+	
+	/**The diary as it was at {@code instant}, without the changes made since, e.g. to see what a 
+	 * disputed balance was based on before the days behind it were amended. It is rebuilt from the 
+	 * diary's history (see {@link DiaryHistory}), as a copy which changing or saving won't affect 
+	 * this diary. Its days are measured against this diary's working calendar as it is now.
+	 * @return the diary as it was, or null if this diary wasn't loaded from a file (so has no history)*/
+	public Diary asOf(Instant instant) {
+		if (history == null) {
+			return null;
+		}
+		try {
+			Diary then = history.asOf(instant, fileName + ".asOf");
+			then.calendar = new WorkingCalendar(calendar);
+			then.calendarChanged();
+			return then;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+	
+	/**The diary as it is now, which later changes won't affect, for reports which shouldn't hold 
+	 * up changes (see {@link DiarySnapshot}). A new snapshot is published after every change, so 
+	 * this just returns the latest, and can be called from any thread while the diary is being 
+	 * changed.*/
+	public DiarySnapshot snapshot() {
+		return snapshot;
+	}
+	
+	/**Publishes a snapshot with a new copy of {@code day}. If its month only had the totals from 
+	 * the manifest, the month's other days (which must be loaded) are copied as well.*/
+	private void publish(WorkDay day) {
+		DiarySnapshot current = snapshot;
+		YearMonth month = YearMonth.from(day.getDate());
+		DiarySnapshot.Month previous = current.month(month);
+		WorkDay[] days = previous != null && previous.days != null ? previous.days.clone() : copyDays(month);
+		days[day.getDate().getDayOfMonth() - 1] = new WorkDay(day);
+		long balance = balanceIndex.sum(month.atDay(1).toEpochDay(), month.atEndOfMonth().toEpochDay());
+		snapshot = current.with(new DiarySnapshot.Month(month, days, balance, ++monthRevisions));
+	}
+	
+	/**Publishes a new snapshot of the whole diary, after something which affects more than one day 
+	 * (e.g. the working calendar), or a save. Months which haven't changed since they were saved 
+	 * are only their totals; the others are copied, unless the last snapshot already has a copy.*/
+	private void publishAll() {
+		DiarySnapshot previous = snapshot;
+		List<DiarySnapshot.Month> months = new ArrayList<>();
+		for (DiarySegments.Segment segment : segments.all()) {
+			DiarySnapshot.Month old = previous == null ? null : previous.month(segment.month);
+			long balance = balanceIndex.sum(segment.firstEpochDay(), segment.month.atEndOfMonth().toEpochDay());
+			long revision = old == null ? ++monthRevisions : old.revision;
+			if (segment.changed || segment.generation == 0) {
+				WorkDay[] days = old != null && old.days != null ? old.days : copyDays(segment.month);
+				months.add(new DiarySnapshot.Month(segment.month, days, balance, revision));
+			} else {
+				months.add(new DiarySnapshot.Month(segment.copy(), DiarySegments.pathFor(fileName, segment), balance, revision));
+			}
+		}
+		snapshot = new DiarySnapshot(this, diaryStart, new WorkingCalendar(calendar), 
+				months.toArray(new DiarySnapshot.Month[0]));
+	}
+	
+	/**Copies of the loaded days of {@code month}, by day of the month - 1.*/
+	private WorkDay[] copyDays(YearMonth month) {
+		WorkDay[] days = new WorkDay[month.lengthOfMonth()];
+		for (WorkDay day : daysIn(month)) {
+			days[day.getDate().getDayOfMonth() - 1] = new WorkDay(day);
+		}
+		return days;
+	}
+	
+	/**Sets the most changes which {@link #asOf(Instant)} replays, by keeping a snapshot of the 
+	 * diary every {@code changes} changes. Fewer means quicker answers but more disk space.*/
+	public void setSnapshotInterval(int changes) {
+		if (history != null) {
+			history.setSnapshotInterval(changes);
+		}
+	}
+	
+	/**Calls {@code listener} after each change to the diary has been journalled (on the thread 
+	 * which made the change), or stops calling it if {@code listener} is null.*/
+	public void setChangeListener(Runnable listener) {
+		this.changeListener = listener;
+	}
+	
+	/**Calls {@code listener} with the day after each change to its stamps has been journalled, or 
+	 * stops calling it if {@code listener} is null.*/
+	public void setTimeStampListener(Consumer<WorkDay> listener) {
+		this.timeStampListener = listener;
+	}
+	
+	private void stampsChanged(WorkDay day) {
+		Consumer<WorkDay> listener = timeStampListener;
+		if (listener != null) {
+			listener.accept(day);
+		}
+	}
+	
+	private void journalled() {
+		Runnable listener = changeListener;
+		if (listener != null) {
+			listener.run();
+		}
+	}
+	
+	/**Stops writing to the journal file (changes are still kept in memory).*/
+	public void closeJournal() {
+		if (journal != null) {
+			try {
+				journal.close();
+			} catch (IOException e) {
+				System.out.println(e);
+			}
+			journal = null;
+		}
+	}
+	
+	/**Sends each change made to a day in the diary to the journal and the balance index, and 
+	 * notes that the day's month needs saving and its rollups are out of date. If the journal 
+	 * can't be written, the change is kept in memory (for the next save) but an 
+	 * {@link UncheckedIOException} is thrown, so that it isn't taken as being on disk.*/
+	private class DayListener implements WorkDayListener {
+		@Override
+		public void hoursChanged(WorkDay day) {
+			balanceIndex.set(day.getDate().toEpochDay(), dayBalance(day).getSeconds());
+			updateMissedStamps(day);
+			rollups.invalidate(day.getDate());
+		}
+		@Override
+		public void timeStampAdded(WorkDay day, LocalTime time, StampType inOrOut) {
+			dayChanged(day);
+			try {
+				if (journal != null) {
+					journal.stampAdded(day.getDate(), time, inOrOut);
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			} finally {
+				journalled();
+				stampsChanged(day);
+			}
+		}
+		@Override
+		public void timeStampRemoved(WorkDay day, LocalTime time) {
+			dayChanged(day);
+			try {
+				if (journal != null) {
+					journal.stampRemoved(day.getDate(), time);
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			} finally {
+				journalled();
+				stampsChanged(day);
+			}
+		}
+		@Override
+		public void activityAdded(WorkDay day, ActivityType activity, Duration duration) {
+			dayChanged(day);
+			try {
+				if (journal != null) {
+					journal.activityAdded(day.getDate(), activity, duration);
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			} finally {
+				journalled();
+			}
+		}
+		@Override
+		public void activityRemoved(WorkDay day, ActivityType activity, Duration duration) {
+			dayChanged(day);
+			try {
+				if (journal != null) {
+					journal.activityRemoved(day.getDate(), activity, duration);
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			} finally {
+				journalled();
+			}
+		}
+	}
+	
+	private void dayChanged(WorkDay day) {
+		segments.changed(YearMonth.from(day.getDate()));
+		rollups.invalidate(day.getDate());
+		publish(day);
+	}
 	
 	//Methods: Changing things ---------------------------------------------
 	/**For each day which has been recorded in the diary, sum up the number of hours worked 
-	 * (which is updated every time an entry is modified) and subtract the target number of
-	 * hours to work each day*/
+	 * (which is updated every time an entry is modified) and subtract the number of hours
+	 * expected that day. 
+	 * <P>This rebuilds the {@link #balanceIndex} from scratch. It isn't needed after normal 
+	 * changes, which update the index as they happen.*/
 	public Duration recalculateBalance() {
-		Duration balance = Duration.ofHours(0);
-		for (Map.Entry<LocalDate, WorkDay> diaryEntry : clockCard.entrySet()) {
-			balance.plus(diaryEntry.getValue().getHoursWorked());
-			balance.minus(dayTargetHours);
-		}
-		if (!getUnrecordedDays().isEmpty()) {
+		Duration balance = rebuildBalanceIndex();
+		balanceOfRecordedDays = balance;
+		if (hasUnrecordedDays()) {
 			System.out.println("Warning: There are missed clockings in the diary");
 		}
 		return balance;
 	}
 	
+	private Duration rebuildBalanceIndex() {
+		balanceIndex.clear();
+		for (DiarySegments.Segment segment : segments.all()) {
+			if (!segment.loaded) {
+				balanceIndex.set(segment.firstEpochDay(), segmentBalance(segment));
+			}
+		}
+		for (Map.Entry<LocalDate, WorkDay> diaryEntry : clockCard.entrySet()) {
+			balanceIndex.set(diaryEntry.getKey().toEpochDay(), dayBalance(diaryEntry.getValue()).getSeconds());
+		}
+		return Duration.ofSeconds(balanceIndex.total());
+	}
+	
+	/**Hours worked on the day minus the hours expected that day (see {@link WorkingCalendar}).*/
+	private Duration dayBalance(WorkDay day) {
+		return Duration.ofMinutes(day.getMinutesWorked() - calendar.expectedMinutes(day.getDate()));
+	}
+	
+	/**The balance of a month which hasn't been read, in seconds, from the totals in the manifest.*/
+	private long segmentBalance(DiarySegments.Segment segment) {
+		return (segment.minutesWorked - calendar.expectedMinutes(segment.month, segment.dayMask)) * 60;
+	}
+	
 	public void stamp()
 	{
+		long startNanos = System.nanoTime();
 		LocalDate today = LocalDate.now();
 		LocalTime rightNow = TimeAndDate.timeNow();
-		if (!clockCard.containsKey(today))
-		{
-			clockCard.put(today, new WorkDay(today));
-		}
-		clockCard.get(today).addTimeStamp(rightNow);
-		recalculateBalance();
+		get(today).addTimeStamp(rightNow);
+		Metrics.STAMP.recordSince(startNanos);
 	}
 	
 	//TODO look into Optional<> types?
-	public void stamp(StampType inOrOut)
+	/**Clocks in or out now.
+	 * @return the time recorded*/
+	public LocalTime stamp(StampType inOrOut)
 	{
+		long startNanos = System.nanoTime();
 		LocalDate today = LocalDate.now();
 		LocalTime rightNow = TimeAndDate.timeNow();
-		if (!clockCard.containsKey(today))
-		{
-			clockCard.put(today, new WorkDay(today));
-		}
-		clockCard.get(today).addTimeStamp(rightNow, inOrOut);
-		recalculateBalance();
-		System.out.println("Success! " + inOrOut.getLabel() + " at " + rightNow + " on " + today);
+		get(today).addTimeStamp(rightNow, inOrOut);
+		Metrics.STAMP.recordSince(startNanos);
+		CUI.inform("Success! " + inOrOut.getLabel() + " at " + rightNow + " on " + today);
+		return rightNow;
 	}
 	
 	public void addActivity(ActivityType activity, Duration duration) {
+		long startNanos = System.nanoTime();
 		LocalDate today = LocalDate.now();
-		if (!clockCard.containsKey(today))
-		{
-			clockCard.put(today, new WorkDay(today));
-		}
-		clockCard.get(today).addActivity(activity, duration);
-		recalculateBalance();
-		System.out.println("Success! Added " + activity.getLabel() + " of duration  " + duration + " on " + today);
+		get(today).addActivity(activity, duration);
+		Metrics.ADD_ACTIVITY.recordSince(startNanos);
+		CUI.inform("Success! Added " + activity.getLabel() + " of duration  " + duration + " on " + today);
 	}
 	
 	public Diary setStartDate(LocalDate newStartDate) {
 		this.diaryStart = newStartDate;
-		recalculateBalance();
+		publishAll();
+		try {
+			if (journal != null) {
+				journal.startDate(newStartDate);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			journalled();
+		}
 		return this;
 	}
 
 	//Methods: descriptive  -------------------------------------------------------
 	
+	/**Gets the record for {@code date}, or null if the day hasn't been recorded (unlike 
+	 * {@link #get(LocalDate)}, nothing is created or journalled).*/
+	WorkDay find(LocalDate date) {
+		loadSegment(date);
+		return clockCard.get(date);
+	}
+	
+	/**Gets the record for {@code date}, creating an empty one if the day hasn't been recorded yet.*/
 	public WorkDay get(LocalDate date) {
+		loadSegment(date);
 		if (clockCard.containsKey(date)) {
 			return clockCard.get(date);
 		} else {
-			clockCard.put(date, new WorkDay(date));
-			return clockCard.get(date);
-		}
-	}
-	public Duration balanceToDate(LocalDate startDate, LocalDate endDate) {
-		Duration balance = Duration.ofHours(0);
-		for (Map.Entry<LocalDate, WorkDay> diaryEntry : clockCard.entrySet()) {
-			if (diaryEntry.getKey().isAfter(startDate.minusDays(1))) {
-				if (diaryEntry.getKey().isAfter(endDate)){
-					break;
-				} else {
-					balance.plus(diaryEntry.getValue().getHoursWorked());
-					balance.minus(dayTargetHours);
+			WorkDay day = new WorkDay(date);
+			day.setListener(dayListener);
+			clockCard.put(date, day);
+			recordedDays.set(date.toEpochDay());
+			balanceIndex.set(date.toEpochDay(), dayBalance(day).getSeconds());
+			dayChanged(day);
+			try {
+				if (journal != null) {
+					journal.newDay(date);
 				}
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			} finally {
+				journalled();
 			}
+			return day;
 		}
-		if (!getUnrecordedDays().isEmpty()) {
+	}
+	/**The balance (hours worked minus target hours) of the recorded days from {@code startDate} 
+	 * to {@code endDate} inclusive. Looked up in the {@link #balanceIndex}, so it takes the same 
+	 * time however many days are in the range. Months which are wholly in the range don't need
+	 * to be read; the months at either end are read unless the range starts or ends with them.*/
+	public Duration balanceToDate(LocalDate startDate, LocalDate endDate) {
+		long startNanos = System.nanoTime();
+		Duration balance = balanceBetween(startDate, endDate);
+		Metrics.BALANCE_TO_DATE.recordSince(startNanos);
+		if (hasUnrecordedDays()) {
 			System.out.println("Warning: There are missed clockings in the diary");
 		}
 		return balance;
 	}
 	
+	/**{@link #balanceToDate(LocalDate, LocalDate)} without the warning about unrecorded days.
+	 * <P>A month which hasn't been read only has its total, so if the range starts or ends part 
+	 * way through it, it is read, unless none of its recorded days are outside the range (e.g. 
+	 * when the range ends today), in which case its total is all in the range.*/
+	Duration balanceBetween(LocalDate startDate, LocalDate endDate) {
+		long from = startDate.toEpochDay();
+		long to = endDate.toEpochDay();
+		long monthStart = startDate.withDayOfMonth(1).toEpochDay();
+		if (from != monthStart) {
+			if (recordedDays.any(monthStart, from - 1)) {
+				loadSegment(startDate);
+			} else {
+				from = monthStart;
+			}
+		}
+		long monthEnd = endDate.with(TemporalAdjusters.lastDayOfMonth()).toEpochDay();
+		if (to != monthEnd && recordedDays.any(to + 1, monthEnd)) {
+			loadSegment(endDate);
+		}
+		return Duration.ofSeconds(balanceIndex.sum(from, to));
+	}
+	
 	public Duration balanceToDate(LocalDate endDate) {
 		return balanceToDate(diaryStart, endDate);
 	}
@@ -194,16 +704,47 @@ public class Diary implements Serializable {
 	}
 	
 	
+	/**The working days (days when any hours are expected) from the start of the diary up to 
+	 * today which have nothing recorded.*/
 	public TreeSet<LocalDate> getUnrecordedDays() {
-		TreeSet<LocalDate> missingDays = new TreeSet<>();
-		for (LocalDate date = diaryStart; date.isBefore(LocalDate.now().plusDays(1)); date = date.plusDays(1)) {
-			if (!clockCard.containsKey(date) && !regularNonWorkingDays.contains(date.getDayOfWeek())) {
-				missingDays.add(date);
-			}
-		}
-		return missingDays;
+		long startNanos = System.nanoTime();
+		LocalDate today = LocalDate.now();
+		TreeSet<LocalDate> unrecordedDays = recordedDays.missingDays(diaryStart, today, calendar.workingDays(diaryStart, today));
+		Metrics.GET_UNRECORDED_DAYS.recordSince(startNanos);
+		return unrecordedDays;
 	} 
 	
+	/**The days from {@code from} to {@code to} (inclusive) whose stamps don't alternate between 
+	 * in and out, or which haven't been clocked out yet. Found in an index which is kept up to 
+	 * date as days change (and saved with each month), so no days are looked at.*/
+	public TreeSet<LocalDate> getMissedStampDays(LocalDate from, LocalDate to) {
+		return missedStampDays.days(from, to);
+	}
+	
+	private void updateMissedStamps(WorkDay day) {
+		if (day.hasMissedStamps()) {
+			missedStampDays.set(day.getDate().toEpochDay());
+		} else {
+			missedStampDays.unset(day.getDate().toEpochDay());
+		}
+	}
+	
+	/**Whether there are any working days from the start of the diary up to today which have 
+	 * nothing recorded. Quicker than checking {@link #getUnrecordedDays()} is empty.*/
+	public boolean hasUnrecordedDays() {
+		LocalDate today = LocalDate.now();
+		return recordedDays.anyMissing(diaryStart, today, calendar.workingDays(diaryStart, today));
+	}
+	
+	/**The number of working days from {@code from} to {@code to} inclusive (but only from the 
+	 * start of the diary up to today) which have nothing recorded.*/
+	public int countUnrecordedDays(LocalDate from, LocalDate to) {
+		LocalDate today = LocalDate.now();
+		LocalDate start = from.isBefore(diaryStart) ? diaryStart : from;
+		LocalDate end = to.isAfter(today) ? today : to;
+		return start.isAfter(end) ? 0 : recordedDays.countMissing(start, end, calendar.workingDays(start, end));
+	}
+	
 	public void viewDay() {
 		viewDay(LocalDate.now());
 	}
@@ -212,6 +753,7 @@ public class Diary implements Serializable {
 		if (date==null) {
 			viewDay();
 		}
+		loadSegment(date);
 		if (clockCard.containsKey(date)) {
 			clockCard.get(date).displayDetails();
 		} else {
@@ -224,22 +766,288 @@ public class Diary implements Serializable {
 	}
 
 	public void viewWeek(LocalDate date) {
-		int dayNum = date.getDayOfWeek().getValue();
-		LocalDate weekStart = date.minusDays(dayNum-1);
+		showWeek(getWeek(date));
+	}
+	
+	/**Shows the hours worked on each weekday of {@code week}, and its total and balance.*/
+	static void showWeek(Rollup week) {
 		for (int i = 0; i<5; i++) {
-			LocalDate day = weekStart.plusDays(i);
+			LocalDate day = week.getStart().plusDays(i);
 			System.out.print(day + ": ");
-			if (clockCard.containsKey(day)) {
-				System.out.println(TimeAndDate.parseDuration(clockCard.get(day).getHoursWorked()) + " total");
+			Duration hoursWorked = week.getHoursWorked(day);
+			if (hoursWorked != null) {
+				System.out.println(TimeAndDate.parseDuration(hoursWorked) + " total");
 			} else {
 				System.out.println("nothing recorded");
 			}
-			//TODO add activities/stamp totals?
 		}
+		System.out.println("Week: " + TimeAndDate.parseDuration(week.getHoursWorked()) 
+				+ " total, balance " + TimeAndDate.parseDuration(week.getBalance()));
+		if (week.getMissedStampDays() > 0) {
+			CUI.warn("Missed time stamps on " + week.getMissedStampDays() + " day(s) - view each day for details");
+		}
+	}
+	
+	/**Totals for the ISO week (Monday to Sunday) containing {@code date}. These are kept until 
+	 * a day in the week changes, so viewing the same weeks again doesn't add them up again.*/
+	public Rollup getWeek(LocalDate date) {
+		LocalDate monday = RollupCache.weekStart(date);
+		Rollup week = rollups.get(monday);
+		if (week == null) {
+			LocalDate sunday = monday.plusDays(6);
+			week = new Rollup(monday, sunday, daysBetween(monday, sunday), calendar);
+			rollups.put(monday, week);
+		}
+		return week;
+	}
+	
+	/**Totals for {@code month}, kept like {@link #getWeek(LocalDate)}.*/
+	public Rollup getMonth(YearMonth month) {
+		Rollup rollup = rollups.get(month);
+		if (rollup == null) {
+			LocalDate first = month.atDay(1);
+			LocalDate last = month.atEndOfMonth();
+			rollup = new Rollup(first, last, daysBetween(first, last), calendar);
+			rollups.put(month, rollup);
+		}
+		return rollup;
 	}
 	
 	public String getFileName() {
 		return fileName;
 	}
+	
+	public LocalDate getStartDate() {return diaryStart;}
+	public Duration getDayTargetHours() {return dayTargetHours;}
+	public Set<DayOfWeek> getRegularNonWorkingDays() {return Collections.unmodifiableSet(regularNonWorkingDays);}
+	
+	//Methods: working calendar ----------------------------------------------
+	/**The hours expected on {@code date}: see {@link WorkingCalendar} for the rules which decide it.*/
+	public Duration getExpectedHours(LocalDate date) {
+		return Duration.ofMinutes(calendar.expectedMinutes(date));
+	}
+	
+	/**Expects {@code hours} on each day of the week from {@code from} until the next change of 
+	 * weekly hours, e.g. for a new contract. Days of the week which aren't in {@code hours} are 
+	 * non-working days.*/
+	public void setWeeklyHours(LocalDate from, Map<DayOfWeek, Duration> hours) {
+		for (DayOfWeek day : DayOfWeek.values()) {
+			calendar.setWeekDay(from, day, (int) hours.getOrDefault(day, Duration.ZERO).toMinutes());
+		}
+		try {
+			if (journal != null) {
+				for (DayOfWeek day : DayOfWeek.values()) {
+					journal.weekDay(from, day, (int) hours.getOrDefault(day, Duration.ZERO).toMinutes());
+				}
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			calendarChanged();
+			journalled();
+		}
+	}
+	
+	/**One day of {@link #setWeeklyHours}, as replayed from the journal.*/
+	void setWeekDay(LocalDate from, DayOfWeek day, int minutes) {
+		calendar.setWeekDay(from, day, minutes);
+		calendarChanged();
+	}
+	
+	/**Expects {@code hours} on {@code date}, whatever the weekly hours and holidays say (e.g. a 
+	 * half day), or with null, goes back to what they say.*/
+	public void setExpectedHours(LocalDate date, Duration hours) {
+		if (hours == null) {
+			calendar.clearOverride(date);
+		} else {
+			calendar.setOverride(date, (int) hours.toMinutes());
+		}
+		try {
+			if (journal != null) {
+				if (hours == null) {
+					journal.expectedHoursCleared(date);
+				} else {
+					journal.expectedHours(date, hours);
+				}
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			calendarChanged();
+			journalled();
+		}
+	}
+	
+	/**Adds the public holidays in {@code file} (see {@link WorkingCalendar#readHolidays(Path)}). 
+	 * They aren't saved with the diary: {@link #load(String)} reads them from the 
+	 * {@link WorkingCalendar#HOLIDAYS_FILE_NAME} next to the diary file each time.
+	 * @return the lines which weren't holidays, each as {@code line <number>: <text>}*/
+	public List<String> loadHolidays(Path file) throws IOException {
+		List<String> skipped = calendar.readHolidays(file);
+		calendarChanged();
+		return skipped;
+	}
+	
+	/**Minutes expected on {@code date}.*/
+	int expectedMinutes(LocalDate date) {
+		return calendar.expectedMinutes(date);
+	}
+	
+	/**Re-works out the balances and rollups, which depend on the hours expected each day.*/
+	private void calendarChanged() {
+		rollups.clear();
+		rebuildBalanceIndex();
+		publishAll();
+	}
+	
+	//Methods: used by DiaryCodec ----------------------------------------------
+	/**All recorded days, in date order (reading any months which haven't been read yet).*/
+	Collection<WorkDay> days() {
+		loadAllSegments();
+		return clockCard.values();
+	}
+	/**The recorded days from {@code from} to {@code to} inclusive, in date order (reading their 
+	 * months if need be).*/
+	Collection<WorkDay> daysBetween(LocalDate from, LocalDate to) {
+		if (from.isAfter(to)) {
+			return Collections.emptyList();
+		}
+		for (DiarySegments.Segment segment : segments.between(YearMonth.from(from), YearMonth.from(to))) {
+			loadSegment(segment.month.atDay(1));
+		}
+		return clockCard.subMap(from, true, to, true).values();
+	}
+	/**Calls {@code action} with each recorded day from {@code from} to {@code to} inclusive, in 
+	 * date order. Months which hadn't been read before are dropped again once they have been 
+	 * done (unless {@code action} changed them), so going through any amount of history only 
+	 * takes the memory of one month.*/
+	void forEachDay(LocalDate from, LocalDate to, Consumer<WorkDay> action) {
+		if (from.isAfter(to)) {
+			return;
+		}
+		for (DiarySegments.Segment segment : segments.between(YearMonth.from(from), YearMonth.from(to))) {
+			boolean wasLoaded = segment.loaded;
+			loadSegment(segment.month.atDay(1));
+			LocalDate first = segment.month.atDay(1).isBefore(from) ? from : segment.month.atDay(1);
+			LocalDate last = segment.month.atEndOfMonth().isAfter(to) ? to : segment.month.atEndOfMonth();
+			for (WorkDay day : clockCard.subMap(first, true, last, true).values()) {
+				action.accept(day);
+			}
+			if (!wasLoaded && !segment.changed) {
+				unloadSegment(segment);
+			}
+		}
+	}
+	/**The number of recorded days, without reading any months.*/
+	int dayCount() {
+		int count = 0;
+		for (DiarySegments.Segment segment : segments.all()) {
+			count += segment.loaded ? daysIn(segment.month).size() : segment.dayCount();
+		}
+		return count;
+	}
+	/**The loaded days in {@code month}, in date order.*/
+	Collection<WorkDay> daysIn(YearMonth month) {
+		return clockCard.subMap(month.atDay(1), true, month.atEndOfMonth(), true).values();
+	}
+	DiarySegments segments() {return segments;}
+	WorkingCalendar calendar() {return calendar;}
+	int getReplayedChanges() {return replayedChanges;}
+	RollupCache rollups() {return rollups;}
+	long getGeneration() {return generation;}
+	void setGeneration(long generation) {this.generation = generation;}
+	
+	void restoreSettings(LocalDate diaryStart, Duration dayTargetHours, Set<DayOfWeek> regularNonWorkingDays) {
+		this.diaryStart = diaryStart;
+		this.dayTargetHours = dayTargetHours;
+		this.regularNonWorkingDays = new TreeSet<>(regularNonWorkingDays);
+		calendar.setDefaultWeek(dayTargetHours, this.regularNonWorkingDays);
+		calendarChanged();
+	}
+	
+	/**Adds a day which has been read from file (without journalling it). If it wasn't read 
+	 * from a month's file, its month is marked as changed so that the next save writes it.*/
+	void putDay(WorkDay day) {
+		DiarySegments.Segment segment = segments.get(YearMonth.from(day.getDate()));
+		if (segment == null || !segment.loaded) {
+			segments.changed(YearMonth.from(day.getDate()));
+		}
+		day.setListener(dayListener);
+		clockCard.put(day.getDate(), day);
+		recordedDays.set(day.getDate().toEpochDay());
+		updateMissedStamps(day);
+		balanceIndex.set(day.getDate().toEpochDay(), dayBalance(day).getSeconds());
+	}
+	
+	/**Adds a month from the manifest, without reading its days.*/
+	void putSegment(DiarySegments.Segment segment) {
+		segments.put(segment);
+		long firstDay = segment.firstEpochDay();
+		for (int dayMask = segment.dayMask; dayMask != 0; dayMask &= dayMask - 1) {
+			recordedDays.set(firstDay + Integer.numberOfTrailingZeros(dayMask));
+		}
+		for (int missedMask = segment.missedStampMask; missedMask != 0; missedMask &= missedMask - 1) {
+			missedStampDays.set(firstDay + Integer.numberOfTrailingZeros(missedMask));
+		}
+		balanceIndex.set(firstDay, segmentBalance(segment));
+	}
+	
+	/**Reads the days of the month containing {@code date}, if it is saved and hasn't been read yet.
+	 * @throws UncheckedIOException if the month can't be read (carrying on without it could 
+	 * lose the rest of the month when it is next saved)*/
+	private void loadSegment(LocalDate date) {
+		DiarySegments.Segment segment = segments.get(YearMonth.from(date));
+		if (segment != null && !segment.loaded) {
+			try {
+				balanceIndex.set(segment.firstEpochDay(), 0);	// Replaced by the days themselves
+				segment.loaded = true;
+				DiarySegments.readSegment(this, segment);
+			} catch (IOException e) {
+				segment.loaded = false;
+				balanceIndex.set(segment.firstEpochDay(), segmentBalance(segment));
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+	
+	/**Packs each year before this one which has months outside an archive (because they are 
+	 * new, or have changed since the year was archived) into a new archive.
+	 * @return the files which the archives replace, to be deleted once the manifest has been saved*/
+	private List<Path> archiveClosedYears() throws IOException {
+		List<Path> replaced = new ArrayList<>();
+		for (int year : segments.yearsToArchive(LocalDate.now().getYear())) {
+			List<DiarySegments.Segment> readForArchive = new ArrayList<>();
+			for (DiarySegments.Segment segment : segments.inYear(year)) {
+				replaced.add(DiarySegments.pathFor(fileName, segment));
+				if (!segment.loaded) {
+					readForArchive.add(segment);
+					loadSegment(segment.month.atDay(1));
+				}
+			}
+			segments.archive(this, year);
+			for (DiarySegments.Segment segment : readForArchive) {
+				unloadSegment(segment);
+			}
+		}
+		return replaced;
+	}
+	
+	private void loadAllSegments() {
+		for (DiarySegments.Segment segment : segments.all()) {
+			loadSegment(segment.month.atDay(1));
+		}
+	}
+	
+	/**Drops the days of a month which hasn't changed since it was read (they can be read again).*/
+	private void unloadSegment(DiarySegments.Segment segment) {
+		Collection<WorkDay> days = daysIn(segment.month);
+		for (WorkDay day : days) {
+			day.setListener(null);
+			balanceIndex.set(day.getDate().toEpochDay(), 0);
+		}
+		days.clear();
+		segment.loaded = false;
+		balanceIndex.set(segment.firstEpochDay(), segmentBalance(segment));
+	}
 
 }
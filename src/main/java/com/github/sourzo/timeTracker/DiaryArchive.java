@@ -0,0 +1,176 @@
+package com.github.sourzo.timeTracker;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**A closed year of a {@link Diary}, packed into one compressed file which isn't changed
+ * again: {@code <diary file>.segments/<yyyy>.<generation>.archive}.
+ * <P>Each month is a block compressed on its own with {@link Deflater}, holding the month's
+ * days as in its segment file (see {@link DiarySegments#writeDays}), so reading one day only
+ * inflates one block. The file starts with {@link #MAGIC}, the year and the year's totals,
+ * then an index with each block's month, position, compressed length and totals, then the blocks.
+ * <P>The manifest keeps the totals of each archived month as well, so balances and unrecorded
+ * days which span archived years don't open the archive at all.*/
+class DiaryArchive {
+	//Static fields--------------------------------------------------------
+	static final int MAGIC = 0x54544152; //"TTAR"
+	static final int VERSION = 1;
+	/**Magic, version, year, day count, minutes worked and block count.*/
+	private static final int HEADER_BYTES = 4 + 1 + 4 + 4 + 8 + 1;
+	/**Month, position, compressed length, day count and minutes worked.*/
+	private static final int INDEX_ENTRY_BYTES = 1 + 4 + 4 + 4 + 8;
+
+	/**An archive's header and index.*/
+	static class Index {
+		int year;
+		int dayCount;
+		long minutesWorked;
+		final List<Block> blocks = new ArrayList<>();
+	}
+
+	/**The index entry of one month.*/
+	static class Block {
+		YearMonth month;
+		int position;
+		int length;
+		int dayCount;
+		long minutesWorked;
+	}
+
+	//Methods: other -------------------------------------------------------
+	static Path pathFor(String fileName, int year, long generation) {
+		return DiarySegments.directoryFor(fileName).resolve(year + "." + generation + ".archive");
+	}
+
+	/**Writes the months of {@code year} (which must all be loaded) to a new archive for the
+	 * diary's current generation.
+	 * @return the number of bytes written*/
+	static long write(Diary diary, int year, Collection<DiarySegments.Segment> months) throws IOException {
+		Index index = new Index();
+		index.year = year;
+		List<byte[]> compressed = new ArrayList<>();
+		int position = HEADER_BYTES + months.size() * INDEX_ENTRY_BYTES;
+		for (DiarySegments.Segment segment : months) {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+			DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bytes, deflater));
+			DiarySegments.writeDays(out, segment, diary.daysIn(segment.month));
+			out.close();
+			deflater.end();
+
+			Block block = new Block();
+			block.month = segment.month;
+			block.position = position;
+			block.length = bytes.size();
+			block.dayCount = segment.dayCount();
+			block.minutesWorked = segment.minutesWorked;
+			index.blocks.add(block);
+			index.dayCount += block.dayCount;
+			index.minutesWorked += block.minutesWorked;
+			compressed.add(bytes.toByteArray());
+			position += block.length;
+		}
+
+		Path path = pathFor(diary.getFileName(), year, diary.getGeneration());
+		Files.createDirectories(path.getParent());
+		try (FileOutputStream fOut = new FileOutputStream(path.toFile())) {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fOut));
+			out.writeInt(MAGIC);
+			out.writeByte(VERSION);
+			out.writeInt(index.year);
+			out.writeInt(index.dayCount);
+			out.writeLong(index.minutesWorked);
+			out.writeByte(index.blocks.size());
+			for (Block block : index.blocks) {
+				out.writeByte(block.month.getMonthValue());
+				out.writeInt(block.position);
+				out.writeInt(block.length);
+				out.writeInt(block.dayCount);
+				out.writeLong(block.minutesWorked);
+			}
+			for (byte[] block : compressed) {
+				out.write(block);
+			}
+			out.flush();
+			fOut.getFD().sync();
+			return out.size();
+		}
+	}
+
+	/**Reads the header and index of an archive, without any of its months.*/
+	static Index readIndex(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			return readIndex(channel, path);
+		}
+	}
+
+	private static Index readIndex(FileChannel channel, Path path) throws IOException {
+		ByteBuffer header = read(channel, 0, HEADER_BYTES);
+		if (header.getInt() != MAGIC || header.get() != VERSION) {
+			throw new IOException(path + " is not a diary archive");
+		}
+		Index index = new Index();
+		index.year = header.getInt();
+		index.dayCount = header.getInt();
+		index.minutesWorked = header.getLong();
+		int blockCount = header.get() & 0xFF;
+		ByteBuffer entries = read(channel, HEADER_BYTES, blockCount * INDEX_ENTRY_BYTES);
+		for (int i = 0; i < blockCount; i++) {
+			Block block = new Block();
+			block.month = YearMonth.of(index.year, entries.get());
+			block.position = entries.getInt();
+			block.length = entries.getInt();
+			block.dayCount = entries.getInt();
+			block.minutesWorked = entries.getLong();
+			index.blocks.add(block);
+		}
+		return index;
+	}
+
+	/**Reads the days of one month from an archive, inflating only that month, and passes each one to {@code days}.*/
+	static void readMonth(Path path, DiarySegments.Segment segment, Consumer<WorkDay> days) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			for (Block block : readIndex(channel, path).blocks) {
+				if (block.month.equals(segment.month)) {
+					ByteBuffer bytes = read(channel, block.position, block.length);
+					DataInputStream in = new DataInputStream(new InflaterInputStream(
+							new ByteArrayInputStream(bytes.array(), 0, block.length)));
+					DiarySegments.readDays(in, segment, days);
+					in.close();
+					return;
+				}
+			}
+		}
+		throw new IOException(path + " doesn't have " + segment.month);
+	}
+
+	private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				throw new EOFException();
+			}
+		}
+		buffer.flip();
+		return buffer;
+	}
+}
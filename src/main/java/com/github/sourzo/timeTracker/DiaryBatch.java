@@ -0,0 +1,218 @@
+package com.github.sourzo.timeTracker;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.DayOfWeek;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**Applies a script of changes to a {@link Diary} without any prompts, e.g. to back-fill a
+ * month of clockings from a file or from another program.
+ * <P>One command per line (blank lines and lines starting with # are ignored):
+ * <PRE>
+ * stamp DD/MM/YYYY HH:MM [in|out]          add a time stamp (IN or OUT is guessed if left out)
+ * unstamp DD/MM/YYYY HH:MM                 remove a time stamp
+ * activity DD/MM/YYYY ACTIVITY HH:MM       add time to an activity, e.g. TRAINING
+ * unactivity DD/MM/YYYY ACTIVITY [HH:MM]   remove time from an activity (or all of it)
+ * week DD/MM/YYYY HH:MM...                 hours expected each Monday, Tuesday... from the date
+ *                                          (days left out are non-working days)
+ * expect DD/MM/YYYY HH:MM                  hours expected on the date, whatever the week says
+ * unexpect DD/MM/YYYY                      go back to what the week says for the date
+ * report DD/MM/YYYY                        print the balance up to the date</PRE>
+ * Lines which can't be applied are reported with their line numbers and skipped. The script
+ * is read through one reader and parsed with the patterns which the menus use (compiled once),
+ * and {@link #main(String[])} saves the diary once at the end rather than after each change.*/
+public class DiaryBatch {
+	//Static fields--------------------------------------------------------
+	private static final Pattern FIELDS = Pattern.compile("\\s+");
+	private static final Set<String> COMMANDS = new HashSet<>(Arrays.asList(
+			"stamp", "unstamp", "activity", "unactivity", "week", "expect", "unexpect", "report"));
+
+	//Instance fields------------------------------------------------------
+	private final Diary diary;
+	/**Where reports and errors are printed.*/
+	private final PrintStream out;
+	private int applied = 0;
+	private int skipped = 0;
+
+	//Constructors----------------------------------------------------------
+	public DiaryBatch(Diary diary, PrintStream out) {
+		this.diary = diary;
+		this.out = out;
+	}
+
+	//Methods: get & set ---------------------------------------------------
+	/**The number of commands applied so far.*/
+	public int getApplied() {return applied;}
+	/**The number of lines which couldn't be applied.*/
+	public int getSkipped() {return skipped;}
+
+	//Methods: other -------------------------------------------------------
+	/**Applies every command read from {@code in} to the diary (without saving it).*/
+	public void run(BufferedReader in) throws IOException {
+		int lineNumber = 0;
+		for (String line = in.readLine(); line != null; line = in.readLine()) {
+			lineNumber++;
+			String command = line.strip();
+			if (command.isEmpty() || command.startsWith("#")) {
+				continue;
+			}
+			String error = apply(FIELDS.split(command));
+			if (error == null) {
+				applied++;
+			} else {
+				skipped++;
+				out.println("Line " + lineNumber + ": " + error + ": " + command);
+			}
+		}
+	}
+
+	/**@return null if the command was applied, otherwise what is wrong with it. Nothing is 
+	 * changed (not even an empty day recorded) unless the whole command is applied.*/
+	private String apply(String[] fields) {
+		String command = fields[0].toLowerCase();
+		if (!COMMANDS.contains(command)) {
+			return "unknown command";
+		}
+		LocalDate date = fields.length > 1 ? Menu.parseDate(fields[1]) : null;
+		if (date == null) {
+			return "expected a date (DD/MM/YYYY)";
+		}
+		switch (command) {
+		case "stamp": {
+			LocalTime time = fields.length > 2 ? Menu.parseTime(fields[2]) : null;
+			if (time == null) {
+				return "expected a time (HH:MM)";
+			}
+			if (fields.length > 3) {
+				StampType inOrOut = stampType(fields[3]);
+				if (inOrOut == null) {
+					return "expected in or out";
+				}
+				diary.get(date).addTimeStamp(time, inOrOut);
+			} else {
+				diary.get(date).addTimeStamp(time);
+			}
+			return null;
+		}
+		case "unstamp": {
+			LocalTime time = fields.length > 2 ? Menu.parseTime(fields[2]) : null;
+			if (time == null) {
+				return "expected a time (HH:MM)";
+			}
+			WorkDay day = diary.find(date);
+			if (day == null || !day.getTimeStamps().containsKey(time)) {
+				return "no time stamp at " + time;
+			}
+			day.removeTimeStamp(time);
+			return null;
+		}
+		case "activity": {
+			ActivityType activity = fields.length > 2 ? activityType(fields[2]) : null;
+			Duration duration = fields.length > 3 ? Menu.parseDuration(fields[3]) : null;
+			if (activity == null || duration == null) {
+				return "expected an activity and a duration (HH:MM)";
+			}
+			diary.get(date).addActivity(activity, duration);
+			return null;
+		}
+		case "unactivity": {
+			ActivityType activity = fields.length > 2 ? activityType(fields[2]) : null;
+			if (activity == null) {
+				return "expected an activity";
+			}
+			WorkDay day = diary.find(date);
+			Duration recorded = day == null ? null : day.getActivities().get(activity);
+			if (recorded == null) {
+				return activity + " isn't recorded";
+			}
+			if (fields.length > 3) {
+				Duration duration = Menu.parseDuration(fields[3]);
+				if (duration == null || duration.compareTo(recorded) > 0) {
+					return "expected a duration (HH:MM) up to " + TimeAndDate.parseDuration(recorded);
+				}
+				day.removeActivity(activity, duration);
+			} else {
+				day.removeActivity(activity);
+			}
+			return null;
+		}
+		case "week": {
+			Map<DayOfWeek, Duration> hours = new EnumMap<>(DayOfWeek.class);
+			for (int i = 2; i < fields.length; i++) {
+				Duration duration = i < 9 ? Menu.parseDuration(fields[i]) : null;
+				if (duration == null) {
+					return "expected up to 7 durations (HH:MM), from Monday";
+				}
+				hours.put(DayOfWeek.of(i - 1), duration);
+			}
+			diary.setWeeklyHours(date, hours);
+			return null;
+		}
+		case "expect": {
+			Duration duration = fields.length > 2 ? Menu.parseDuration(fields[2]) : null;
+			if (duration == null) {
+				return "expected a duration (HH:MM)";
+			}
+			diary.setExpectedHours(date, duration);
+			return null;
+		}
+		case "unexpect":
+			diary.setExpectedHours(date, null);
+			return null;
+		case "report":
+			out.println("Balance to " + date + ": " + TimeAndDate.parseDuration(diary.balanceToDate(date)));
+			return null;
+		default:
+			return "unknown command";
+		}
+	}
+
+	private static StampType stampType(String field) {
+		switch (field.toLowerCase()) {
+		case "in":
+			return StampType.IN;
+		case "out":
+			return StampType.OUT;
+		default:
+			return null;
+		}
+	}
+
+	private static ActivityType activityType(String field) {
+		try {
+			return ActivityType.valueOf(field.toUpperCase());
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	/**Runs a script on the default diary, then saves it.
+	 * @param args the script file, or nothing (or "-") to read the script from standard input*/
+	public static void main(String[] args) throws IOException {
+		boolean stdin = args.length == 0 || args[0].equals("-");
+		CUI.setMessages(false);
+		long startNanos = System.nanoTime();
+		Diary diary = Diary.load(null);
+		DiaryBatch batch = new DiaryBatch(diary, System.out);
+		try (BufferedReader in = stdin ? new BufferedReader(new InputStreamReader(System.in))
+				: Files.newBufferedReader(Paths.get(args[0]))) {
+			batch.run(in);
+		}
+		diary.save();
+		diary.closeJournal();
+		System.out.println("Applied " + batch.getApplied() + " commands (" + batch.getSkipped() + " skipped) in "
+				+ (System.nanoTime() - startNanos) / 1000000 + "ms");
+	}
+}
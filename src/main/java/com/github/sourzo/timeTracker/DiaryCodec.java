@@ -0,0 +1,191 @@
+package com.github.sourzo.timeTracker;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.time.DayOfWeek;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**Reads and writes a {@link Diary} in a compact binary format (replacing Java serialization,
+ * which stores a class description and several boxed objects for every day).
+ * <P>This writes the whole diary as one stream. Diary files are now saved as a manifest plus 
+ * one file per month (see {@link DiarySegments}, which uses the same header and day layout); 
+ * files in this format are converted when they are loaded.
+ * <P>Layout, after the 4-byte {@link #MAGIC} and 1-byte {@link #VERSION}:
+ * <UL>
+ * <LI>generation, diary start (epoch day), day target (minutes), regular non-working days (bit per {@link DayOfWeek})
+ * <LI>number of days, then for each day in date order:
+ * <UL>
+ * <LI>days since the previous day (the first is relative to the diary start)
+ * <LI>number of stamps, then each stamp as {@code minuteOfDay << 1 | (OUT ? 1 : 0)}
+ * <LI>number of activities, then each as {@link ActivityType} ordinal (1 byte) and minutes
+ * </UL></UL>
+ * All numbers except the header and ordinals are variable-length (7 bits per byte; signed
+ * numbers are zig-zag encoded first), so a typical day takes around ten bytes.
+ * <P>Times are stored to the minute, which is what {@link TimeAndDate#timeNow()} records.*/
+class DiaryCodec {
+	//Static fields--------------------------------------------------------
+	static final int MAGIC = 0x54544459; //"TTDY"
+	static final int VERSION = 1;
+
+	//Methods: writing -----------------------------------------------------
+	/**Writes the whole of {@code diary}, reading it a month at a time (see {@link Diary#forEachDay}).*/
+	static void write(Diary diary, OutputStream stream) throws IOException {
+		DataOutputStream out = new DataOutputStream(stream);
+		writeHeader(out, VERSION, diary);
+		writeVarLong(out, diary.dayCount());
+		long[] previousDay = {diary.getStartDate().toEpochDay()};
+		try {
+			diary.forEachDay(LocalDate.MIN, LocalDate.MAX, day -> {
+				long epochDay = day.getDate().toEpochDay();
+				try {
+					writeSignedVarLong(out, epochDay - previousDay[0]);
+					writeDay(out, day);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+				previousDay[0] = epochDay;
+			});
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		out.flush();
+	}
+
+	/**Writes the magic number, format version, generation and settings.*/
+	static void writeHeader(DataOutputStream out, int version, Diary diary) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeByte(version);
+		writeVarLong(out, diary.getGeneration());
+		writeSignedVarLong(out, diary.getStartDate().toEpochDay());
+		writeVarLong(out, diary.getDayTargetHours().toMinutes());
+		int nonWorkingDays = 0;
+		for (DayOfWeek day : diary.getRegularNonWorkingDays()) {
+			nonWorkingDays |= 1 << day.ordinal();
+		}
+		out.writeByte(nonWorkingDays);
+	}
+
+	/**Writes the stamps and activities of one day (but not its date).*/
+	static void writeDay(DataOutputStream out, WorkDay day) throws IOException {
+		writeVarLong(out, day.stampCount());
+		for (int i = 0; i < day.stampCount(); i++) {
+			writeVarLong(out, (long) day.stampMinute(i) << 1 | (day.stampType(i) == StampType.OUT ? 1 : 0));
+		}
+		int activityCount = 0;
+		for (ActivityType activity : ActivityType.values()) {
+			if (day.activityMinutes(activity) >= 0) {
+				activityCount++;
+			}
+		}
+		writeVarLong(out, activityCount);
+		for (ActivityType activity : ActivityType.values()) {
+			if (day.activityMinutes(activity) >= 0) {
+				out.writeByte(activity.ordinal());
+				writeVarLong(out, day.activityMinutes(activity));
+			}
+		}
+	}
+
+	//Methods: reading -----------------------------------------------------
+	/**Checks whether {@code header} (the first bytes of a file) is the start of this format.*/
+	static boolean isCodecFormat(byte[] header) {
+		return header.length >= 4
+				&& ((header[0] & 0xFF) << 24 | (header[1] & 0xFF) << 16 | (header[2] & 0xFF) << 8 | (header[3] & 0xFF)) == MAGIC;
+	}
+
+	static Diary read(InputStream stream, String fileName) throws IOException {
+		DataInputStream in = new DataInputStream(stream);
+		Diary diary = readHeader(in, VERSION, fileName);
+		long dayCount = readVarLong(in);
+		long epochDay = diary.getStartDate().toEpochDay();
+		for (long i = 0; i < dayCount; i++) {
+			epochDay += readSignedVarLong(in);
+			WorkDay day = new WorkDay(LocalDate.ofEpochDay(epochDay));
+			readDay(in, day);
+			diary.putDay(day);
+		}
+		return diary;
+	}
+
+	/**Reads what {@link #writeHeader} wrote into a new diary.
+	 * @throws IOException if the file isn't a diary, or isn't in format {@code version}*/
+	static Diary readHeader(DataInputStream in, int version, String fileName) throws IOException {
+		if (in.readInt() != MAGIC) {
+			throw new IOException(fileName + " is not a diary file");
+		}
+		int fileVersion = in.readUnsignedByte();
+		if (fileVersion != version) {
+			throw new IOException(fileName + " has unsupported format version " + fileVersion);
+		}
+		Diary diary = new Diary(fileName);
+		diary.setGeneration(readVarLong(in));
+		LocalDate start = LocalDate.ofEpochDay(readSignedVarLong(in));
+		Duration dayTarget = Duration.ofMinutes(readVarLong(in));
+		int nonWorkingDays = in.readUnsignedByte();
+		Set<DayOfWeek> nonWorking = new TreeSet<>();
+		for (DayOfWeek day : DayOfWeek.values()) {
+			if ((nonWorkingDays & 1 << day.ordinal()) != 0) {
+				nonWorking.add(day);
+			}
+		}
+		diary.restoreSettings(start, dayTarget, nonWorking);
+		return diary;
+	}
+
+	/**Reads the stamps and activities of one day into {@code day}.*/
+	static void readDay(DataInputStream in, WorkDay day) throws IOException {
+		long stampCount = readVarLong(in);
+		for (long s = 0; s < stampCount; s++) {
+			long packed = readVarLong(in);
+			LocalTime time = LocalTime.ofSecondOfDay((packed >>> 1) * 60);
+			day.addTimeStamp(time, (packed & 1) == 1 ? StampType.OUT : StampType.IN);
+		}
+		long activityCount = readVarLong(in);
+		for (long a = 0; a < activityCount; a++) {
+			ActivityType activity = ActivityType.values()[in.readUnsignedByte()];
+			day.addActivity(activity, Duration.ofMinutes(readVarLong(in)));
+		}
+	}
+
+	//Methods: variable-length numbers -------------------------------------
+	static void writeVarLong(DataOutputStream out, long value) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			out.writeByte((int) (value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+
+	static void writeSignedVarLong(DataOutputStream out, long value) throws IOException {
+		writeVarLong(out, (value << 1) ^ (value >> 63));
+	}
+
+	static long readVarLong(DataInputStream in) throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = in.read();
+			if (b < 0) {
+				throw new EOFException();
+			}
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Malformed number in diary file");
+	}
+
+	static long readSignedVarLong(DataInputStream in) throws IOException {
+		long value = readVarLong(in);
+		return (value >>> 1) ^ -(value & 1);
+	}
+}
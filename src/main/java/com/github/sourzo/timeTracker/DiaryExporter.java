@@ -0,0 +1,322 @@
+package com.github.sourzo.timeTracker;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+/**Exports the days of one or more diaries (e.g. for payroll), as CSV or JSON.
+ * <P>CSV has one line per time stamp, per activity and per day total:
+ * <PRE>
+ * employee,date,record,time,type,minutes,balance
+ * e1,2021-06-07,stamp,09:00,IN,,
+ * e1,2021-06-07,activity,,TRAINING,60,
+ * e1,2021-06-07,total,,,480,60</PRE>
+ * JSON is an array with one object per day:
+ * <PRE>
+ * {"employee":"e1","date":"2021-06-07","stamps":[{"time":"09:00","type":"IN"}],
+ *  "activities":{"TRAINING":60},"minutes":480,"balance":60}</PRE>
+ * The balance is the running balance (in minutes) from the start of the diary.
+ * <P>Days are written one at a time, straight into a buffer which is passed on to the
+ * output whenever it fills up, and each diary is read a month at a time (see
+ * {@link Diary#forEachDay}), so exports of any length take the same memory. Numbers, dates
+ * and times are written digit by digit rather than made into strings first.*/
+public class DiaryExporter implements Closeable {
+	//Static fields--------------------------------------------------------
+	public enum Format {CSV, JSON}
+
+	static final int BUFFER_SIZE = 1 << 16;
+
+	//Instance fields------------------------------------------------------
+	private final Writer out;
+	private final Format format;
+	/**Scratch space for writing numbers.*/
+	private final char[] digits = new char[20];
+	private boolean firstRecord = true;
+
+	//Constructors----------------------------------------------------------
+	/**@param out where to write to (closed by {@link #close()})*/
+	public DiaryExporter(Writer out, Format format) throws IOException {
+		this.out = out;
+		this.format = format;
+		if (format == Format.CSV) {
+			out.write("employee,date,record,time,type,minutes,balance\n");
+		} else {
+			out.write('[');
+		}
+	}
+
+	/**Exports to {@code stream} (closed by {@link #close()}), compressing it with gzip if {@code gzip}.*/
+	public static DiaryExporter open(OutputStream stream, Format format, boolean gzip) throws IOException {
+		OutputStream bytes = gzip ? new GZIPOutputStream(stream, BUFFER_SIZE) : stream;
+		return new DiaryExporter(new BufferedWriter(new OutputStreamWriter(bytes, StandardCharsets.UTF_8), BUFFER_SIZE), format);
+	}
+
+	/**Exports to {@code channel}, from its current position.*/
+	public static DiaryExporter open(FileChannel channel, Format format, boolean gzip) throws IOException {
+		return open(Channels.newOutputStream(channel), format, gzip);
+	}
+
+	//Methods: other -------------------------------------------------------
+	/**Writes the days of {@code diary} from {@code from} to {@code to} inclusive.
+	 * @throws IOException if the export can't be written
+	 * @throws UncheckedIOException if a month of the diary can't be read*/
+	public void export(String employeeId, Diary diary, LocalDate from, LocalDate to) throws IOException {
+		long[] balance = {0};
+		IOException[] writeFailure = {null};
+		if (from.isAfter(diary.getStartDate())) {
+			balance[0] = diary.balanceBetween(diary.getStartDate(), from.minusDays(1)).toMinutes();
+		}
+		try {
+			diary.forEachDay(from, to, day -> {
+				balance[0] += day.getMinutesWorked() - diary.expectedMinutes(day.getDate());
+				try {
+					if (format == Format.CSV) {
+						writeCsv(employeeId, day, balance[0]);
+					} else {
+						writeJson(employeeId, day, balance[0]);
+					}
+				} catch (IOException e) {
+					writeFailure[0] = e;
+					throw new UncheckedIOException(e);
+				}
+			});
+		} catch (UncheckedIOException e) {
+			if (e.getCause() == writeFailure[0]) {
+				throw writeFailure[0];
+			}
+			throw e;
+		}
+	}
+
+	private void writeCsv(String employeeId, WorkDay day, long balance) throws IOException {
+		for (int i = 0; i < day.stampCount(); i++) {
+			writeCsvStart(employeeId, day.getDate(), "stamp,");
+			writeTime(day.stampMinute(i));
+			out.write(',');
+			out.write(day.stampType(i).name());
+			out.write(",,\n");
+		}
+		for (ActivityType activity : ActivityType.values()) {
+			long minutes = day.activityMinutes(activity);
+			if (minutes >= 0) {
+				writeCsvStart(employeeId, day.getDate(), "activity,,");
+				out.write(activity.name());
+				out.write(',');
+				writeNumber(minutes);
+				out.write(",\n");
+			}
+		}
+		writeCsvStart(employeeId, day.getDate(), "total,,,");
+		writeNumber(day.getMinutesWorked());
+		out.write(',');
+		writeNumber(balance);
+		out.write('\n');
+	}
+
+	private void writeCsvStart(String employeeId, LocalDate date, String record) throws IOException {
+		boolean quote = false;
+		for (int i = 0; i < employeeId.length() && !quote; i++) {
+			char c = employeeId.charAt(i);
+			quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+		}
+		if (quote) {
+			out.write('"');
+			for (int i = 0; i < employeeId.length(); i++) {
+				char c = employeeId.charAt(i);
+				if (c == '"') {
+					out.write('"');
+				}
+				out.write(c);
+			}
+			out.write('"');
+		} else {
+			out.write(employeeId);
+		}
+		out.write(',');
+		writeDate(date);
+		out.write(',');
+		out.write(record);
+	}
+
+	private void writeJson(String employeeId, WorkDay day, long balance) throws IOException {
+		out.write(firstRecord ? "\n" : ",\n");
+		firstRecord = false;
+		out.write("{\"employee\":");
+		writeJsonString(employeeId);
+		out.write(",\"date\":\"");
+		writeDate(day.getDate());
+		out.write("\",\"stamps\":[");
+		for (int i = 0; i < day.stampCount(); i++) {
+			out.write(i == 0 ? "{\"time\":\"" : ",{\"time\":\"");
+			writeTime(day.stampMinute(i));
+			out.write("\",\"type\":\"");
+			out.write(day.stampType(i).name());
+			out.write("\"}");
+		}
+		out.write("],\"activities\":{");
+		boolean firstActivity = true;
+		for (ActivityType activity : ActivityType.values()) {
+			long minutes = day.activityMinutes(activity);
+			if (minutes >= 0) {
+				out.write(firstActivity ? "\"" : ",\"");
+				firstActivity = false;
+				out.write(activity.name());
+				out.write("\":");
+				writeNumber(minutes);
+			}
+		}
+		out.write("},\"minutes\":");
+		writeNumber(day.getMinutesWorked());
+		out.write(",\"balance\":");
+		writeNumber(balance);
+		out.write('}');
+	}
+
+	private void writeJsonString(String value) throws IOException {
+		out.write('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\') {
+				out.write('\\');
+				out.write(c);
+			} else if (c < 0x20) {
+				out.write("\\u00");
+				out.write(Character.forDigit(c >> 4, 16));
+				out.write(Character.forDigit(c & 0xF, 16));
+			} else {
+				out.write(c);
+			}
+		}
+		out.write('"');
+	}
+
+	private void writeNumber(long value) throws IOException {
+		if (value == Long.MIN_VALUE) {
+			out.write(Long.toString(value));
+			return;
+		}
+		if (value < 0) {
+			out.write('-');
+			value = -value;
+		}
+		int start = digits.length;
+		do {
+			digits[--start] = (char) ('0' + value % 10);
+			value /= 10;
+		} while (value > 0);
+		out.write(digits, start, digits.length - start);
+	}
+
+	/**Writes {@code value} with at least {@code width} digits.*/
+	private void writePadded(int value, int width) throws IOException {
+		for (int limit = 10; width > 1; width--, limit *= 10) {
+			if (value < limit) {
+				out.write('0');
+			}
+		}
+		writeNumber(value);
+	}
+
+	private void writeDate(LocalDate date) throws IOException {
+		if (date.getYear() < 0 || date.getYear() > 9999) {
+			out.write(date.toString());
+			return;
+		}
+		writePadded(date.getYear(), 4);
+		out.write('-');
+		writePadded(date.getMonthValue(), 2);
+		out.write('-');
+		writePadded(date.getDayOfMonth(), 2);
+	}
+
+	/**Exports each diary in {@code files} (named as {@link DiaryStore} names them), read without 
+	 * changing it (see {@link Diary#read(Path)}). A diary which can't be read is left out, as is 
+	 * the rest of one with a month which can't be read.
+	 * @return what went wrong with each diary which wasn't (fully) exported, as "file, tab, error"
+	 * @throws IOException if the export can't be written*/
+	public List<String> exportAll(List<Path> files, LocalDate from, LocalDate to) throws IOException {
+		List<String> failures = new ArrayList<>();
+		for (Path file : files) {
+			String name = file.getFileName().toString();
+			Diary diary;
+			try {
+				diary = Diary.read(file);
+			} catch (IOException | RuntimeException e) {
+				failures.add(file + "\t" + e);
+				continue;
+			}
+			try {
+				export(name.substring(0, name.length() - DiaryStore.FILE_EXTENSION.length()), diary, from, to);
+			} catch (UncheckedIOException e) {
+				failures.add(file + "\t" + e.getCause());
+			}
+		}
+		return failures;
+	}
+
+	private void writeTime(int minuteOfDay) throws IOException {
+		writePadded(minuteOfDay / 60, 2);
+		out.write(':');
+		writePadded(minuteOfDay % 60, 2);
+	}
+
+	/**Finishes the export and closes the output.*/
+	@Override
+	public void close() throws IOException {
+		if (format == Format.JSON) {
+			out.write("\n]\n");
+		}
+		out.close();
+	}
+
+	/**Exports every diary in a directory (as kept by {@link DiaryStore}) to a file.
+	 * @param args directory, first and last dates (YYYY-MM-DD), format (csv or json) and output
+	 * file, which is compressed with gzip if its name ends with ".gz". Any diaries which can't be 
+	 * read are listed, and the exit status is 1.*/
+	public static void main(String[] args) throws IOException {
+		if (args.length < 5) {
+			System.out.println("Arguments: directory from to csv|json outputFile[.gz]");
+			return;
+		}
+		Path directory = Paths.get(args[0]);
+		LocalDate from = LocalDate.parse(args[1]);
+		LocalDate to = LocalDate.parse(args[2]);
+		Format format = Format.valueOf(args[3].toUpperCase());
+		List<Path> files = new ArrayList<>();
+		try (Stream<Path> listing = Files.list(directory)) {
+			listing.filter(file -> file.getFileName().toString().endsWith(DiaryStore.FILE_EXTENSION)).forEach(files::add);
+		}
+		Collections.sort(files);
+		CUI.setMessages(false);
+		FileChannel channel = FileChannel.open(Paths.get(args[4]),
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		List<String> failures;
+		try (DiaryExporter exporter = open(channel, format, args[4].endsWith(".gz"))) {
+			failures = exporter.exportAll(files, from, to);
+		}
+		System.out.println("Exported " + (files.size() - failures.size()) + " diaries to " + args[4]);
+		if (!failures.isEmpty()) {
+			for (String failure : failures) {
+				System.err.println("Not exported: " + failure);
+			}
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,352 @@
+package com.github.sourzo.timeTracker;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+/**Every change ever made to a {@link Diary}, kept so that the diary can be seen as it was at
+ * any earlier time (see {@link Diary#asOf(Instant)}), e.g. when a balance is disputed after
+ * the days behind it have been amended.
+ * <P>Unlike the {@link DiaryJournal}, which is emptied by each save, the history is only ever
+ * appended to. Each record is a journal record with the time it was made in front of it
+ * (epoch milliseconds, never earlier than the record before), so records are in time order
+ * and the changes made up to a given time are found by a binary search.
+ * <P>The history is started by the first change made to a diary which doesn't have one yet (so
+ * only reading a diary writes nothing), and the diary as it was just before that change is kept
+ * as snapshot 0. After every {@link #getSnapshotInterval()} changes, the diary as it is then is
+ * written as another snapshot. To see the diary as it was after {@code n} changes, the nearest
+ * snapshot at or before {@code n} is read and the changes after it are replayed, so no question
+ * replays more than that many. (A history from before snapshots were written as changes were
+ * made gets them the first time it is replayed, as snapshots are also written along the way.)
+ * Snapshots are whole diaries in {@link DiaryCodec} format, in {@code snapshot.<n>}.
+ * <P>Snapshots are written by a background thread, so a change only ever appends a record. The
+ * first change just notes where snapshot 0 is in the saved files and journal (in {@code start}),
+ * and it is read from there; the next save waits for that, as it replaces the files. Later
+ * snapshots are made by replaying the changes since the one before, not from the diary itself.
+ * <P>The files are in {@code history} in the diary's directory of months (see {@link DiarySegments}).*/
+class DiaryHistory implements Closeable {
+	//Static fields--------------------------------------------------------
+	static final int MAGIC = 0x54544831; //"TTH1"
+	/**Magic and the time the history started.*/
+	static final int HEADER_SIZE = 12;
+	static final int RECORD_SIZE = 8 + DiaryJournal.RECORD_SIZE;
+	/**System property for the number of changes between snapshots.*/
+	static final String SNAPSHOT_INTERVAL_PROPERTY = "timeTracker.snapshotInterval";
+	static final int DEFAULT_SNAPSHOT_INTERVAL = 1000;
+	/**Writes the snapshots of every history.*/
+	private static final ExecutorService SNAPSHOT_WRITER = Executors.newSingleThreadExecutor(task -> {
+		Thread thread = new Thread(task, "diary-history");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	//Instance fields------------------------------------------------------
+	private final Diary diary;
+	private final Path directory;
+	private int snapshotInterval = Integer.getInteger(SNAPSHOT_INTERVAL_PROPERTY, DEFAULT_SNAPSHOT_INTERVAL);
+	private FileChannel channel;
+	private final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+	private long lastMillis = Long.MIN_VALUE;
+	/**The number of changes in the history, and the number after which the latest snapshot was 
+	 * taken (both only known once the events file is open).*/
+	private long events;
+	private long lastSnapshot;
+	/**Held while snapshot 0 is written from the diary's files, so they aren't replaced meanwhile.*/
+	private final Object startLock = new Object();
+
+	//Constructors----------------------------------------------------------
+	private DiaryHistory(Diary diary) {
+		this.diary = diary;
+		this.directory = directoryFor(diary.getFileName());
+	}
+
+	/**The history of {@code diary}, which was loaded from its file. Nothing is read or written 
+	 * until the diary is changed (see {@link #append(ByteBuffer)}) or looked at as it was.*/
+	static DiaryHistory open(Diary diary) {
+		return new DiaryHistory(diary);
+	}
+
+	static Path directoryFor(String fileName) {
+		return DiarySegments.directoryFor(fileName).resolve("history");
+	}
+
+	private Path eventsPath() {
+		return directory.resolve("events");
+	}
+
+	private Path snapshotPath(long eventCount) {
+		return directory.resolve("snapshot." + eventCount);
+	}
+
+	/**Where snapshot 0 is in the diary's files, until it has been written.*/
+	private Path startPath() {
+		return directory.resolve("start");
+	}
+
+	//Methods: get & set ---------------------------------------------------
+	int getSnapshotInterval() {return snapshotInterval;}
+	/**Sets the most changes which are replayed to see the diary at one time. Fewer means more snapshots.*/
+	void setSnapshotInterval(int snapshotInterval) {this.snapshotInterval = Math.max(1, snapshotInterval);}
+
+	//Methods: writing -----------------------------------------------------
+	/**Starts the history, with the diary as it was before the change being appended as snapshot 0: 
+	 * that is its files of generation {@code generation} and the first {@code journalled} records 
+	 * of its journal. Only that is noted here; the snapshot is written in the background.*/
+	private void start(long generation, long journalled) throws IOException {
+		Files.createDirectories(directory);
+		ByteBuffer start = ByteBuffer.allocate(16);
+		start.putLong(generation).putLong(journalled);
+		Files.write(startPath(), start.array());
+		open(StandardOpenOption.CREATE_NEW);
+	}
+
+	/**Writes snapshot 0 from the diary's files, if the history has been started but that hasn't 
+	 * been done yet. Called before the files are replaced by a save.
+	 * @throws IOException if the files can't be read, or have already been replaced*/
+	void writeStart() throws IOException {
+		synchronized (startLock) {
+			if (!Files.exists(startPath())) {
+				return;
+			}
+			ByteBuffer start = ByteBuffer.wrap(Files.readAllBytes(startPath()));
+			long generation = start.getLong();
+			long journalled = start.getLong();
+			Diary before = Diary.decode(Paths.get(diary.getFileName()));
+			if (before.getGeneration() != generation) {
+				throw new IOException(directory + " has no snapshot 0: the diary was saved again before it was written");
+			}
+			DiaryJournal.replay(DiaryJournal.pathFor(diary.getFileName()), generation, before, journalled);
+			writeSnapshot(before, 0);
+			Files.delete(startPath());
+		}
+	}
+
+	/**Writes the snapshot after {@code eventCount} changes, replaying them from the one before.*/
+	private void writeSnapshot(long eventCount) throws IOException {
+		writeStart();
+		try (FileChannel in = FileChannel.open(eventsPath(), StandardOpenOption.READ)) {
+			Diary then = replay(in, eventCount, diary.getFileName() + ".snapshot");
+			if (!Files.exists(snapshotPath(eventCount))) {
+				writeSnapshot(then, eventCount);
+			}
+		}
+	}
+
+	/**Writes snapshot 0 in the background (see {@link #writeStart()}).*/
+	private void writeStartLater() {
+		SNAPSHOT_WRITER.submit(() -> {
+			try {
+				writeStart();
+			} catch (IOException | RuntimeException e) {
+				System.out.println(e);
+			}
+		});
+	}
+
+	/**Writes the snapshot after {@code eventCount} changes in the background.*/
+	private void writeSnapshotLater(long eventCount) {
+		SNAPSHOT_WRITER.submit(() -> {
+			try {
+				writeSnapshot(eventCount);
+			} catch (IOException | RuntimeException e) {
+				System.out.println(e);
+			}
+		});
+	}
+
+	/**Waits until the snapshots asked for so far have been written (or have failed).*/
+	static void awaitSnapshots() throws InterruptedException, ExecutionException {
+		SNAPSHOT_WRITER.submit(() -> {}).get();
+	}
+
+	private void open(StandardOpenOption mode) throws IOException {
+		channel = FileChannel.open(eventsPath(), mode, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		if (channel.size() < HEADER_SIZE) {
+			channel.truncate(0);
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putInt(MAGIC).putLong(System.currentTimeMillis()).flip();
+			while (header.hasRemaining()) {
+				channel.write(header);
+			}
+		} else {
+			//Drop a record which was only half written when the program stopped
+			long extra = (channel.size() - HEADER_SIZE) % RECORD_SIZE;
+			if (extra != 0) {
+				channel.truncate(channel.size() - extra);
+			}
+			if (channel.size() > HEADER_SIZE) {
+				lastMillis = read(channel, channel.size() - RECORD_SIZE, 8).getLong();
+			}
+		}
+		channel.position(channel.size());
+		events = (channel.size() - HEADER_SIZE) / RECORD_SIZE;
+		Long latest = snapshots().floor(events);
+		lastSnapshot = latest == null ? 0 : latest;
+		if (Files.exists(startPath())) {
+			writeStartLater();		// Stopped before it was written
+		}
+	}
+
+	/**Appends a journal record (see {@link DiaryJournal}), stamped with the time now, starting the 
+	 * history if this is the diary's first change. If {@link #getSnapshotInterval()} changes have 
+	 * been appended since the last snapshot, the next one is written in the background.
+	 * @param generation the generation of the journal the record is in
+	 * @param journalled the number of records in the journal before this one*/
+	synchronized void append(ByteBuffer journalRecord, long generation, long journalled) throws IOException {
+		if (channel == null) {
+			if (Files.exists(eventsPath())) {
+				open(StandardOpenOption.READ);
+			} else {
+				start(generation, journalled);
+				writeStartLater();
+			}
+		}
+		lastMillis = Math.max(lastMillis, System.currentTimeMillis());
+		record.clear();
+		record.putLong(lastMillis).put(journalRecord.duplicate());
+		record.flip();
+		while (record.hasRemaining()) {
+			channel.write(record);
+		}
+		events++;
+		if (events - lastSnapshot >= snapshotInterval) {
+			writeSnapshotLater(events);
+			lastSnapshot = events;
+		}
+	}
+
+	synchronized void sync() throws IOException {
+		if (channel != null) {
+			channel.force(false);
+		}
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (channel != null) {
+			channel.close();
+			channel = null;
+		}
+	}
+
+	/**Writes {@code diary} as the snapshot after {@code eventCount} changes. Each write has a temp 
+	 * file of its own, so snapshots written at once (e.g. by two questions) don't get mixed up.*/
+	private void writeSnapshot(Diary diary, long eventCount) throws IOException {
+		Path tempPath = Files.createTempFile(directory, "snapshot.", ".tmp");
+		try {
+			FileOutputStream fOut = new FileOutputStream(tempPath.toFile());
+			BufferedOutputStream out = new BufferedOutputStream(fOut);
+			DiaryCodec.write(diary, out);
+			out.flush();
+			fOut.getFD().sync();
+			out.close();
+			Files.move(tempPath, snapshotPath(eventCount), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(tempPath);
+		}
+	}
+
+	//Methods: reading -----------------------------------------------------
+	private static ByteBuffer read(FileChannel in, long position, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		while (buffer.hasRemaining() && in.read(buffer, position + buffer.position()) > 0) {}
+		buffer.flip();
+		return buffer;
+	}
+
+	/**The number of changes made up to and including {@code instant}.*/
+	private static long countUpTo(FileChannel in, long millis) throws IOException {
+		long low = 0;
+		long high = (in.size() - HEADER_SIZE) / RECORD_SIZE;
+		while (low < high) {
+			long mid = (low + high) >>> 1;
+			if (read(in, HEADER_SIZE + mid * RECORD_SIZE, 8).getLong() <= millis) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**The changes after which there are snapshots.*/
+	private TreeSet<Long> snapshots() throws IOException {
+		TreeSet<Long> snapshots = new TreeSet<>();
+		try (Stream<Path> files = Files.list(directory)) {
+			files.map(file -> file.getFileName().toString())
+				.filter(name -> name.matches("snapshot\\.\\d+"))
+				.forEach(name -> snapshots.add(Long.parseLong(name.substring("snapshot.".length()))));
+		}
+		return snapshots;
+	}
+
+	/**The diary as it was at {@code instant} (or as it was when the history started, if that
+	 * is later). It isn't attached to any files.
+	 * @param fileName the name to give the diary*/
+	Diary asOf(Instant instant, String fileName) throws IOException {
+		if (!Files.exists(eventsPath())) {
+			//Not started, so unchanged since it was saved and journalled
+			Diary now = Diary.decode(Paths.get(diary.getFileName()));
+			DiaryJournal.replay(DiaryJournal.pathFor(diary.getFileName()), now.getGeneration(), now);
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DiaryCodec.write(now, bytes);
+			return DiaryCodec.read(new ByteArrayInputStream(bytes.toByteArray()), fileName);
+		}
+		writeStart();
+		try (FileChannel in = FileChannel.open(eventsPath(), StandardOpenOption.READ)) {
+			return replay(in, countUpTo(in, instant.toEpochMilli()), fileName);
+		}
+	}
+
+	/**The diary as it was after {@code eventCount} changes, from the nearest snapshot before then 
+	 * and the changes after it in {@code in}, writing snapshots along the way.
+	 * @param fileName the name to give the diary*/
+	private Diary replay(FileChannel in, long eventCount, String fileName) throws IOException {
+		Long snapshot = snapshots().floor(eventCount);
+		if (snapshot == null) {
+			throw new IOException(directory + " has no snapshot to start from");
+		}
+		Diary diary;
+		try (InputStream snapshotIn = new BufferedInputStream(Files.newInputStream(snapshotPath(snapshot)))) {
+			diary = DiaryCodec.read(snapshotIn, fileName);
+		}
+		ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE * 1024);
+		long position = HEADER_SIZE + snapshot * RECORD_SIZE;
+		for (long event = snapshot; event < eventCount; ) {
+			buffer.clear();
+			buffer.limit((int) Math.min(buffer.capacity(), (eventCount - event) * RECORD_SIZE));
+			if (in.read(buffer, position) <= 0) {
+				break;
+			}
+			buffer.flip();
+			while (buffer.remaining() >= RECORD_SIZE) {
+				buffer.getLong();
+				DiaryJournal.apply(buffer, diary);
+				event++;
+				position += RECORD_SIZE;
+				if (event % snapshotInterval == 0) {
+					writeSnapshot(diary, event);
+				}
+			}
+		}
+		return diary;
+	}
+}
@@ -0,0 +1,290 @@
+package com.github.sourzo.timeTracker;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.DayOfWeek;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalTime;
+
+/**Append-only journal of the changes made to a {@link Diary} since it was last saved.
+ * <P>Every change (time stamp, activity, new day...) is written as one fixed-size record
+ * to the end of the journal file, so the cost of recording a change doesn't depend on how
+ * much history is in the diary. {@link Diary#load(String)} rebuilds the diary by reading
+ * the last saved snapshot and then replaying the journal on top of it; {@link Diary#save()}
+ * writes a new snapshot and starts a new, empty journal.
+ * <P>The journal file starts with a header holding the snapshot generation it belongs to,
+ * so that a journal which has already been folded into a snapshot is never replayed twice.
+ * <P>Each record is also appended to the diary's {@link DiaryHistory}, if it has one, which
+ * isn't emptied by saving. That is done once the record is in the journal, and if the history
+ * can't be written, the error is printed: the change has still been journalled.
+ * <P>Record layout (12 bytes, big-endian):
+ * {@code op (1) | stamp type or activity ordinal (1) | minute of day (2) | epoch day (4) | minutes (4)}*/
+class DiaryJournal implements Closeable {
+	//Static fields--------------------------------------------------------
+	static final int MAGIC = 0x54544A31; //"TTJ1"
+	static final int HEADER_SIZE = 12;
+	static final int RECORD_SIZE = 12;
+
+	static final byte NEW_DAY = 1;
+	static final byte STAMP_ADDED = 2;
+	static final byte STAMP_REMOVED = 3;
+	static final byte ACTIVITY_ADDED = 4;
+	static final byte ACTIVITY_REMOVED = 5;
+	static final byte ACTIVITY_CLEARED = 6;
+	static final byte START_DATE = 7;
+	/**One day of a weekly pattern: the epoch day is when it starts, the ordinal the {@link DayOfWeek}.*/
+	static final byte WEEK_DAY = 8;
+	static final byte EXPECTED_HOURS = 9;
+	static final byte EXPECTED_HOURS_CLEARED = 10;
+
+	//Instance fields------------------------------------------------------
+	private final Path path;
+	private final long generation;
+	/**Where each record is copied to. May be null.*/
+	private final DiaryHistory history;
+	private FileChannel channel;
+	private final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+
+	//Constructors----------------------------------------------------------
+	/**@param path the journal file
+	 * @param generation the generation of the snapshot which this journal continues from*/
+	DiaryJournal(Path path, long generation) {
+		this(path, generation, null);
+	}
+
+	/**@param history where to copy each record to as well (may be null)*/
+	DiaryJournal(Path path, long generation, DiaryHistory history) {
+		this.path = path;
+		this.generation = generation;
+		this.history = history;
+	}
+
+	/**The journal file which belongs to the diary file {@code fileName}.*/
+	static Path pathFor(String fileName) {
+		return Paths.get(fileName + ".journal");
+	}
+
+	//Methods: writing -----------------------------------------------------
+	void newDay(LocalDate date) throws IOException {
+		append(NEW_DAY, date, 0, 0, 0);
+	}
+
+	void stampAdded(LocalDate date, LocalTime time, StampType inOrOut) throws IOException {
+		append(STAMP_ADDED, date, time.toSecondOfDay() / 60, inOrOut.ordinal(), 0);
+	}
+
+	void stampRemoved(LocalDate date, LocalTime time) throws IOException {
+		append(STAMP_REMOVED, date, time.toSecondOfDay() / 60, 0, 0);
+	}
+
+	void activityAdded(LocalDate date, ActivityType activity, Duration duration) throws IOException {
+		append(ACTIVITY_ADDED, date, 0, activity.ordinal(), (int) duration.toMinutes());
+	}
+
+	/**@param duration the time removed, or null if the whole activity was removed.*/
+	void activityRemoved(LocalDate date, ActivityType activity, Duration duration) throws IOException {
+		if (duration == null) {
+			append(ACTIVITY_CLEARED, date, 0, activity.ordinal(), 0);
+		} else {
+			append(ACTIVITY_REMOVED, date, 0, activity.ordinal(), (int) duration.toMinutes());
+		}
+	}
+
+	void startDate(LocalDate date) throws IOException {
+		append(START_DATE, date, 0, 0, 0);
+	}
+
+	void weekDay(LocalDate from, DayOfWeek day, int minutes) throws IOException {
+		append(WEEK_DAY, from, 0, day.ordinal(), minutes);
+	}
+
+	void expectedHours(LocalDate date, Duration hours) throws IOException {
+		append(EXPECTED_HOURS, date, 0, 0, (int) hours.toMinutes());
+	}
+
+	void expectedHoursCleared(LocalDate date) throws IOException {
+		append(EXPECTED_HOURS_CLEARED, date, 0, 0, 0);
+	}
+
+	/**Writes one record to the end of the journal, opening (and if necessary creating)
+	 * the file first. The record is handed to the operating system straight away, then 
+	 * copied to the history.*/
+	private synchronized void append(byte op, LocalDate date, int minuteOfDay, int ordinal, int minutes) throws IOException {
+		if (channel == null) {
+			open();
+		}
+		record.clear();
+		record.put(op)
+			.put((byte) ordinal)
+			.putShort((short) minuteOfDay)
+			.putInt((int) date.toEpochDay())
+			.putInt(minutes);
+		record.flip();
+		long before = (channel.position() - HEADER_SIZE) / RECORD_SIZE;
+		while (record.hasRemaining()) {
+			channel.write(record);
+		}
+		if (history != null) {
+			record.rewind();
+			try {
+				history.append(record, generation, before);
+			} catch (IOException | RuntimeException e) {
+				System.out.println(e);
+			}
+		}
+	}
+
+	private void open() throws IOException {
+		channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		if (channel.size() < HEADER_SIZE || readGeneration(channel) != generation) {
+			//No journal yet (or a stale one from an older snapshot): start again
+			channel.truncate(0);
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putInt(MAGIC).putLong(generation).flip();
+			while (header.hasRemaining()) {
+				channel.write(header);
+			}
+		} else {
+			//Drop a record which was only half written when the program stopped
+			long extra = (channel.size() - HEADER_SIZE) % RECORD_SIZE;
+			if (extra != 0) {
+				channel.truncate(channel.size() - extra);
+			}
+		}
+		channel.position(channel.size());
+	}
+
+	/**Makes sure everything appended so far is on disk (not just handed to the operating system).
+	 * Appending, syncing and closing are synchronized, so a journal can be synced from another thread.*/
+	synchronized void sync() throws IOException {
+		if (channel != null) {
+			channel.force(false);
+		}
+		if (history != null) {
+			try {
+				history.sync();
+			} catch (IOException e) {
+				System.out.println(e);
+			}
+		}
+	}
+
+	/**Closes the journal file and deletes it.*/
+	void delete() throws IOException {
+		close();
+		Files.deleteIfExists(path);
+	}
+
+	/**Makes sure everything appended is on disk, then closes the journal file and the history. So 
+	 * a {@link #sync()} which finds the journal closed (e.g. by a save on another thread) has 
+	 * nothing left to do.*/
+	@Override
+	public synchronized void close() throws IOException {
+		if (channel != null) {
+			try {
+				channel.force(false);
+			} finally {
+				channel.close();
+			}
+			channel = null;
+		}
+		if (history != null) {
+			try {
+				history.close();
+			} catch (IOException e) {
+				System.out.println(e);
+			}
+		}
+	}
+
+	//Methods: reading -----------------------------------------------------
+	private static long readGeneration(FileChannel in) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		while (header.hasRemaining() && in.read(header, header.position()) > 0) {}
+		header.flip();
+		if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC) {
+			return -1;
+		}
+		return header.getLong();
+	}
+
+	/**Applies every record in the journal to {@code diary}. The diary should not have
+	 * a journal attached while this runs, otherwise the changes would be journalled again.
+	 * @return the number of records replayed (0 if there is no journal for this generation)*/
+	static int replay(Path path, long generation, Diary diary) throws IOException {
+		return replay(path, generation, diary, Long.MAX_VALUE);
+	}
+
+	/**Applies the first {@code limit} records in the journal to {@code diary}, as {@link #replay(Path, long, Diary)}.*/
+	static int replay(Path path, long generation, Diary diary, long limit) throws IOException {
+		if (!Files.exists(path)) {
+			return 0;
+		}
+		try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+			if (readGeneration(in) != generation) {
+				return 0;
+			}
+			in.position(HEADER_SIZE);
+			ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE * 1024);
+			int count = 0;
+			while (in.read(buffer) > 0) {
+				buffer.flip();
+				while (buffer.remaining() >= RECORD_SIZE && count < limit) {
+					apply(buffer, diary);
+					count++;
+				}
+				buffer.compact();
+			}
+			//Anything left in the buffer is a half-written record: ignore it
+			return count;
+		}
+	}
+
+	/**Applies the record at the buffer's position to {@code diary}.*/
+	static void apply(ByteBuffer buffer, Diary diary) {
+		byte op = buffer.get();
+		int ordinal = buffer.get();
+		LocalTime time = LocalTime.ofSecondOfDay(buffer.getShort() * 60L);
+		LocalDate date = LocalDate.ofEpochDay(buffer.getInt());
+		Duration duration = Duration.ofMinutes(buffer.getInt());
+		switch (op) {
+		case NEW_DAY:
+			diary.get(date);
+			break;
+		case STAMP_ADDED:
+			diary.get(date).addTimeStamp(time, StampType.values()[ordinal]);
+			break;
+		case STAMP_REMOVED:
+			diary.get(date).removeTimeStamp(time);
+			break;
+		case ACTIVITY_ADDED:
+			diary.get(date).addActivity(ActivityType.values()[ordinal], duration);
+			break;
+		case ACTIVITY_REMOVED:
+			diary.get(date).removeActivity(ActivityType.values()[ordinal], duration);
+			break;
+		case ACTIVITY_CLEARED:
+			diary.get(date).removeActivity(ActivityType.values()[ordinal]);
+			break;
+		case START_DATE:
+			diary.setStartDate(date);
+			break;
+		case WEEK_DAY:
+			diary.setWeekDay(date, DayOfWeek.values()[ordinal], (int) duration.toMinutes());
+			break;
+		case EXPECTED_HOURS:
+			diary.setExpectedHours(date, duration);
+			break;
+		case EXPECTED_HOURS_CLEARED:
+			diary.setExpectedHours(date, null);
+			break;
+		}
+	}
+}
@@ -0,0 +1,289 @@
+package com.github.sourzo.timeTracker;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**Moves many diary files, in any format {@link Diary#load(String)} reads (e.g. a {@code workDiary.txt}
+ * for each employee, saved with Java serialization), into a {@link DiaryStore}, several at a time.
+ * <P>Each file is read with {@link Diary#decode(Path)}, which changes nothing on disk, then its
+ * journal (if any) is replayed and it is saved as the employee's diary in the store. Files which
+ * can't be moved are returned as {@link Failure}s, saying what went wrong and at which stage,
+ * rather than being replaced by empty diaries, and the rest carry on.
+ * <P>The files are read by a fixed number of threads, with at most as many again waiting, so only
+ * a few diaries are in memory at once however many files there are. Each file which has been
+ * moved is added to {@link #PROGRESS_FILE_NAME} in the store's directory as soon as it is saved,
+ * and skipped by later runs, so a run which is interrupted can be started again. Each file is 
+ * also noted there as started just before its diary is written, so if a run stops after writing 
+ * a diary but before noting it as moved, the next run finds the diary (whose manifest is written 
+ * last, in one move) and counts the file as moved rather than failing it as {@link Failure.Stage#TARGET_EXISTS}.*/
+public class DiaryMigrator {
+	//Static fields--------------------------------------------------------
+	/**The file in the store's directory which lists the files moved so far, one path per line 
+	 * (and those started, after {@link #STARTED}).*/
+	static final String PROGRESS_FILE_NAME = "migrated.txt";
+	static final String STARTED = "started ";
+
+	//Instance fields------------------------------------------------------
+	private final DiaryStore store;
+	private final int threads;
+	private final Path progressFile;
+	/**The files already moved (by earlier runs, too), as absolute paths.*/
+	private final Set<String> migrated = ConcurrentHashMap.newKeySet();
+	/**The files whose diaries earlier runs started writing, as absolute paths.*/
+	private final Set<String> started = ConcurrentHashMap.newKeySet();
+	/**The employee IDs taken by the files of this run, so that two files can't both be moved to one diary.*/
+	private final Set<String> employeeIds = ConcurrentHashMap.newKeySet();
+
+	/**What went wrong with one file.*/
+	public static class Failure {
+		/**How far the file got.*/
+		public enum Stage {
+			/**No employee ID could be made from its name, or another file has the same one.*/
+			NAME,
+			/**The store already has a diary for the employee.*/
+			TARGET_EXISTS,
+			/**It couldn't be read (or isn't a diary).*/
+			READ,
+			/**It was read, but couldn't be saved in the store.*/
+			WRITE
+		}
+
+		private final Path source;
+		private final String employeeId;
+		private final Stage stage;
+		private final Exception error;
+
+		Failure(Path source, String employeeId, Stage stage, Exception error) {
+			this.source = source;
+			this.employeeId = employeeId;
+			this.stage = stage;
+			this.error = error;
+		}
+
+		public Path getSource() {return source;}
+		public String getEmployeeId() {return employeeId;}
+		public Stage getStage() {return stage;}
+		public Exception getError() {return error;}
+
+		/**The source, employee ID, stage and error, separated by tabs.*/
+		@Override
+		public String toString() {
+			return source + "\t" + employeeId + "\t" + stage + "\t" + error;
+		}
+	}
+
+	/**What a run did.*/
+	public static class Result {
+		private final List<String> migrated = new ArrayList<>();
+		private final List<Path> skipped = new ArrayList<>();
+		private final List<Failure> failures = new ArrayList<>();
+		private long days;
+
+		/**The employee IDs of the diaries moved in this run.*/
+		public List<String> getMigrated() {return Collections.unmodifiableList(migrated);}
+		/**The files which earlier runs had moved.*/
+		public List<Path> getSkipped() {return Collections.unmodifiableList(skipped);}
+		public List<Failure> getFailures() {return Collections.unmodifiableList(failures);}
+		/**The number of days moved in this run.*/
+		public long getDays() {return days;}
+	}
+
+	//Constructors----------------------------------------------------------
+	/**@param threads the number of files to read at once*/
+	public DiaryMigrator(DiaryStore store, int threads) throws IOException {
+		this.store = store;
+		this.threads = threads;
+		this.progressFile = store.getDirectory().resolve(PROGRESS_FILE_NAME);
+		if (Files.exists(progressFile)) {
+			for (String line : Files.readAllLines(progressFile, StandardCharsets.UTF_8)) {
+				if (line.startsWith(STARTED)) {
+					started.add(line.substring(STARTED.length()));
+				} else {
+					migrated.add(line);
+				}
+			}
+		}
+	}
+
+	//Methods: other -------------------------------------------------------
+	/**The employee ID for {@code source}: its name without the extension, or if it has the
+	 * default name (see {@link Diary#defaultFileName}), the name of its directory, e.g.
+	 * {@code alice} for {@code home/alice/workDiary.txt}.*/
+	static String employeeIdFor(Path source) {
+		String name = source.getFileName().toString();
+		if (name.equals(Diary.defaultFileName) && source.toAbsolutePath().getParent() != null) {
+			name = source.toAbsolutePath().getParent().getFileName().toString();
+		}
+		int dot = name.lastIndexOf('.');
+		return dot > 0 ? name.substring(0, dot) : name;
+	}
+
+	/**Moves each of {@code sources} into the store, skipping those which earlier runs have moved.*/
+	public Result migrate(List<Path> sources) throws IOException, InterruptedException {
+		Result result = new Result();
+		AtomicLong days = new AtomicLong();
+		List<Future<Failure>> outcomes = new ArrayList<>();
+		List<Path> started = new ArrayList<>();
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(threads), new ThreadPoolExecutor.CallerRunsPolicy());
+		try (FileOutputStream progress = new FileOutputStream(progressFile.toFile(), true)) {
+			for (Path source : sources) {
+				if (migrated.contains(source.toAbsolutePath().toString())) {
+					result.skipped.add(source);
+					continue;
+				}
+				started.add(source);
+				outcomes.add(pool.submit(() -> migrate(source, progress, days)));
+			}
+			pool.shutdown();
+			for (int i = 0; i < outcomes.size(); i++) {
+				Failure failure;
+				try {
+					failure = outcomes.get(i).get();
+				} catch (ExecutionException e) {
+					failure = new Failure(started.get(i), employeeIdFor(started.get(i)), Failure.Stage.WRITE,
+							e.getCause() instanceof Exception ? (Exception) e.getCause() : e);
+				}
+				if (failure == null) {
+					result.migrated.add(employeeIdFor(started.get(i)));
+				} else {
+					result.failures.add(failure);
+				}
+			}
+			result.days = days.get();
+		} finally {
+			pool.shutdownNow();
+		}
+		return result;
+	}
+
+	/**Moves one file into the store, adding the number of days in it to {@code days}.
+	 * @return what went wrong, or null if nothing did*/
+	private Failure migrate(Path source, FileOutputStream progress, AtomicLong days) {
+		String employeeId = employeeIdFor(source);
+		Path target;
+		try {
+			target = store.fileFor(employeeId);
+		} catch (IllegalArgumentException e) {
+			return new Failure(source, employeeId, Failure.Stage.NAME, e);
+		}
+		if (!employeeIds.add(employeeId)) {
+			return new Failure(source, employeeId, Failure.Stage.NAME,
+					new IllegalArgumentException("Another file is also for " + employeeId));
+		}
+		String sourcePath = source.toAbsolutePath().toString();
+		if (Files.exists(target)) {
+			if (started.contains(sourcePath)) {
+				try {
+					Diary written = Diary.decode(target);				// Written by an earlier run
+					note(progress, sourcePath);
+					days.addAndGet(written.dayCount());
+					return null;
+				} catch (IOException | RuntimeException e) {
+					return new Failure(source, employeeId, Failure.Stage.WRITE, e);
+				}
+			}
+			return new Failure(source, employeeId, Failure.Stage.TARGET_EXISTS,
+					new IllegalStateException(target + " already exists"));
+		}
+		Diary diary;
+		try {
+			diary = Diary.decode(source);
+			DiaryJournal.replay(DiaryJournal.pathFor(source.toString()), diary.getGeneration(), diary);
+			diary.moveTo(target.toString());							// Reads any months still beside the source
+		} catch (IOException | RuntimeException e) {
+			return new Failure(source, employeeId, Failure.Stage.READ, e);
+		}
+		try {
+			note(progress, STARTED + sourcePath);
+			diary.write();
+			diary.closeJournal();
+			note(progress, sourcePath);
+		} catch (IOException | RuntimeException e) {
+			diary.closeJournal();
+			return new Failure(source, employeeId, Failure.Stage.WRITE, e);
+		}
+		days.addAndGet(diary.dayCount());
+		return null;
+	}
+
+	/**Adds {@code line} to the progress file, and makes sure it is on disk (before the diary is 
+	 * written, for a line saying it was started).*/
+	private void note(FileOutputStream progress, String line) throws IOException {
+		synchronized (progress) {
+			progress.write((line + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+			progress.getFD().sync();
+		}
+		if (!line.startsWith(STARTED)) {
+			migrated.add(line);
+		}
+	}
+
+	/**The files in {@code directory} which may be diaries: not journals, backups, unfinished
+	 * saves or shared holidays.*/
+	static List<Path> diaryFilesIn(Path directory) throws IOException {
+		List<Path> files = new ArrayList<>();
+		try (DirectoryStream<Path> listing = Files.newDirectoryStream(directory)) {
+			for (Path file : listing) {
+				String name = file.getFileName().toString();
+				if (Files.isRegularFile(file) && !name.endsWith(".journal") && !name.endsWith(".legacy")
+						&& !name.endsWith(".tmp") && !name.equals(WorkingCalendar.HOLIDAYS_FILE_NAME)) {
+					files.add(file);
+				}
+			}
+		}
+		Collections.sort(files);
+		return files;
+	}
+
+	/**Moves diary files into a store, printing each failure (source, employee ID, stage and error,
+	 * separated by tabs), then a summary.
+	 * @param args the store's directory, then diary files, or directories of them (searched one
+	 * level deep, as {@link #diaryFilesIn(Path)}). The number of threads is the system property
+	 * {@code timeTracker.migrationThreads} (default: one per processor).*/
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if (args.length < 2) {
+			System.out.println("Usage: migrate store-directory diary-file|directory...");
+			return;
+		}
+		Path directory = Paths.get(args[0]);
+		Files.createDirectories(directory);
+		List<Path> sources = new ArrayList<>();
+		Set<Path> seen = new HashSet<>();
+		for (int i = 1; i < args.length; i++) {
+			Path source = Paths.get(args[i]);
+			for (Path file : Files.isDirectory(source) ? diaryFilesIn(source) : Collections.singletonList(source)) {
+				if (seen.add(file.toAbsolutePath()) && !file.toAbsolutePath().startsWith(directory.toAbsolutePath())) {
+					sources.add(file);
+				}
+			}
+		}
+		int threads = Integer.getInteger("timeTracker.migrationThreads", Runtime.getRuntime().availableProcessors());
+		CUI.setMessages(false);
+		long start = System.nanoTime();
+		Result result = new DiaryMigrator(new DiaryStore(directory), threads).migrate(sources);
+		for (Failure failure : result.getFailures()) {
+			System.out.println(failure);
+		}
+		System.err.println(result.getMigrated().size() + " diaries (" + result.getDays() + " days) moved in "
+				+ (System.nanoTime() - start) / 1000000 + "ms on " + threads + " threads, "
+				+ result.getSkipped().size() + " already moved, " + result.getFailures().size() + " failed");
+	}
+}
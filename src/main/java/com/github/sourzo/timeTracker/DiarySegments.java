@@ -0,0 +1,365 @@
+package com.github.sourzo.timeTracker;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+
+/**Keeps track of the months of a {@link Diary}, which are saved in separate files so that
+ * only the months which are used need to be read.
+ * <P>The diary file itself is a small manifest: the {@link DiaryCodec} header (format
+ * {@link #VERSION}), the weekly patterns and overrides of the working calendar (see 
+ * {@link WorkingCalendar#writeRules}), then for each month its generation, which of its days are recorded,
+ * the minutes worked and which days have missed stamps. That is enough for the balance carried
+ * forward, the unrecorded days and the missed stamps without reading any months. The days of each month are in {@code <diary file>.segments/<yyyy-MM>.<generation>}:
+ * {@link #SEGMENT_MAGIC}, the number of days, then each day as in {@link DiaryCodec}.
+ * Months of closed years are packed into one compressed file per year instead (see {@link DiaryArchive}).
+ * <P>Saving only writes the months which have changed. They are written to new files (with
+ * the new generation in their names) before the manifest is replaced, and the old files
+ * are deleted afterwards, so a save which is interrupted leaves the previous one intact.*/
+class DiarySegments {
+	//Static fields--------------------------------------------------------
+	/**Version of the {@link DiaryCodec} header which marks a manifest. Version 4 is the same
+	 * without the working calendar, version 3 without missed stamps either, and version 2 
+	 * without archives either.*/
+	static final int VERSION = 5;
+	/**The first version which has the missed stamps of each month.*/
+	static final int MISSED_STAMPS_VERSION = 4;
+	static final int SEGMENT_MAGIC = 0x54545347; //"TTSG"
+	static final int SEGMENT_VERSION = 1;
+
+	//Instance fields------------------------------------------------------
+	private final TreeMap<YearMonth, Segment> months = new TreeMap<>();
+	/**Bytes written by the last {@link #writeChanged(Diary)}.*/
+	private long lastWriteBytes = 0;
+
+	/**What the manifest records about one month.*/
+	static class Segment {
+		final YearMonth month;
+		/**Generation of the save which wrote the month's file, or 0 if it has never been saved.*/
+		long generation;
+		/**Whether the month's file is its year's archive.*/
+		boolean archived;
+		/**Bit {@code n} is set if day {@code n + 1} of the month is recorded.*/
+		int dayMask;
+		long minutesWorked;
+		/**Bit {@code n} is set if day {@code n + 1} of the month has missed stamps.*/
+		int missedStampMask;
+		/**Whether the month's days have been read into the diary.*/
+		boolean loaded;
+		/**Whether the month has changed since it was saved.*/
+		boolean changed;
+
+		Segment(YearMonth month) {
+			this.month = month;
+		}
+
+		/**A copy of what the manifest records (not whether it is loaded or changed).*/
+		Segment copy() {
+			Segment copy = new Segment(month);
+			copy.generation = generation;
+			copy.archived = archived;
+			copy.dayMask = dayMask;
+			copy.minutesWorked = minutesWorked;
+			copy.missedStampMask = missedStampMask;
+			return copy;
+		}
+
+		int dayCount() {return Integer.bitCount(dayMask);}
+		long firstEpochDay() {return month.atDay(1).toEpochDay();}
+
+		/**Works out the totals from the month's days.*/
+		void summarise(Collection<WorkDay> days) {
+			dayMask = 0;
+			minutesWorked = 0;
+			missedStampMask = 0;
+			for (WorkDay day : days) {
+				int bit = 1 << day.getDate().getDayOfMonth() - 1;
+				dayMask |= bit;
+				minutesWorked += day.getMinutesWorked();
+				if (day.hasMissedStamps()) {
+					missedStampMask |= bit;
+				}
+			}
+		}
+	}
+
+	//Methods: months ------------------------------------------------------
+	Segment get(YearMonth month) {
+		return months.get(month);
+	}
+
+	Collection<Segment> all() {
+		return months.values();
+	}
+
+	/**The months from {@code from} to {@code to} inclusive which have anything recorded.*/
+	Collection<Segment> between(YearMonth from, YearMonth to) {
+		return months.subMap(from, true, to, true).values();
+	}
+
+	/**Notes that {@code month} has changed, adding it if it is new.*/
+	void changed(YearMonth month) {
+		Segment segment = months.get(month);
+		if (segment == null) {
+			segment = new Segment(month);
+			segment.loaded = true;
+			months.put(month, segment);
+		}
+		segment.changed = true;
+	}
+
+	/**Where each month is saved and whether it has changed, as {@link #restore(Map)} needs them.*/
+	Map<YearMonth, Segment> beforeSave() {
+		Map<YearMonth, Segment> before = new HashMap<>();
+		for (Segment segment : months.values()) {
+			Segment copy = segment.copy();
+			copy.changed = segment.changed;
+			before.put(segment.month, copy);
+		}
+		return before;
+	}
+
+	/**Puts back where each month is saved and whether it has changed, as they were at 
+	 * {@link #beforeSave()}, after a save which didn't get as far as replacing the manifest. 
+	 * The next save then writes the same months again, and lists the same old files to delete.*/
+	void restore(Map<YearMonth, Segment> before) {
+		for (Segment segment : months.values()) {
+			Segment saved = before.get(segment.month);
+			if (saved != null) {
+				segment.generation = saved.generation;
+				segment.archived = saved.archived;
+				segment.changed = saved.changed;
+			}
+		}
+	}
+
+	/**Marks every month as changed and not yet saved, so that the next save writes all of
+	 * them (e.g. to a new file). Only call this when every month is loaded.*/
+	void markAllChanged() {
+		for (Segment segment : months.values()) {
+			segment.changed = true;
+			segment.generation = 0;
+			segment.archived = false;
+		}
+	}
+
+	void put(Segment segment) {
+		months.put(segment.month, segment);
+	}
+
+	/**The number of recorded days, as of the last save or load.*/
+	int dayCount() {
+		int count = 0;
+		for (Segment segment : months.values()) {
+			count += segment.dayCount();
+		}
+		return count;
+	}
+
+	long getLastWriteBytes() {return lastWriteBytes;}
+
+	int loadedCount() {
+		int count = 0;
+		for (Segment segment : months.values()) {
+			if (segment.loaded) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**The years before {@code firstOpenYear} which have months that aren't in an archive.*/
+	Collection<Integer> yearsToArchive(int firstOpenYear) {
+		Collection<Integer> years = new TreeSet<>();
+		for (Segment segment : months.headMap(YearMonth.of(firstOpenYear, 1)).values()) {
+			if (!segment.archived) {
+				years.add(segment.month.getYear());
+			}
+		}
+		return years;
+	}
+
+	/**The months of {@code year} which have anything recorded.*/
+	Collection<Segment> inYear(int year) {
+		return between(YearMonth.of(year, 1), YearMonth.of(year, 12));
+	}
+
+	//Methods: files -------------------------------------------------------
+	static Path directoryFor(String fileName) {
+		return Paths.get(fileName + ".segments");
+	}
+
+	static Path pathFor(String fileName, Segment segment) {
+		if (segment.archived) {
+			return DiaryArchive.pathFor(fileName, segment.month.getYear(), segment.generation);
+		}
+		return directoryFor(fileName).resolve(segment.month + "." + segment.generation);
+	}
+
+	/**Writes each changed month of {@code diary} to a new file for the diary's current generation.
+	 * If the save then fails, put the months back with {@link #restore(Map)}.
+	 * @return the files which they replace, to be deleted once the manifest has been saved*/
+	List<Path> writeChanged(Diary diary) throws IOException {
+		List<Path> replaced = new ArrayList<>();
+		lastWriteBytes = 0;
+		for (Segment segment : months.values()) {
+			if (!segment.changed) {
+				continue;
+			}
+			if (segment.archived) {
+				Path archive = pathFor(diary.getFileName(), segment);
+				if (!replaced.contains(archive)) {
+					replaced.add(archive);			// The year is archived again before it's deleted
+				}
+				segment.archived = false;
+			} else if (segment.generation > 0) {
+				replaced.add(pathFor(diary.getFileName(), segment));
+			}
+			Collection<WorkDay> days = diary.daysIn(segment.month);
+			segment.generation = diary.getGeneration();
+			segment.summarise(days);
+			for (WorkDay day : days) {
+				Metrics.STAMPS_PER_DAY.record(day.stampCount());
+			}
+			Path path = pathFor(diary.getFileName(), segment);
+			Files.createDirectories(path.getParent());
+			try (FileOutputStream fOut = new FileOutputStream(path.toFile())) {
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fOut));
+				out.writeInt(SEGMENT_MAGIC);
+				out.writeByte(SEGMENT_VERSION);
+				writeDays(out, segment, days);
+				out.flush();
+				fOut.getFD().sync();
+				lastWriteBytes += out.size();
+			}
+			segment.changed = false;
+		}
+		return replaced;
+	}
+
+	/**Packs the months of {@code year} (which must all be loaded and saved) into a new archive
+	 * for the diary's current generation.*/
+	void archive(Diary diary, int year) throws IOException {
+		Collection<Segment> yearMonths = inYear(year);
+		lastWriteBytes += DiaryArchive.write(diary, year, yearMonths);
+		for (Segment segment : yearMonths) {
+			segment.archived = true;
+			segment.generation = diary.getGeneration();
+		}
+	}
+
+	/**Writes the days of a month: the number of days, then each one's distance from the one 
+	 * before (from the start of the month) and its contents.*/
+	static void writeDays(DataOutputStream out, Segment segment, Collection<WorkDay> days) throws IOException {
+		DiaryCodec.writeVarLong(out, days.size());
+		long previousDay = segment.firstEpochDay();
+		for (WorkDay day : days) {
+			long epochDay = day.getDate().toEpochDay();
+			DiaryCodec.writeVarLong(out, epochDay - previousDay);
+			previousDay = epochDay;
+			DiaryCodec.writeDay(out, day);
+		}
+	}
+
+	/**Reads days written by {@link #writeDays}, passing each one to {@code days}.*/
+	static void readDays(DataInputStream in, Segment segment, Consumer<WorkDay> days) throws IOException {
+		long dayCount = DiaryCodec.readVarLong(in);
+		long epochDay = segment.firstEpochDay();
+		for (long i = 0; i < dayCount; i++) {
+			epochDay += DiaryCodec.readVarLong(in);
+			WorkDay day = new WorkDay(LocalDate.ofEpochDay(epochDay));
+			DiaryCodec.readDay(in, day);
+			days.accept(day);
+		}
+	}
+
+	/**Reads the days of {@code segment} into {@code diary}.*/
+	static void readSegment(Diary diary, Segment segment) throws IOException {
+		readSegment(pathFor(diary.getFileName(), segment), segment, diary::putDay);
+	}
+
+	/**Reads the days of {@code segment} from {@code path} (see {@link #pathFor}), passing each one to {@code days}.*/
+	static void readSegment(Path path, Segment segment, Consumer<WorkDay> days) throws IOException {
+		if (segment.archived) {
+			DiaryArchive.readMonth(path, segment, days);
+			return;
+		}
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+			if (in.readInt() != SEGMENT_MAGIC || in.readUnsignedByte() != SEGMENT_VERSION) {
+				throw new IOException(path + " is not a diary segment");
+			}
+			readDays(in, segment, days);
+		}
+	}
+
+	/**@return the number of bytes written*/
+	int writeManifest(Diary diary, OutputStream stream) throws IOException {
+		DataOutputStream out = new DataOutputStream(stream);
+		DiaryCodec.writeHeader(out, VERSION, diary);
+		diary.calendar().writeRules(out);
+		DiaryCodec.writeVarLong(out, months.size());
+		YearMonth previous = YearMonth.from(diary.getStartDate());
+		for (Segment segment : months.values()) {
+			DiaryCodec.writeSignedVarLong(out, previous.until(segment.month, ChronoUnit.MONTHS));
+			previous = segment.month;
+			DiaryCodec.writeVarLong(out, segment.generation << 1 | (segment.archived ? 1 : 0));
+			DiaryCodec.writeVarLong(out, segment.dayMask & 0xFFFFFFFFL);
+			DiaryCodec.writeSignedVarLong(out, segment.minutesWorked);
+			DiaryCodec.writeVarLong(out, segment.missedStampMask & 0xFFFFFFFFL);
+		}
+		out.flush();
+		return out.size();
+	}
+
+	/**Whether {@code version} is the {@link DiaryCodec} header version of a manifest.*/
+	static boolean isManifest(int version) {
+		return version >= 2 && version <= VERSION;
+	}
+
+	/**Reads a manifest into a new diary, without reading any months.
+	 * @param version the manifest's version (see {@link #isManifest(int)})*/
+	static Diary readManifest(InputStream stream, String fileName, int version) throws IOException {
+		DataInputStream in = new DataInputStream(stream);
+		Diary diary = DiaryCodec.readHeader(in, version, fileName);
+		if (version >= 5) {
+			diary.calendar().readRules(in);
+		}
+		long monthCount = DiaryCodec.readVarLong(in);
+		YearMonth month = YearMonth.from(diary.getStartDate());
+		for (long i = 0; i < monthCount; i++) {
+			month = month.plusMonths(DiaryCodec.readSignedVarLong(in));
+			Segment segment = new Segment(month);
+			segment.generation = DiaryCodec.readVarLong(in);
+			if (version >= 3) {
+				segment.archived = (segment.generation & 1) != 0;
+				segment.generation >>>= 1;
+			}
+			segment.dayMask = (int) DiaryCodec.readVarLong(in);
+			segment.minutesWorked = DiaryCodec.readSignedVarLong(in);
+			if (version >= MISSED_STAMPS_VERSION) {
+				segment.missedStampMask = (int) DiaryCodec.readVarLong(in);
+			}
+			diary.putSegment(segment);
+		}
+		return diary;
+	}
+}
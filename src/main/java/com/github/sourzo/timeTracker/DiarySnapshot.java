@@ -0,0 +1,325 @@
+package com.github.sourzo.timeTracker;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+/**A {@link Diary} as it was at one moment, for reports which take a while (balances, weeks,
+ * unrecorded days) so that they don't need to hold up changes to the diary, and don't see
+ * changes made part way through.
+ * <P>The diary publishes a new snapshot after each change (see {@link Diary#snapshot()}), so
+ * getting one is just reading a field. Nothing in a snapshot is changed once it has been
+ * published: a new one shares the months which haven't changed with the one before, and has a
+ * new copy of the month which has (so a change copies one day, and the list of months). Old
+ * snapshots, and the months only they use, are left for the garbage collector once no report
+ * holds them.
+ * <P>Each month is either copies of its days (for months which have changed since they were
+ * saved), or what the manifest records about it, in which case its days are read from its file
+ * when a report needs them. If a later save has replaced that file, the days are taken from
+ * the diary's latest snapshot if the month hasn't changed since; otherwise the report fails with
+ * an {@link UncheckedIOException}, and needs a newer snapshot.*/
+public class DiarySnapshot {
+	//Instance fields------------------------------------------------------
+	/**The diary this was taken from, for months whose files have been replaced since.*/
+	private final Diary diary;
+	private final LocalDate start;
+	/**A copy of the diary's working calendar, shared by the snapshots until it changes. It
+	 * compiles years as they are used, so it is only used while holding its lock.*/
+	private final WorkingCalendar calendar;
+	/**The recorded months, in order.*/
+	private final Month[] months;
+	/**{@code balances[i]} is the balance of {@code months[0..i-1]}, in seconds.*/
+	private final long[] balances;
+
+	/**One month of a snapshot.*/
+	static final class Month {
+		final YearMonth month;
+		/**Copies of the recorded days, by day of the month - 1 (null where nothing is recorded),
+		 * or null if the days are only in {@link #file}.*/
+		final WorkDay[] days;
+		/**A copy of what the manifest records about the month, if its days are only in its file.*/
+		final DiarySegments.Segment saved;
+		final Path file;
+		final int dayMask;
+		final int missedStampMask;
+		final long balanceSeconds;
+		/**Changes whenever any day of the month changes, so that two months with the same
+		 * revision have the same days.*/
+		final long revision;
+
+		/**A month which has changed since it was saved (the days must not be changed afterwards).*/
+		Month(YearMonth month, WorkDay[] days, long balanceSeconds, long revision) {
+			this.month = month;
+			this.days = days;
+			this.saved = null;
+			this.file = null;
+			this.balanceSeconds = balanceSeconds;
+			this.revision = revision;
+			int recorded = 0;
+			int missed = 0;
+			for (int i = 0; i < days.length; i++) {
+				if (days[i] != null) {
+					recorded |= 1 << i;
+					if (days[i].hasMissedStamps()) {
+						missed |= 1 << i;
+					}
+				}
+			}
+			this.dayMask = recorded;
+			this.missedStampMask = missed;
+		}
+
+		/**A month whose days are in {@code file}, as recorded in {@code saved} (which must not be changed afterwards).*/
+		Month(DiarySegments.Segment saved, Path file, long balanceSeconds, long revision) {
+			this.month = saved.month;
+			this.days = null;
+			this.saved = saved;
+			this.file = file;
+			this.dayMask = saved.dayMask;
+			this.missedStampMask = saved.missedStampMask;
+			this.balanceSeconds = balanceSeconds;
+			this.revision = revision;
+		}
+
+		/**Reads the days from {@link #file}.*/
+		WorkDay[] read() throws IOException {
+			WorkDay[] read = new WorkDay[month.lengthOfMonth()];
+			DiarySegments.readSegment(file, saved, day -> read[day.getDate().getDayOfMonth() - 1] = day);
+			return read;
+		}
+	}
+
+	//Constructors----------------------------------------------------------
+	/**@param months the recorded months, in order*/
+	DiarySnapshot(Diary diary, LocalDate start, WorkingCalendar calendar, Month[] months) {
+		this.diary = diary;
+		this.start = start;
+		this.calendar = calendar;
+		this.months = months;
+		balances = new long[months.length + 1];
+		for (int i = 0; i < months.length; i++) {
+			balances[i + 1] = balances[i] + months[i].balanceSeconds;
+		}
+	}
+
+	/**This snapshot with {@code changed} in place of its month (or added, if the month is new).*/
+	DiarySnapshot with(Month changed) {
+		int index = indexOf(changed.month);
+		Month[] newMonths;
+		if (index >= 0) {
+			newMonths = months.clone();
+			newMonths[index] = changed;
+		} else {
+			index = -index - 1;
+			newMonths = new Month[months.length + 1];
+			System.arraycopy(months, 0, newMonths, 0, index);
+			newMonths[index] = changed;
+			System.arraycopy(months, index, newMonths, index + 1, months.length - index);
+		}
+		return new DiarySnapshot(diary, start, calendar, newMonths);
+	}
+
+	//Methods: months ------------------------------------------------------
+	/**The index of {@code month} in {@link #months}, or {@code -(insertion point) - 1} if it isn't recorded.*/
+	private int indexOf(YearMonth month) {
+		int low = 0;
+		int high = months.length - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int compared = months[mid].month.compareTo(month);
+			if (compared < 0) {
+				low = mid + 1;
+			} else if (compared > 0) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -(low + 1);
+	}
+
+	Month month(YearMonth month) {
+		int index = indexOf(month);
+		return index >= 0 ? months[index] : null;
+	}
+
+	/**The days of {@code month}, by day of the month - 1, reading them if need be.*/
+	private WorkDay[] days(Month month) {
+		if (month.days != null) {
+			return month.days;
+		}
+		try {
+			return month.read();
+		} catch (IOException e) {
+			Month latest = diary.snapshot().month(month.month);
+			if (latest == null || latest == month || latest.revision != month.revision) {
+				throw new UncheckedIOException(month.month + " has changed since this snapshot was taken", e);
+			}
+			return diary.snapshot().days(latest);
+		}
+	}
+
+	/**The recorded days from {@code from} to {@code to} inclusive, in date order.*/
+	private List<WorkDay> daysBetween(LocalDate from, LocalDate to) {
+		List<WorkDay> between = new ArrayList<>();
+		int index = indexOf(YearMonth.from(from));
+		for (int i = index >= 0 ? index : -index - 1; i < months.length && !months[i].month.isAfter(YearMonth.from(to)); i++) {
+			for (WorkDay day : days(months[i])) {
+				if (day != null && !day.getDate().isBefore(from) && !day.getDate().isAfter(to)) {
+					between.add(day);
+				}
+			}
+		}
+		return between;
+	}
+
+	/**Which days from {@code from} to {@code to} inclusive have been recorded.*/
+	private DayBitmap recordedDays(LocalDate from, LocalDate to) {
+		DayBitmap recorded = new DayBitmap();
+		int index = indexOf(YearMonth.from(from));
+		for (int i = index >= 0 ? index : -index - 1; i < months.length && !months[i].month.isAfter(YearMonth.from(to)); i++) {
+			long firstDay = months[i].month.atDay(1).toEpochDay();
+			for (int dayMask = months[i].dayMask; dayMask != 0; dayMask &= dayMask - 1) {
+				recorded.set(firstDay + Integer.numberOfTrailingZeros(dayMask));
+			}
+		}
+		return recorded;
+	}
+
+	//Methods: descriptive -------------------------------------------------
+	public LocalDate getStartDate() {return start;}
+
+	/**The hours expected on {@code date}, as the diary's working calendar was when this was taken.*/
+	public Duration getExpectedHours(LocalDate date) {
+		synchronized (calendar) {
+			return Duration.ofMinutes(calendar.expectedMinutes(date));
+		}
+	}
+
+	/**The balance of the recorded days from {@code startDate} to {@code endDate} inclusive, as
+	 * {@link Diary#balanceToDate(LocalDate, LocalDate)} (but without the warning about unrecorded
+	 * days). Whole months are added up from their totals; only the months at either end are
+	 * looked at day by day, if they have recorded days outside the range.*/
+	public Duration balanceToDate(LocalDate startDate, LocalDate endDate) {
+		if (startDate.isAfter(endDate)) {
+			return Duration.ZERO;
+		}
+		int first = indexOf(YearMonth.from(startDate));
+		int last = indexOf(YearMonth.from(endDate));
+		int from = first >= 0 ? first : -first - 1;
+		int to = last >= 0 ? last : -last - 2;
+		if (from > to) {
+			return Duration.ZERO;
+		}
+		long seconds = balances[to + 1] - balances[from];
+		if (first >= 0 && startDate.getDayOfMonth() > 1) {
+			seconds -= balanceOfDays(months[first], 1, startDate.getDayOfMonth() - 1);
+		}
+		if (last >= 0 && endDate.getDayOfMonth() < endDate.lengthOfMonth()) {
+			seconds -= balanceOfDays(months[last], endDate.getDayOfMonth() + 1, endDate.lengthOfMonth());
+		}
+		return Duration.ofSeconds(seconds);
+	}
+
+	public Duration balanceToDate(LocalDate endDate) {
+		return balanceToDate(start, endDate);
+	}
+
+	public Duration balanceToDate() {
+		return balanceToDate(start, LocalDate.now());
+	}
+
+	/**The balance of days {@code fromDay} to {@code toDay} (of the month) of {@code month}, in seconds.*/
+	private long balanceOfDays(Month month, int fromDay, int toDay) {
+		int rangeMask = (int) ((-1L << (fromDay - 1)) & (-1L >>> (64 - toDay)));
+		if ((month.dayMask & rangeMask) == 0) {
+			return 0;
+		}
+		WorkDay[] days = days(month);
+		long seconds = 0;
+		synchronized (calendar) {
+			for (int i = fromDay - 1; i < toDay; i++) {
+				if (days[i] != null) {
+					seconds += (days[i].getMinutesWorked() - calendar.expectedMinutes(days[i].getDate())) * 60L;
+				}
+			}
+		}
+		return seconds;
+	}
+
+	/**Totals for the ISO week (Monday to Sunday) containing {@code date}.*/
+	public Rollup getWeek(LocalDate date) {
+		LocalDate monday = RollupCache.weekStart(date);
+		return rollup(monday, monday.plusDays(6));
+	}
+
+	public Rollup getMonth(YearMonth month) {
+		return rollup(month.atDay(1), month.atEndOfMonth());
+	}
+
+	private Rollup rollup(LocalDate first, LocalDate last) {
+		List<WorkDay> days = daysBetween(first, last);
+		synchronized (calendar) {
+			return new Rollup(first, last, days, calendar);
+		}
+	}
+
+	/**Shows the hours worked on each weekday of the week containing {@code date}, as {@link Diary#viewWeek(LocalDate)}.*/
+	public void viewWeek(LocalDate date) {
+		Diary.showWeek(getWeek(date));
+	}
+
+	/**The working days from the start of the diary up to today which have nothing recorded.*/
+	public TreeSet<LocalDate> getUnrecordedDays() {
+		LocalDate today = LocalDate.now();
+		DayBitmap recorded = recordedDays(start, today);
+		synchronized (calendar) {
+			return recorded.missingDays(start, today, calendar.workingDays(start, today));
+		}
+	}
+
+	public boolean hasUnrecordedDays() {
+		LocalDate today = LocalDate.now();
+		DayBitmap recorded = recordedDays(start, today);
+		synchronized (calendar) {
+			return recorded.anyMissing(start, today, calendar.workingDays(start, today));
+		}
+	}
+
+	/**The number of working days from {@code from} to {@code to} inclusive (but only from the
+	 * start of the diary up to today) which have nothing recorded.*/
+	public int countUnrecordedDays(LocalDate from, LocalDate to) {
+		LocalDate today = LocalDate.now();
+		LocalDate first = from.isBefore(start) ? start : from;
+		LocalDate last = to.isAfter(today) ? today : to;
+		if (first.isAfter(last)) {
+			return 0;
+		}
+		DayBitmap recorded = recordedDays(first, last);
+		synchronized (calendar) {
+			return recorded.countMissing(first, last, calendar.workingDays(first, last));
+		}
+	}
+
+	/**The days from {@code from} to {@code to} (inclusive) whose stamps don't alternate between
+	 * in and out, or which hadn't been clocked out yet.*/
+	public TreeSet<LocalDate> getMissedStampDays(LocalDate from, LocalDate to) {
+		TreeSet<LocalDate> missed = new TreeSet<>();
+		int index = indexOf(YearMonth.from(from));
+		for (int i = index >= 0 ? index : -index - 1; i < months.length && !months[i].month.isAfter(YearMonth.from(to)); i++) {
+			for (int missedMask = months[i].missedStampMask; missedMask != 0; missedMask &= missedMask - 1) {
+				LocalDate day = months[i].month.atDay(Integer.numberOfTrailingZeros(missedMask) + 1);
+				if (!day.isBefore(from) && !day.isAfter(to)) {
+					missed.add(day);
+				}
+			}
+		}
+		return missed;
+	}
+}
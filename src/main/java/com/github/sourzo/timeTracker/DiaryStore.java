@@ -0,0 +1,196 @@
+package com.github.sourzo.timeTracker;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+/**Holds the diaries of many employees, each saved in its own file in one directory and loaded
+ * the first time it is used.
+ * <P>{@link Diary} isn't thread-safe (even {@link Diary#get(LocalDate)} can add a day), so every
+ * call for an employee holds a lock for that employee while it uses the diary. The locks are
+ * striped: each employee ID maps to one of a fixed number of locks, so two people clocking in at
+ * the same moment only wait for each other if their IDs happen to share a stripe.*/
+public class DiaryStore {
+	//Static fields--------------------------------------------------------
+	static final String FILE_EXTENSION = ".diary";
+	private static final Pattern VALID_ID = Pattern.compile("[A-Za-z0-9_-]+");
+
+	//Instance fields------------------------------------------------------
+	private final Path directory;
+	private final ConcurrentHashMap<String, Diary> diaries = new ConcurrentHashMap<>();
+	private final ReentrantLock[] locks;
+	/**Who is on site, kept up to date as stamps change. Null until {@link #indexOccupancy(LocalDate)}.*/
+	private volatile OccupancyIndex occupancy;
+
+	//Constructors----------------------------------------------------------
+	/**@param directory where the diary files are kept (one per employee)*/
+	public DiaryStore(Path directory) {
+		this(directory, 64);
+	}
+
+	/**@param directory where the diary files are kept (one per employee)
+	 * @param stripes the number of locks to share between employees (rounded up to a power of 2)*/
+	public DiaryStore(Path directory, int stripes) {
+		this.directory = directory;
+		int size = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+		locks = new ReentrantLock[size];
+		for (int i = 0; i < size; i++) {
+			locks[i] = new ReentrantLock();
+		}
+	}
+
+	//Methods: get & set ---------------------------------------------------
+	public Path getDirectory() {return directory;}
+	/**@return who is on site, or null if {@link #indexOccupancy(LocalDate)} hasn't been called*/
+	public OccupancyIndex getOccupancy() {return occupancy;}
+
+	/**The file which holds the diary for {@code employeeId}.*/
+	public Path fileFor(String employeeId) {
+		if (employeeId == null || !VALID_ID.matcher(employeeId).matches()) {
+			throw new IllegalArgumentException("Invalid employee ID: " + employeeId);
+		}
+		return directory.resolve(employeeId + FILE_EXTENSION);
+	}
+
+	private ReentrantLock lockFor(String employeeId) {
+		int hash = employeeId.hashCode();
+		hash ^= hash >>> 16;
+		return locks[hash & (locks.length - 1)];
+	}
+
+	/**Gets the diary for {@code employeeId}, loading it if needed. The caller must hold the employee's lock.
+	 * @throws UncheckedIOException if the diary's file can't be read (the diary isn't replaced by an 
+	 * empty one, so nothing is accepted which couldn't be journalled)*/
+	private Diary diary(String employeeId) {
+		Diary diary = diaries.get(employeeId);
+		if (diary == null) {
+			try {
+				diary = Diary.open(fileFor(employeeId));
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			diaries.put(employeeId, diary);
+			index(employeeId, diary);
+		}
+		return diary;
+	}
+
+	/**Adds the days of {@code diary} to the occupancy index (if there is one), and keeps them up 
+	 * to date from now on. The caller must hold the employee's lock.*/
+	private void index(String employeeId, Diary diary) {
+		OccupancyIndex index = occupancy;
+		if (index != null) {
+			diary.setTimeStampListener(day -> index.update(employeeId, day));
+			diary.forEachDay(index.getStart(), LocalDate.now(), day -> index.update(employeeId, day));
+		}
+	}
+
+	//Methods: using a diary ------------------------------------------------
+	/**Runs {@code action} on the diary for {@code employeeId} while holding the employee's lock.
+	 * The diary mustn't be used after {@code action} returns.*/
+	public <T> T withDiary(String employeeId, Function<Diary, T> action) {
+		ReentrantLock lock = lockFor(employeeId);
+		lock.lock();
+		try {
+			return action.apply(diary(employeeId));
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**Runs {@code action} on the diary for {@code employeeId} while holding the employee's lock.*/
+	public void update(String employeeId, Consumer<Diary> action) {
+		withDiary(employeeId, diary -> {
+			action.accept(diary);
+			return null;
+		});
+	}
+
+	public void stamp(String employeeId, StampType inOrOut) {
+		update(employeeId, diary -> diary.stamp(inOrOut));
+	}
+
+	public void addActivity(String employeeId, ActivityType activity, Duration duration) {
+		update(employeeId, diary -> diary.addActivity(activity, duration));
+	}
+
+	public Duration balanceToDate(String employeeId, LocalDate startDate, LocalDate endDate) {
+		return withDiary(employeeId, diary -> diary.balanceToDate(startDate, endDate));
+	}
+
+	/**The diary for {@code employeeId} as it is now (see {@link Diary#snapshot()}), for reports. 
+	 * The employee's lock is only held if the diary needs loading, so a long report doesn't 
+	 * hold up the employee's stamps.*/
+	public DiarySnapshot snapshot(String employeeId) {
+		Diary diary = diaries.get(employeeId);
+		if (diary == null) {
+			diary = withDiary(employeeId, loaded -> loaded);
+		}
+		return diary.snapshot();
+	}
+
+	/**Makes sure the changes to the diary for {@code employeeId} are on disk (see {@link Diary#syncJournal()}).
+	 * The employee's lock is only held to find the diary, not during the disk sync, so other 
+	 * employees on the same stripe don't wait for it.
+	 * @throws IOException if they couldn't be written*/
+	public void sync(String employeeId) throws IOException {
+		withDiary(employeeId, diary -> diary).syncJournal();
+	}
+
+	/**Starts keeping an {@link OccupancyIndex} of who is on site from {@code from}, by loading 
+	 * every diary in the directory and indexing its days since then. From then on, stamps update 
+	 * the index as they are made, and diaries loaded later are added to it.
+	 * @return the new index (which replaces any earlier one)*/
+	public OccupancyIndex indexOccupancy(LocalDate from) throws IOException {
+		occupancy = new OccupancyIndex(from);
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + FILE_EXTENSION)) {
+			for (Path file : files) {
+				String fileName = file.getFileName().toString();
+				String employeeId = fileName.substring(0, fileName.length() - FILE_EXTENSION.length());
+				if (!VALID_ID.matcher(employeeId).matches()) {
+					continue;
+				}
+				try {
+					if (isLoaded(employeeId)) {
+						update(employeeId, diary -> index(employeeId, diary));
+					} else {
+						update(employeeId, diary -> {});								//Loading it indexes it
+					}
+				} catch (UncheckedIOException e) {
+					System.out.println(e.getCause());									//Left out until it can be read
+				}
+			}
+		}
+		return occupancy;
+	}
+
+	/**Whether the diary for {@code employeeId} has been loaded.*/
+	public boolean isLoaded(String employeeId) {
+		return diaries.containsKey(employeeId);
+	}
+
+	/**Saves every diary which has been loaded.*/
+	public void saveAll() {
+		for (String employeeId : diaries.keySet()) {
+			update(employeeId, Diary::save);
+		}
+	}
+
+	/**Stops writing to the journals of all loaded diaries, and forgets them (changes are already
+	 * in the journals, and will be read back the next time the diaries are loaded).*/
+	public void close() {
+		for (String employeeId : diaries.keySet()) {
+			update(employeeId, Diary::closeJournal);
+			diaries.remove(employeeId);
+		}
+	}
+}
@@ -0,0 +1,117 @@
+package com.github.sourzo.timeTracker;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**Makes changes in a {@link DiaryStore} durable in groups.
+ * <P>Each change is already in its diary's journal when {@link #commit(String)} is called; what is
+ * left is to force the journal to disk. Rather than every request doing that itself, a single
+ * writer thread takes every commit which is waiting, syncs each diary involved once, and then
+ * completes all of them together. Under load, many requests share one sync. If a diary's sync 
+ * fails, the commits for that diary complete exceptionally, as their changes may not be on disk.*/
+class GroupCommitter implements AutoCloseable {
+	//Instance fields------------------------------------------------------
+	private final DiaryStore store;
+	private final LinkedBlockingQueue<Commit> queue = new LinkedBlockingQueue<>();
+	private final Thread writer;
+	/**Only changed, and only checked before queueing a commit, while holding {@link #queue}'s 
+	 * lock, so that no commit is queued after {@link #STOP}.*/
+	private boolean running = true;
+	/**Number of groups written so far.*/
+	private volatile long groups = 0;
+
+	/**Put on the queue by {@link #close()} to wake the writer up.*/
+	private static final Commit STOP = new Commit(null);
+
+	private static class Commit {
+		final String employeeId;
+		final CompletableFuture<Void> done = new CompletableFuture<>();
+		Commit(String employeeId) {this.employeeId = employeeId;}
+	}
+
+	//Constructors----------------------------------------------------------
+	GroupCommitter(DiaryStore store) {
+		this.store = store;
+		writer = new Thread(this::writeGroups, "diary-group-commit");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	//Methods: other -------------------------------------------------------
+	/**Asks for the changes made so far to {@code employeeId}'s diary to be made durable.
+	 * @return completes once they are on disk*/
+	CompletableFuture<Void> commit(String employeeId) {
+		Commit commit = new Commit(employeeId);
+		synchronized (queue) {
+			if (running) {
+				queue.add(commit);
+				return commit.done;
+			}
+		}
+		commit.done.completeExceptionally(new IllegalStateException("Group commit has been closed"));
+		return commit.done;
+	}
+
+	long getGroupCount() {return groups;}
+
+	private void writeGroups() {
+		List<Commit> group = new ArrayList<>();
+		boolean stopping = false;
+		while (!stopping) {
+			try {
+				group.add(queue.take());
+			} catch (InterruptedException e) {
+				return;
+			}
+			queue.drainTo(group);
+			stopping = group.remove(STOP);
+			Set<String> employees = new LinkedHashSet<>();
+			for (Commit commit : group) {
+				employees.add(commit.employeeId);
+			}
+			Map<String, Exception> failures = new HashMap<>();
+			for (String employeeId : employees) {
+				try {
+					store.sync(employeeId);
+				} catch (IOException | RuntimeException e) {
+					failures.put(employeeId, e);
+				}
+			}
+			for (Commit commit : group) {
+				Exception failure = failures.get(commit.employeeId);
+				if (failure == null) {
+					commit.done.complete(null);
+				} else {
+					commit.done.completeExceptionally(failure);
+				}
+			}
+			groups++;
+			group.clear();
+		}
+	}
+
+	/**Writes anything still waiting, then stops the writer thread. If this thread is interrupted 
+	 * while waiting, it stops waiting (commits still queued fail) and stays interrupted.*/
+	@Override
+	public void close() {
+		synchronized (queue) {
+			running = false;
+			queue.add(STOP);
+		}
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		for (Commit late = queue.poll(); late != null; late = queue.poll()) {
+			late.done.completeExceptionally(new IllegalStateException("Group commit has been closed"));
+		}
+	}
+}
@@ -0,0 +1,83 @@
+package com.github.sourzo.timeTracker;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**Counts values in fixed buckets, one for each power of two, so that it can be updated from
+ * many threads at once without locking or allocating: each bucket is a {@link LongAdder},
+ * which spreads updates from different threads over separate cells.*/
+class Histogram implements HistogramMXBean {
+	//Static fields--------------------------------------------------------
+	/**Bucket {@code i} counts the values from {@code 2^(i-1)} to {@code 2^i - 1} (bucket 0 counts 0).*/
+	static final int BUCKETS = 64;
+
+	//Instance fields------------------------------------------------------
+	private final String unit;
+	private final LongAdder[] buckets = new LongAdder[BUCKETS];
+	private final LongAdder count = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+	//Constructors----------------------------------------------------------
+	Histogram(String unit) {
+		this.unit = unit;
+		for (int i = 0; i < BUCKETS; i++) {
+			buckets[i] = new LongAdder();
+		}
+	}
+
+	//Methods: recording ---------------------------------------------------
+	/**Counts {@code value} (negative values count as 0).*/
+	void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+		buckets[BUCKETS - Long.numberOfLeadingZeros(value)].increment();
+		count.increment();
+		sum.add(value);
+		max.accumulate(value);
+	}
+
+	/**Records the microseconds since {@code startNanos} (from {@link System#nanoTime()}).*/
+	void recordSince(long startNanos) {
+		record((System.nanoTime() - startNanos) / 1000);
+	}
+
+	//Methods: get & set ---------------------------------------------------
+	@Override public String getUnit() {return unit;}
+	@Override public long getCount() {return count.sum();}
+	@Override public long getSum() {return sum.sum();}
+	@Override public long getMax() {return max.get();}
+	@Override public long getMedian() {return percentile(0.5);}
+	@Override public long getPercentile90() {return percentile(0.9);}
+	@Override public long getPercentile99() {return percentile(0.99);}
+
+	@Override
+	public double getMean() {
+		long n = count.sum();
+		return n == 0 ? 0 : (double) sum.sum() / n;
+	}
+
+	/**The top of the bucket which the {@code fraction} point of the values falls in (or the
+	 * largest value, if that is smaller).*/
+	long percentile(double fraction) {
+		long[] counts = new long[BUCKETS];
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] = buckets[i].sum();
+			total += counts[i];
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(fraction * total);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return Math.min((1L << i) - 1, max.get());
+			}
+		}
+		return max.get();
+	}
+}
@@ -0,0 +1,15 @@
+package com.github.sourzo.timeTracker;
+
+/**What a {@link Histogram} shows through JMX (e.g. in jconsole, under com.github.sourzo.timeTracker).
+ * Percentiles are approximate: they are the top of the power-of-two bucket they fall in.*/
+public interface HistogramMXBean {
+	/**What the values are measured in, e.g. "us" or "bytes".*/
+	String getUnit();
+	long getCount();
+	long getSum();
+	double getMean();
+	long getMax();
+	long getMedian();
+	long getPercentile90();
+	long getPercentile99();
+}
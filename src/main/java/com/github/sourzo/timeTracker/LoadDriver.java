@@ -0,0 +1,403 @@
+package com.github.sourzo.timeTracker;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Pattern;
+
+/**Replays a script of requests (stamps, amendments and reports) against a {@link DiaryStore}
+ * at a target rate, and measures how long each takes, e.g. on diaries made by a
+ * {@link WorkloadGenerator}, to see what a machine can handle before a rollout.
+ * <P>Request {@code i} is due {@code i / rate} seconds after the start, whether or not the
+ * earlier ones have finished, and its latency is measured from when it was due: if the store
+ * falls behind, the time requests spend waiting counts too. Stamps and amendments wait for
+ * their journal to be synced by a {@link GroupCommitter}, as {@link StampServer} does, and
+ * reports read a {@link DiarySnapshot}.
+ * <P>A script is made from a seed (see {@link #script(long, List, int, int[])}), so the same
+ * seed gives the same requests, and can be saved and read back as text (one
+ * {@link Request} per line) to replay exactly the same traffic later.
+ * <P>The requests change the diaries (in their journals), so load-test a copy.*/
+public class LoadDriver {
+	//Static fields--------------------------------------------------------
+	private static final Pattern FIELDS = Pattern.compile(" ");
+	/**The default share of each {@link Operation}, in percent.*/
+	static final int[] DEFAULT_MIX = {70, 10, 20};
+	/**Amendments are to days up to this many days ago.*/
+	static final int AMEND_DAYS = 60;
+	/**Reports start up to this many days ago.*/
+	static final int REPORT_DAYS = 2 * 365;
+	private static final ActivityType[] AMEND_ACTIVITIES = {ActivityType.ANNUAL_LEAVE, ActivityType.SICK,
+			ActivityType.MEDICAL_APPOINTMENT, ActivityType.TRAINING};
+
+	//Instance fields------------------------------------------------------
+	private final DiaryStore store;
+	/**Null if changes aren't waited for.*/
+	private final GroupCommitter committer;
+
+	/**What a request does.*/
+	public enum Operation {
+		/**Clocks in or out now.*/
+		STAMP,
+		/**Adds or removes a stamp, or adds an activity, on an earlier day.*/
+		AMEND,
+		/**Reads the balance from a day until today, and the week of that day.*/
+		REPORT
+	}
+
+	/**One request in a script. Days are counted back from the day it is run, so that a script
+	 * still fits diaries which end on the day they were made.*/
+	public static class Request {
+		final Operation operation;
+		final String employeeId;
+		/**The day amended, or the first day reported on.*/
+		final int daysAgo;
+		/**The stamp added (or null to remove the first stamp of the day, or to add an activity).*/
+		final LocalTime time;
+		/**IN or OUT, for a stamp.*/
+		final StampType type;
+		/**The activity added (or null).*/
+		final ActivityType activity;
+		/**The length of the activity.*/
+		final int minutes;
+
+		Request(Operation operation, String employeeId, int daysAgo, LocalTime time, StampType type,
+				ActivityType activity, int minutes) {
+			this.operation = operation;
+			this.employeeId = employeeId;
+			this.daysAgo = daysAgo;
+			this.time = time;
+			this.type = type;
+			this.activity = activity;
+			this.minutes = minutes;
+		}
+
+		/**The fields separated by spaces, with - for those not used, as read by {@link #parse(String)}.*/
+		@Override
+		public String toString() {
+			return operation + " " + employeeId + " " + daysAgo + " " + (time == null ? "-" : time) + " "
+					+ (type == null ? "-" : type) + " " + (activity == null ? "-" : activity) + " " + minutes;
+		}
+
+		static Request parse(String line) {
+			String[] fields = FIELDS.split(line.trim());
+			if (fields.length != 7) {
+				throw new IllegalArgumentException("Expected 7 fields: " + line);
+			}
+			return new Request(Operation.valueOf(fields[0]), fields[1], Integer.parseInt(fields[2]),
+					fields[3].equals("-") ? null : LocalTime.parse(fields[3]),
+					fields[4].equals("-") ? null : StampType.valueOf(fields[4]),
+					fields[5].equals("-") ? null : ActivityType.valueOf(fields[5]),
+					Integer.parseInt(fields[6]));
+		}
+	}
+
+	/**The requests of a run and how long each took.*/
+	public static class Result {
+		private final List<Request> script;
+		/**Nanoseconds from when each request was due until it finished (-1 if it failed).*/
+		private final long[] latencies;
+		private final long elapsedNanos;
+		private final double rate;
+
+		Result(List<Request> script, long[] latencies, long elapsedNanos, double rate) {
+			this.script = script;
+			this.latencies = latencies;
+			this.elapsedNanos = elapsedNanos;
+			this.rate = rate;
+		}
+
+		public Duration getElapsed() {return Duration.ofNanos(elapsedNanos);}
+
+		/**Requests finished per second.*/
+		public double getThroughput() {
+			return elapsedNanos == 0 ? 0 : (script.size() - getFailures(null)) * 1e9 / elapsedNanos;
+		}
+
+		/**The number of requests which threw, of {@code operation} (or of any, if null).*/
+		public int getFailures(Operation operation) {
+			int failures = 0;
+			for (int i = 0; i < latencies.length; i++) {
+				if (latencies[i] < 0 && (operation == null || script.get(i).operation == operation)) {
+					failures++;
+				}
+			}
+			return failures;
+		}
+
+		/**The latencies of the requests of {@code operation} (or of all, if null) which succeeded, in order.*/
+		long[] latencies(Operation operation) {
+			long[] selected = new long[latencies.length];
+			int count = 0;
+			for (int i = 0; i < latencies.length; i++) {
+				if (latencies[i] >= 0 && (operation == null || script.get(i).operation == operation)) {
+					selected[count++] = latencies[i];
+				}
+			}
+			selected = Arrays.copyOf(selected, count);
+			Arrays.sort(selected);
+			return selected;
+		}
+
+		/**The latency, in microseconds, which {@code fraction} of the successful requests of
+		 * {@code operation} (or of all, if null) took at most, e.g. 0.99 for the 99th percentile.*/
+		public long percentile(Operation operation, double fraction) {
+			return percentile(latencies(operation), fraction);
+		}
+
+		private static long percentile(long[] sorted, double fraction) {
+			if (sorted.length == 0) {
+				return 0;
+			}
+			int rank = (int) Math.ceil(fraction * sorted.length);
+			return sorted[Math.max(0, rank - 1)] / 1000;
+		}
+
+		/**Prints the throughput, then a line per operation (and for all of them) with the count,
+		 * failures and latency percentiles in microseconds.*/
+		public void print(PrintStream out) {
+			out.printf("%d requests in %dms: %.1f/s (target %s)%n", script.size(), elapsedNanos / 1000000,
+					getThroughput(), rate > 0 ? String.format("%.1f/s", rate) : "as fast as possible");
+			out.println("operation\tcount\tfailed\tp50\tp90\tp99\tp99.9\tmax (us)");
+			List<Operation> operations = new ArrayList<>(Arrays.asList(Operation.values()));
+			operations.add(null);
+			for (Operation operation : operations) {
+				long[] sorted = latencies(operation);
+				out.println((operation == null ? "ALL" : operation.toString()) + "\t" + sorted.length + "\t"
+						+ getFailures(operation) + "\t" + percentile(sorted, 0.5) + "\t" + percentile(sorted, 0.9)
+						+ "\t" + percentile(sorted, 0.99) + "\t" + percentile(sorted, 0.999) + "\t" + percentile(sorted, 1));
+			}
+		}
+	}
+
+	//Constructors----------------------------------------------------------
+	/**@param durable whether stamps and amendments wait until they are on disk*/
+	public LoadDriver(DiaryStore store, boolean durable) {
+		this.store = store;
+		this.committer = durable ? new GroupCommitter(store) : null;
+	}
+
+	//Methods: scripts -----------------------------------------------------
+	/**{@code count} requests for {@code employeeIds}, made from {@code seed}.
+	 * @param mix the share of each {@link Operation}, by ordinal (e.g. {@link #DEFAULT_MIX})*/
+	public static List<Request> script(long seed, List<String> employeeIds, int count, int[] mix) {
+		Random random = new Random(seed);
+		int total = 0;
+		for (int share : mix) {
+			total += share;
+		}
+		Map<String, StampType> lastStamps = new HashMap<>();
+		List<Request> script = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			String employeeId = employeeIds.get(random.nextInt(employeeIds.size()));
+			int pick = random.nextInt(total);
+			Operation operation = Operation.values()[0];
+			for (int o = 0; pick >= mix[o]; o++) {
+				pick -= mix[o];
+				operation = Operation.values()[o + 1];
+			}
+			switch (operation) {
+			case STAMP:
+				StampType type = lastStamps.get(employeeId) == StampType.IN ? StampType.OUT : StampType.IN;
+				lastStamps.put(employeeId, type);
+				script.add(new Request(operation, employeeId, 0, null, type, null, 0));
+				break;
+			case AMEND:
+				int daysAgo = 1 + random.nextInt(AMEND_DAYS);
+				switch (random.nextInt(3)) {
+				case 0:
+					LocalTime time = LocalTime.MIN.plusMinutes(6 * 60 + random.nextInt(14 * 60));
+					script.add(new Request(operation, employeeId, daysAgo, time,
+							random.nextBoolean() ? StampType.IN : StampType.OUT, null, 0));
+					break;
+				case 1:
+					script.add(new Request(operation, employeeId, daysAgo, null, null, null, 0));
+					break;
+				default:
+					script.add(new Request(operation, employeeId, daysAgo, null, null,
+							AMEND_ACTIVITIES[random.nextInt(AMEND_ACTIVITIES.length)], 30 + 30 * random.nextInt(14)));
+				}
+				break;
+			case REPORT:
+				script.add(new Request(operation, employeeId, random.nextInt(REPORT_DAYS), null, null, null, 0));
+				break;
+			}
+		}
+		return script;
+	}
+
+	public static void write(List<Request> script, Path file) throws IOException {
+		try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+			for (Request request : script) {
+				out.write(request.toString());
+				out.newLine();
+			}
+		}
+	}
+
+	/**Reads a script written by {@link #write(List, Path)} (blank lines and lines starting with # are ignored).*/
+	public static List<Request> read(Path file) throws IOException {
+		List<Request> script = new ArrayList<>();
+		try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			for (String line = in.readLine(); line != null; line = in.readLine()) {
+				if (!line.trim().isEmpty() && !line.startsWith("#")) {
+					script.add(Request.parse(line));
+				}
+			}
+		}
+		return script;
+	}
+
+	//Methods: running -----------------------------------------------------
+	/**Runs {@code script}, starting request {@code i} at {@code i / rate} seconds (or each as
+	 * soon as a thread is free, if {@code rate} is 0) on {@code threads} threads.*/
+	public Result run(List<Request> script, double rate, int threads) throws InterruptedException {
+		long[] latencies = new long[script.size()];
+		AtomicInteger next = new AtomicInteger();
+		LocalDate today = LocalDate.now();
+		ExecutorService workers = Executors.newFixedThreadPool(threads);
+		List<Future<?>> running = new ArrayList<>();
+		long start = System.nanoTime();
+		for (int t = 0; t < threads; t++) {
+			running.add(workers.submit(() -> {
+				for (int i = next.getAndIncrement(); i < latencies.length; i = next.getAndIncrement()) {
+					long due = rate > 0 ? start + (long) (i * 1e9 / rate) : System.nanoTime();
+					for (long wait = due - System.nanoTime(); wait > 0; wait = due - System.nanoTime()) {
+						LockSupport.parkNanos(wait);
+					}
+					try {
+						execute(script.get(i), today);
+						latencies[i] = System.nanoTime() - due;
+					} catch (Exception e) {
+						latencies[i] = -1;
+					}
+				}
+			}));
+		}
+		for (Future<?> worker : running) {
+			try {
+				worker.get();
+			} catch (ExecutionException e) {
+				throw new IllegalStateException(e.getCause());
+			}
+		}
+		long elapsed = System.nanoTime() - start;
+		workers.shutdown();
+		return new Result(script, latencies, elapsed, rate);
+	}
+
+	/**Makes {@code request} against the store, as {@link StampServer} would.*/
+	private void execute(Request request, LocalDate today) throws Exception {
+		String employeeId = request.employeeId;
+		switch (request.operation) {
+		case STAMP:
+			store.withDiary(employeeId, diary -> diary.stamp(request.type));
+			commit(employeeId);
+			break;
+		case AMEND:
+			store.update(employeeId, diary -> {
+				WorkDay day = diary.get(today.minusDays(request.daysAgo));
+				if (request.activity != null) {
+					day.addActivity(request.activity, Duration.ofMinutes(request.minutes));
+				} else if (request.time != null) {
+					day.addTimeStamp(request.time, request.type);
+				} else if (!day.getTimeStamps().isEmpty()) {
+					day.removeTimeStamp(day.getTimeStamps().keySet().iterator().next());
+				}
+			});
+			commit(employeeId);
+			break;
+		case REPORT:
+			DiarySnapshot diary = store.snapshot(employeeId);
+			LocalDate from = today.minusDays(request.daysAgo);
+			diary.balanceToDate(from, today);
+			diary.getWeek(from);
+			break;
+		}
+	}
+
+	private void commit(String employeeId) throws Exception {
+		if (committer != null) {
+			committer.commit(employeeId).get();
+		}
+	}
+
+	/**Stops the group commits (the store is left open).*/
+	public void close() {
+		if (committer != null) {
+			committer.close();
+		}
+	}
+
+	/**The IDs of the diaries in {@code directory}, in order.*/
+	static List<String> employeeIdsIn(Path directory) throws IOException {
+		List<String> employeeIds = new ArrayList<>();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + DiaryStore.FILE_EXTENSION)) {
+			for (Path file : files) {
+				String fileName = file.getFileName().toString();
+				employeeIds.add(fileName.substring(0, fileName.length() - DiaryStore.FILE_EXTENSION.length()));
+			}
+		}
+		Collections.sort(employeeIds);
+		return employeeIds;
+	}
+
+	/**Load-tests the diaries in a directory and prints the results.
+	 * @param args directory, target rate (requests per second, or 0 for as fast as possible),
+	 * then a seed and the number of requests to make a script from (default 10000), or a script
+	 * file to replay. The system properties {@code timeTracker.loadThreads} (default 64) and
+	 * {@code timeTracker.loadDurable} (default true) set the number of threads and whether changes
+	 * wait to be synced, and {@code timeTracker.loadScript} names a file to save a new script in.*/
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if (args.length < 3) {
+			System.out.println("Usage: loadtest directory rate seed [requests] | loadtest directory rate script-file");
+			return;
+		}
+		Path directory = Paths.get(args[0]);
+		double rate = Double.parseDouble(args[1]);
+		List<Request> script;
+		if (args[2].matches("-?\\d+")) {
+			List<String> employeeIds = employeeIdsIn(directory);
+			if (employeeIds.isEmpty()) {
+				System.out.println("No diaries in " + directory.toAbsolutePath());
+				return;
+			}
+			int count = args.length > 3 ? Integer.parseInt(args[3]) : 10000;
+			script = script(Long.parseLong(args[2]), employeeIds, count, DEFAULT_MIX);
+			String scriptFile = System.getProperty("timeTracker.loadScript");
+			if (scriptFile != null) {
+				write(script, Paths.get(scriptFile));
+			}
+		} else {
+			script = read(Paths.get(args[2]));
+		}
+		CUI.setMessages(false);
+		DiaryStore store = new DiaryStore(directory);
+		LoadDriver driver = new LoadDriver(store, Boolean.parseBoolean(System.getProperty("timeTracker.loadDurable", "true")));
+		Result result = driver.run(script, rate, Integer.getInteger("timeTracker.loadThreads", 64));
+		driver.close();
+		store.close();
+		result.print(System.out);
+	}
+}
@@ -0,0 +1,70 @@
+package com.github.sourzo.timeTracker;
+
+import java.lang.management.ManagementFactory;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**Latencies and sizes measured while the tracker runs, published as platform MBeans under
+ * {@link #DOMAIN} (one {@link HistogramMXBean} each) so they can be watched with jconsole.
+ * <P>Recording a value only updates {@link java.util.concurrent.atomic.LongAdder}s, so the 
+ * operations being measured don't lock or allocate anything extra.
+ * <P>The MBeans are only registered by {@link #publish()}, which the long-running modes call:
+ * starting the platform MBean server loads a few hundred classes, which would be most of the 
+ * time taken by a one-shot command (see {@link CUI#oneShot(String)}).*/
+final class Metrics {
+	//Static fields--------------------------------------------------------
+	static final String DOMAIN = "com.github.sourzo.timeTracker";
+
+	//Latencies, in microseconds
+	static final Histogram STAMP = new Histogram("us");
+	static final Histogram ADD_ACTIVITY = new Histogram("us");
+	static final Histogram SAVE = new Histogram("us");
+	static final Histogram LOAD = new Histogram("us");
+	static final Histogram BALANCE_TO_DATE = new Histogram("us");
+	static final Histogram GET_UNRECORDED_DAYS = new Histogram("us");
+	//Sizes
+	/**Bytes written by each save (the manifest and the months which had changed).*/
+	static final Histogram SAVE_BYTES = new Histogram("bytes");
+	/**Recorded days in each diary saved or loaded.*/
+	static final Histogram DIARY_DAYS = new Histogram("days");
+	/**Time stamps on each day written by a save.*/
+	static final Histogram STAMPS_PER_DAY = new Histogram("stamps");
+
+	private static boolean published = false;
+
+	private Metrics() {}
+
+	/**Registers the MBeans with the platform MBean server (once; later calls do nothing).*/
+	static synchronized void publish() {
+		if (published) {
+			return;
+		}
+		published = true;
+		register("Diary.stamp", STAMP);
+		register("Diary.addActivity", ADD_ACTIVITY);
+		register("Diary.save", SAVE);
+		register("Diary.load", LOAD);
+		register("Diary.balanceToDate", BALANCE_TO_DATE);
+		register("Diary.getUnrecordedDays", GET_UNRECORDED_DAYS);
+		register("SaveBytes", SAVE_BYTES);
+		register("DiaryDays", DIARY_DAYS);
+		register("StampsPerDay", STAMPS_PER_DAY);
+	}
+
+	static ObjectName objectName(String name) throws JMException {
+		return new ObjectName(DOMAIN + ":type=Metrics,name=" + name);
+	}
+
+	private static void register(String name, Histogram histogram) {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName objectName = objectName(name);
+			if (!server.isRegistered(objectName)) {
+				server.registerMBean(histogram, objectName);
+			}
+		} catch (JMException e) {
+			System.out.println(e);
+		}
+	}
+}
@@ -0,0 +1,286 @@
+package com.github.sourzo.timeTracker;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**Who was on site when, across the diaries in a {@link DiaryStore}, so that a fire marshal can
+ * see who is clocked in now (or was at any time since the index started) without going through
+ * everyone's diary.
+ * <P>For each day, the index holds the periods each employee was clocked in (from an IN to the
+ * next OUT, pairing stamps the way {@link WorkDay} does), plus the change in headcount at each
+ * minute. An IN with no OUT after it lasts to the end of the day, so anyone who hasn't clocked
+ * out counts as on site (until midnight: someone who forgot to clock out yesterday isn't on site
+ * today). When the stamps of a day change, that employee's periods on that day
+ * are replaced, so the index stays up to date without reading any diaries again.
+ * <P>Employees are numbered as they are first seen, so the periods are kept by int rather than ID.
+ * Nothing locks the whole index: each employee's periods on a day are replaced on their own and
+ * the headcount changes are atomic, so stamps from different employees (which the store makes
+ * under different locks) are indexed side by side. Queries share a copy of a day's periods
+ * sorted by start. When the day changes, the next query merges just the employees who changed
+ * into it, rather than sorting the whole day again; and the IDs are looked up without a lock.*/
+public class OccupancyIndex {
+	//Static fields--------------------------------------------------------
+	static final int MINUTES_PER_DAY = 24 * 60;
+	/**The length of the periods which {@link #headcounts(LocalDate)} counts in.*/
+	public static final int BUCKET_MINUTES = 15;
+
+	//Instance fields------------------------------------------------------
+	/**The first day indexed. Stamps on earlier days are ignored.*/
+	private final LocalDate start;
+	private final ConcurrentHashMap<String, Integer> employeeNumbers = new ConcurrentHashMap<>();
+	/**The ID of each employee number. Copied into a bigger array when full, and each ID is set 
+	 * before its number is handed out, so it can be read without a lock.*/
+	private volatile String[] employeeIds = new String[16];
+	/**Held while numbering a new employee (which is rare).*/
+	private final Object numbering = new Object();
+	/**The periods on each day, by epoch day.*/
+	private final ConcurrentHashMap<Long, Day> days = new ConcurrentHashMap<>();
+
+	/**The periods on one day.*/
+	private static class Day {
+		/**The periods of each employee number: the minute of the day each starts and ends 
+		 * (exclusive, or {@link #MINUTES_PER_DAY}) in turn, in order.*/
+		final ConcurrentHashMap<Integer, int[]> periods = new ConcurrentHashMap<>();
+		/**The change in headcount at each minute of the day (the last is the end of the day).*/
+		final AtomicIntegerArray deltas = new AtomicIntegerArray(MINUTES_PER_DAY + 1);
+		/**The number of times {@link #periods} has changed.*/
+		final AtomicLong changes = new AtomicLong();
+		/**The employees whose periods have changed since they were last merged into {@link #sorted}.*/
+		final Set<Integer> changed = ConcurrentHashMap.newKeySet();
+		/**The periods sorted for queries, as of some number of {@link #changes}.*/
+		volatile Sorted sorted = new Sorted(0, new long[0], 0);
+
+		/**Replaces the periods of {@code employee} with {@code minutes} (see {@link #periods}).
+		 * The new periods are counted before the old ones are taken away, so a headcount taken
+		 * meanwhile has someone twice rather than not at all.*/
+		void replace(int employee, int[] minutes) {
+			periods.compute(employee, (e, old) -> {
+				count(minutes, 1);
+				if (old != null) {
+					count(old, -1);
+				}
+				return minutes.length > 0 ? minutes : null;
+			});
+			changed.add(employee);
+			changes.incrementAndGet();
+		}
+
+		/**The periods sorted by start. If they have changed since they were last sorted, the 
+		 * periods of the employees who changed are sorted and merged with the rest (one query at 
+		 * a time, as each takes the changes it merges).*/
+		Sorted sorted() {
+			Sorted current = sorted;
+			if (current.version == changes.get()) {
+				return current;
+			}
+			synchronized (this) {
+				current = sorted;
+				long version = changes.get();
+				if (current.version == version) {
+					return current;
+				}
+				BitSet merged = new BitSet();
+				long[] added = new long[16];
+				int addedSize = 0;
+				for (Iterator<Integer> employees = changed.iterator(); employees.hasNext(); ) {
+					int employee = employees.next();
+					employees.remove();
+					merged.set(employee);
+					int[] minutes = periods.getOrDefault(employee, new int[0]);
+					for (int i = 0; i < minutes.length; i += 2) {
+						if (addedSize == added.length) {
+							added = Arrays.copyOf(added, addedSize * 2);
+						}
+						added[addedSize++] = key(minutes[i], minutes[i + 1], employee);
+					}
+				}
+				Arrays.sort(added, 0, addedSize);
+				long[] keys = new long[current.starts.length + addedSize];
+				int size = 0;
+				int next = 0;
+				for (int i = 0; i < current.starts.length; i++) {
+					if (merged.get(current.employees[i])) {
+						continue;
+					}
+					long key = key(current.starts[i], current.ends[i], current.employees[i]);
+					while (next < addedSize && added[next] < key) {
+						keys[size++] = added[next++];
+					}
+					keys[size++] = key;
+				}
+				while (next < addedSize) {
+					keys[size++] = added[next++];
+				}
+				current = new Sorted(version, keys, size);
+				sorted = current;
+				return current;
+			}
+		}
+
+		/**The start minute, end minute and employee number of a period, packed so that they sort by start.*/
+		private static long key(int start, int end, int employee) {
+			return (long) start << 43 | (long) end << 32 | employee;
+		}
+
+		private void count(int[] minutes, int change) {
+			for (int i = 0; i < minutes.length; i += 2) {
+				deltas.addAndGet(minutes[i], change);
+				deltas.addAndGet(minutes[i + 1], -change);
+			}
+		}
+	}
+
+	/**The periods on one day in three parallel arrays, sorted by the minute they start. Never
+	 * changed once made, so any number of queries can share one.*/
+	private static class Sorted {
+		final long version;
+		final int[] starts;
+		final int[] ends;
+		final int[] employees;
+
+		/**@param keys start minute, end minute and employee number of each period, packed into
+		 * bits 43, 32 and 0 on, in order*/
+		Sorted(long version, long[] keys, int size) {
+			this.version = version;
+			starts = new int[size];
+			ends = new int[size];
+			employees = new int[size];
+			for (int i = 0; i < size; i++) {
+				starts[i] = (int) (keys[i] >>> 43);
+				ends[i] = (int) (keys[i] >>> 32) & 0x7ff;
+				employees[i] = (int) keys[i];
+			}
+		}
+
+		/**The number of periods which start at or before {@code minute}.*/
+		int after(int minute) {
+			int low = 0;
+			int high = starts.length;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (starts[mid] <= minute) {
+					low = mid + 1;
+				} else {
+					high = mid;
+				}
+			}
+			return low;
+		}
+	}
+
+	//Constructors----------------------------------------------------------
+	/**@param start the first day to index*/
+	public OccupancyIndex(LocalDate start) {
+		this.start = start;
+	}
+
+	//Methods: get & set ---------------------------------------------------
+	public LocalDate getStart() {return start;}
+
+	//Methods: changing things ---------------------------------------------
+	/**Replaces the periods of {@code employeeId} on {@code day}'s date with those in its stamps.*/
+	public void update(String employeeId, WorkDay day) {
+		if (day.getDate().isBefore(start)) {
+			return;
+		}
+		int employee = number(employeeId);
+		int[] minutes = new int[day.stampCount() + 1];
+		int size = 0;
+		int in = -1;
+		for (int i = 0; i < day.stampCount(); i++) {
+			if (day.stampType(i) == StampType.IN && in < 0) {
+				in = day.stampMinute(i);
+			} else if (day.stampType(i) == StampType.OUT && in >= 0) {
+				minutes[size++] = in;
+				minutes[size++] = day.stampMinute(i);
+				in = -1;
+			}
+		}
+		if (in >= 0) {
+			minutes[size++] = in;
+			minutes[size++] = MINUTES_PER_DAY;
+		}
+		long epochDay = day.getDate().toEpochDay();
+		Day periods = size == 0 ? days.get(epochDay) : days.computeIfAbsent(epochDay, d -> new Day());
+		if (periods != null) {
+			periods.replace(employee, Arrays.copyOf(minutes, size));
+		}
+	}
+
+	/**The number of {@code employeeId}, numbering them if they haven't been seen before.*/
+	private int number(String employeeId) {
+		Integer employee = employeeNumbers.get(employeeId);
+		if (employee == null) {
+			synchronized (numbering) {
+				employee = employeeNumbers.computeIfAbsent(employeeId, id -> {
+					int number = employeeNumbers.size();
+					String[] ids = employeeIds;
+					if (number == ids.length) {
+						ids = Arrays.copyOf(ids, number * 2);
+					}
+					ids[number] = id;
+					employeeIds = ids;
+					return number;
+				});
+			}
+		}
+		return employee;
+	}
+
+	//Methods: descriptive -------------------------------------------------
+	private Day day(LocalDate date) {
+		if (date.isBefore(start)) {
+			throw new IllegalArgumentException("Occupancy is only indexed from " + start);
+		}
+		return days.get(date.toEpochDay());
+	}
+
+	/**The employees who were clocked in at {@code instant} (to the minute), in the order they arrived. 
+	 * Anyone with an IN and no OUT after it is counted until midnight that day.
+	 * @throws IllegalArgumentException if {@code instant} is before the start of the index*/
+	public List<String> presentAt(LocalDateTime instant) {
+		List<String> present = new ArrayList<>();
+		Day periods = day(instant.toLocalDate());
+		if (periods != null) {
+			int minute = instant.getHour() * 60 + instant.getMinute();
+			Sorted sorted = periods.sorted();
+			String[] ids = employeeIds;
+			for (int i = 0, end = sorted.after(minute); i < end; i++) {
+				if (sorted.ends[i] > minute) {
+					present.add(ids[sorted.employees[i]]);
+				}
+			}
+		}
+		return present;
+	}
+
+	/**The employees who are clocked in now.*/
+	public List<String> clockedIn() {
+		return presentAt(LocalDateTime.now());
+	}
+
+	/**The most people on site at once in each {@link #BUCKET_MINUTES} of {@code date}, from midnight.
+	 * @throws IllegalArgumentException if {@code date} is before the start of the index*/
+	public int[] headcounts(LocalDate date) {
+		int[] headcounts = new int[MINUTES_PER_DAY / BUCKET_MINUTES];
+		Day periods = day(date);
+		if (periods != null) {
+			int headcount = 0;
+			for (int minute = 0; minute < MINUTES_PER_DAY; minute++) {
+				headcount += periods.deltas.get(minute);
+				int bucket = minute / BUCKET_MINUTES;
+				headcounts[bucket] = Math.max(headcounts[bucket], headcount);
+			}
+		}
+		return headcounts;
+	}
+}
@@ -0,0 +1,209 @@
+package com.github.sourzo.timeTracker;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.Stream;
+
+/**Balance, overtime, activities and unrecorded days for every employee with a diary in a
+ * directory (as kept by {@link DiaryStore}), e.g. for payroll at the end of each month.
+ * <P>The diary files are split in half again and again into a fork-join tree, until each
+ * task has at most a few files to read. The results of the two halves of each split are
+ * then merged, so all the cores can read diaries at once.*/
+public class OrgReport {
+	//Static fields--------------------------------------------------------
+	/**The most diary files a task reads itself rather than splitting.*/
+	static final int THRESHOLD = 4;
+
+	//Instance fields------------------------------------------------------
+	private final LocalDate from;
+	private final LocalDate to;
+	private final TreeMap<String, Figures> employees = new TreeMap<>();
+	private final Figures totals = new Figures();
+	/**What went wrong with each diary which couldn't be read, by employee ID. They aren't in the totals.*/
+	private final TreeMap<String, Exception> failures = new TreeMap<>();
+
+	/**The figures for one employee, or the totals for several.*/
+	static class Figures {
+		/**Hours worked minus the hours expected.*/
+		long balanceMinutes;
+		/**Hours worked beyond the hours expected, on the days when there were any.*/
+		long overtimeMinutes;
+		int unrecordedDays;
+		/**Minutes recorded for each {@link ActivityType}, by ordinal.*/
+		final long[] activityMinutes = new long[ActivityType.values().length];
+
+		void add(Figures other) {
+			balanceMinutes += other.balanceMinutes;
+			overtimeMinutes += other.overtimeMinutes;
+			unrecordedDays += other.unrecordedDays;
+			for (int i = 0; i < activityMinutes.length; i++) {
+				activityMinutes[i] += other.activityMinutes[i];
+			}
+		}
+	}
+
+	//Constructors----------------------------------------------------------
+	private OrgReport(LocalDate from, LocalDate to) {
+		this.from = from;
+		this.to = to;
+	}
+
+	//Methods: get & set ---------------------------------------------------
+	public LocalDate getFrom() {return from;}
+	public LocalDate getTo() {return to;}
+	Map<String, Figures> getEmployees() {return employees;}
+	Figures getTotals() {return totals;}
+	Map<String, Exception> getFailures() {return failures;}
+
+	//Methods: other -------------------------------------------------------
+	/**Reports on the diaries in {@code directory} from {@code from} to {@code to} inclusive.
+	 * @param parallelism the number of threads to read diaries with*/
+	public static OrgReport run(Path directory, LocalDate from, LocalDate to, int parallelism) throws IOException {
+		return run(directory, from, to, parallelism, THRESHOLD);
+	}
+
+	static OrgReport run(Path directory, LocalDate from, LocalDate to, int parallelism, int threshold) throws IOException {
+		List<Path> files = new ArrayList<>();
+		try (Stream<Path> listing = Files.list(directory)) {
+			listing.filter(file -> file.getFileName().toString().endsWith(DiaryStore.FILE_EXTENSION)).forEach(files::add);
+		}
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			return pool.invoke(new ReportTask(files, 0, files.size(), from, to, threshold));
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**Works out the figures for one employee's diary (read without changing it: see {@link Diary#read(Path)}).
+	 * @throws IOException if the diary can't be read*/
+	static Figures employeeFigures(Path file, LocalDate from, LocalDate to) throws IOException {
+		Figures figures = new Figures();
+		Diary diary = Diary.read(file);
+		figures.balanceMinutes = diary.balanceBetween(from, to).toMinutes();
+		figures.unrecordedDays = diary.countUnrecordedDays(from, to);
+		ActivityType[] activities = ActivityType.values();
+		for (WorkDay day : diary.daysBetween(from, to)) {
+			figures.overtimeMinutes += Math.max(0, day.getMinutesWorked() - diary.expectedMinutes(day.getDate()));
+			for (int i = 0; i < activities.length; i++) {
+				long minutes = day.activityMinutes(activities[i]);
+				if (minutes > 0) {
+					figures.activityMinutes[i] += minutes;
+				}
+			}
+		}
+		return figures;
+	}
+
+	private void add(String employeeId, Figures figures) {
+		employees.put(employeeId, figures);
+		totals.add(figures);
+	}
+
+	private void merge(OrgReport other) {
+		employees.putAll(other.employees);
+		totals.add(other.totals);
+		failures.putAll(other.failures);
+	}
+
+	/**Prints the report as CSV (all times in minutes), ending with a line of totals.*/
+	public void print(PrintStream out) {
+		StringBuilder header = new StringBuilder("employee,balance,overtime,unrecorded days");
+		for (ActivityType activity : ActivityType.values()) {
+			header.append(',').append(activity.getLabel());
+		}
+		out.println(header);
+		for (Map.Entry<String, Figures> employee : employees.entrySet()) {
+			printLine(out, employee.getKey(), employee.getValue());
+		}
+		printLine(out, "TOTAL", totals);
+	}
+
+	private static void printLine(PrintStream out, String name, Figures figures) {
+		StringBuilder line = new StringBuilder(name);
+		line.append(',').append(figures.balanceMinutes);
+		line.append(',').append(figures.overtimeMinutes);
+		line.append(',').append(figures.unrecordedDays);
+		for (long minutes : figures.activityMinutes) {
+			line.append(',').append(minutes);
+		}
+		out.println(line);
+	}
+
+	/**Prints a report for a month (by default, this one) as CSV. Diaries which can't be read are 
+	 * listed on standard error, and the program then exits with status 1.
+	 * @param args directory of diary files (default "diaries"), month as YYYY-MM, and threads
+	 * (default: one per processor)*/
+	public static void main(String[] args) throws IOException {
+		Path directory = Paths.get(args.length > 0 ? args[0] : "diaries");
+		YearMonth month = args.length > 1 ? YearMonth.parse(args[1]) : YearMonth.now();
+		int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+		CUI.setMessages(false);
+		long start = System.nanoTime();
+		OrgReport report = run(directory, month.atDay(1), month.atEndOfMonth(), threads);
+		report.print(System.out);
+		System.err.println(report.employees.size() + " employees in " + (System.nanoTime() - start) / 1000000
+				+ "ms on " + threads + " threads");
+		for (Map.Entry<String, Exception> failure : report.failures.entrySet()) {
+			System.err.println("Not in the report: " + failure.getKey() + "\t" + failure.getValue());
+		}
+		if (!report.failures.isEmpty()) {
+			System.exit(1);
+		}
+	}
+
+	//Fork-join ------------------------------------------------------------
+	/**Reports on {@code files[start..end)}, splitting them in two if there are more than the threshold.*/
+	private static class ReportTask extends RecursiveTask<OrgReport> {
+		private static final long serialVersionUID = 1L;
+		private final List<Path> files;
+		private final int start;
+		private final int end;
+		private final LocalDate from;
+		private final LocalDate to;
+		private final int threshold;
+
+		ReportTask(List<Path> files, int start, int end, LocalDate from, LocalDate to, int threshold) {
+			this.files = files;
+			this.start = start;
+			this.end = end;
+			this.from = from;
+			this.to = to;
+			this.threshold = threshold;
+		}
+
+		@Override
+		protected OrgReport compute() {
+			if (end - start <= threshold) {
+				OrgReport report = new OrgReport(from, to);
+				for (Path file : files.subList(start, end)) {
+					String name = file.getFileName().toString();
+					String employeeId = name.substring(0, name.length() - DiaryStore.FILE_EXTENSION.length());
+					try {
+						report.add(employeeId, employeeFigures(file, from, to));
+					} catch (IOException | RuntimeException e) {
+						report.failures.put(employeeId, e);
+					}
+				}
+				return report;
+			}
+			int middle = (start + end) >>> 1;
+			ReportTask left = new ReportTask(files, start, middle, from, to, threshold);
+			left.fork();
+			OrgReport report = new ReportTask(files, middle, end, from, to, threshold).compute();
+			report.merge(left.join());
+			return report;
+		}
+	}
+}
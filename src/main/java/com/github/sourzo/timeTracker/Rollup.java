@@ -0,0 +1,85 @@
+package com.github.sourzo.timeTracker;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**Totals for a period of a {@link Diary} (an ISO week or a month): hours worked each day and
+ * altogether, time spent on each activity, and the balance. They are worked out once and
+ * kept by the diary until a day in the period changes (see {@link RollupCache}).*/
+public class Rollup {
+	//Instance fields------------------------------------------------------
+	private final LocalDate start;
+	private final LocalDate end;
+	/**Minutes worked on each day of the period, or -1 if the day isn't recorded.*/
+	private final int[] dayMinutes;
+	/**Minutes of each {@link ActivityType}, by ordinal.*/
+	private final long[] activityMinutes = new long[ActivityType.values().length];
+	private final long minutesWorked;
+	private final long balanceMinutes;
+	private final int daysRecorded;
+	/**The number of days whose stamps don't alternate between in and out (see {@link WorkDay#warnMissedStamps()}).*/
+	private final int missedStampDays;
+
+	//Constructors----------------------------------------------------------
+	/**@param days the recorded days from {@code start} to {@code end} inclusive
+	 * @param calendar the hours expected on each day*/
+	Rollup(LocalDate start, LocalDate end, Collection<WorkDay> days, WorkingCalendar calendar) {
+		this.start = start;
+		this.end = end;
+		dayMinutes = new int[(int) (end.toEpochDay() - start.toEpochDay() + 1)];
+		Arrays.fill(dayMinutes, -1);
+		ActivityType[] activities = ActivityType.values();
+		long worked = 0;
+		long expected = 0;
+		int missed = 0;
+		for (WorkDay day : days) {
+			dayMinutes[(int) (day.getDate().toEpochDay() - start.toEpochDay())] = day.getMinutesWorked();
+			worked += day.getMinutesWorked();
+			expected += calendar.expectedMinutes(day.getDate());
+			for (int i = 0; i < activities.length; i++) {
+				activityMinutes[i] += Math.max(0, day.activityMinutes(activities[i]));
+			}
+			if (day.hasMissedStamps()) {
+				missed++;
+			}
+		}
+		minutesWorked = worked;
+		daysRecorded = days.size();
+		balanceMinutes = worked - expected;
+		missedStampDays = missed;
+	}
+
+	//Methods: get & set ---------------------------------------------------
+	public LocalDate getStart() {return start;}
+	public LocalDate getEnd() {return end;}
+	public Duration getHoursWorked() {return Duration.ofMinutes(minutesWorked);}
+	public Duration getBalance() {return Duration.ofMinutes(balanceMinutes);}
+	public int getDaysRecorded() {return daysRecorded;}
+	public int getMissedStampDays() {return missedStampDays;}
+
+	/**@return the hours worked on {@code date}, or null if nothing was recorded that day
+	 * @throws IllegalArgumentException if {@code date} isn't in this period*/
+	public Duration getHoursWorked(LocalDate date) {
+		if (date.isBefore(start) || date.isAfter(end)) {
+			throw new IllegalArgumentException(date + " is not between " + start + " and " + end);
+		}
+		int minutes = dayMinutes[(int) (date.toEpochDay() - start.toEpochDay())];
+		return minutes < 0 ? null : Duration.ofMinutes(minutes);
+	}
+
+	/**Time spent on each activity which was recorded in the period.*/
+	public Map<ActivityType, Duration> getActivities() {
+		Map<ActivityType, Duration> activities = new EnumMap<>(ActivityType.class);
+		for (ActivityType activity : ActivityType.values()) {
+			if (activityMinutes[activity.ordinal()] > 0) {
+				activities.put(activity, Duration.ofMinutes(activityMinutes[activity.ordinal()]));
+			}
+		}
+		return Collections.unmodifiableMap(activities);
+	}
+}
@@ -0,0 +1,74 @@
+package com.github.sourzo.timeTracker;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**The most recently used {@link Rollup}s of a {@link Diary}, so that paging back and forth
+ * through weeks or months doesn't add up the same days again.
+ * <P>Weeks are keyed by their Monday ({@link LocalDate}) and months by {@link YearMonth}. The
+ * diary calls {@link #invalidate(LocalDate)} whenever a day changes, which drops the week and
+ * the month containing it. Once {@link #capacity} rollups are held, the least recently used
+ * one is dropped to make room.*/
+class RollupCache {
+	//Static fields--------------------------------------------------------
+	static final int DEFAULT_CAPACITY = 64;
+
+	//Instance fields------------------------------------------------------
+	private final int capacity;
+	private final LinkedHashMap<Object, Rollup> rollups;
+	private long hits = 0;
+	private long misses = 0;
+
+	//Constructors----------------------------------------------------------
+	RollupCache(int capacity) {
+		this.capacity = capacity;
+		rollups = new LinkedHashMap<Object, Rollup>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Object, Rollup> eldest) {
+				return size() > RollupCache.this.capacity;
+			}
+		};
+	}
+
+	//Methods: get & set ---------------------------------------------------
+	long getHits() {return hits;}
+	long getMisses() {return misses;}
+	int size() {return rollups.size();}
+
+	/**The Monday of the ISO week containing {@code date}, which is the week's key.*/
+	static LocalDate weekStart(LocalDate date) {
+		return date.with(DayOfWeek.MONDAY);
+	}
+
+	//Methods: other -------------------------------------------------------
+	/**@return the cached rollup for a week's Monday or a {@link YearMonth}, or null*/
+	Rollup get(Object key) {
+		Rollup rollup = rollups.get(key);
+		if (rollup == null) {
+			misses++;
+		} else {
+			hits++;
+		}
+		return rollup;
+	}
+
+	void put(Object key, Rollup rollup) {
+		rollups.put(key, rollup);
+	}
+
+	/**Drops the week and the month which contain {@code date}.*/
+	void invalidate(LocalDate date) {
+		if (!rollups.isEmpty()) {
+			rollups.remove(weekStart(date));
+			rollups.remove(YearMonth.from(date));
+		}
+	}
+
+	void clear() {
+		rollups.clear();
+	}
+}
@@ -0,0 +1,259 @@
+package com.github.sourzo.timeTracker;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.DateTimeException;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**A small HTTP server (using the JDK's built-in {@link HttpServer}) so that badge readers and
+ * kiosks can record clockings without going through the menus in {@link CUI}.
+ * <P>Endpoints (the first three take the employee ID as the {@code employee} parameter):
+ * <UL>
+ * <LI>{@code POST /stamp?employee=..&type=IN|OUT} - clock in or out now
+ * <LI>{@code POST /activity?employee=..&activity=SICK&minutes=90} - add an activity for today, of 1 to
+ * {@value #MAX_ACTIVITY_MINUTES} minutes
+ * <LI>{@code GET /balance?employee=..[&from=YYYY-MM-DD][&to=YYYY-MM-DD]} - balance in minutes
+ * (from the start of the diary, to today, unless given), from a {@link DiarySnapshot} so that it
+ * doesn't hold up the employee's stamps
+ * <LI>{@code GET /onsite[?at=YYYY-MM-DDTHH:MM]} - the employees clocked in (now, unless given),
+ * one per line in the order they arrived. Someone who clocked in and hasn't clocked out is listed
+ * until midnight that day, as they may just have forgotten to clock out
+ * <LI>{@code GET /headcount[?date=YYYY-MM-DD]} - the most people on site in each quarter of an
+ * hour of the day (today, unless given), one {@code HH:MM count} per line
+ * </UL>
+ * The last two use the store's {@link OccupancyIndex}, which {@link #main(String[])} builds from
+ * the last {@value #OCCUPANCY_DAYS} days (or the {@code timeTracker.occupancyDays} system property).
+ * Changes are journalled straight away, and made durable by a {@link GroupCommitter}, so
+ * requests which arrive together share one disk sync. Each request is handled on a virtual
+ * thread when the JVM supports them, otherwise on a pooled thread.*/
+public class StampServer {
+	//Static fields--------------------------------------------------------
+	/**The number of days before today which {@link #main(String[])} indexes occupancy for.*/
+	static final int OCCUPANCY_DAYS = 31;
+	/**The longest activity which can be added in one request (a whole day).*/
+	static final int MAX_ACTIVITY_MINUTES = 24 * 60;
+
+	//Instance fields------------------------------------------------------
+	private final DiaryStore store;
+	private final HttpServer server;
+	private final ExecutorService executor;
+	private final GroupCommitter committer;
+
+	//Constructors----------------------------------------------------------
+	public StampServer(DiaryStore store, InetSocketAddress address) throws IOException {
+		this.store = store;
+		this.committer = new GroupCommitter(store);
+		this.executor = newRequestExecutor();
+		server = HttpServer.create(address, 1024);
+		server.setExecutor(executor);
+		server.createContext("/stamp", new Handler("POST") {
+			@Override
+			String handle(String employeeId, Map<String, String> params) throws Exception {
+				StampType inOrOut = StampType.valueOf(required(params, "type").toUpperCase());
+				LocalTime time = store.withDiary(employeeId, diary -> diary.stamp(inOrOut));
+				committer.commit(employeeId).get();
+				return inOrOut + " " + time;
+			}
+		});
+		server.createContext("/activity", new Handler("POST") {
+			@Override
+			String handle(String employeeId, Map<String, String> params) throws Exception {
+				ActivityType activity = ActivityType.valueOf(required(params, "activity").toUpperCase());
+				long minutes = Long.parseLong(required(params, "minutes"));
+				if (minutes < 1 || minutes > MAX_ACTIVITY_MINUTES) {
+					throw new IllegalArgumentException("minutes must be from 1 to " + MAX_ACTIVITY_MINUTES);
+				}
+				Duration duration = Duration.ofMinutes(minutes);
+				store.addActivity(employeeId, activity, duration);
+				committer.commit(employeeId).get();
+				return activity + " " + duration.toMinutes();
+			}
+		});
+		server.createContext("/balance", new Handler("GET") {
+			@Override
+			String handle(String employeeId, Map<String, String> params) {
+				DiarySnapshot diary = store.snapshot(employeeId);
+				LocalDate from = params.containsKey("from") ? LocalDate.parse(params.get("from")) : diary.getStartDate();
+				LocalDate to = params.containsKey("to") ? LocalDate.parse(params.get("to")) : LocalDate.now();
+				return String.valueOf(diary.balanceToDate(from, to).toMinutes());
+			}
+		});
+		server.createContext("/onsite", new Handler("GET", false) {
+			@Override
+			String handle(String employeeId, Map<String, String> params) {
+				LocalDateTime at = params.containsKey("at") ? LocalDateTime.parse(params.get("at")) : LocalDateTime.now();
+				return String.join("\n", occupancy().presentAt(at));
+			}
+		});
+		server.createContext("/headcount", new Handler("GET", false) {
+			@Override
+			String handle(String employeeId, Map<String, String> params) {
+				LocalDate date = params.containsKey("date") ? LocalDate.parse(params.get("date")) : LocalDate.now();
+				int[] headcounts = occupancy().headcounts(date);
+				StringBuilder body = new StringBuilder();
+				for (int i = 0; i < headcounts.length; i++) {
+					body.append(i > 0 ? "\n" : "").append(LocalTime.MIDNIGHT.plusMinutes(i * OccupancyIndex.BUCKET_MINUTES))
+							.append(' ').append(headcounts[i]);
+				}
+				return body.toString();
+			}
+		});
+	}
+
+	/**Uses a virtual thread per request if this JVM has them (Java 21+), otherwise a cached thread pool.*/
+	private static ExecutorService newRequestExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return Executors.newCachedThreadPool();
+		}
+	}
+
+	private OccupancyIndex occupancy() {
+		OccupancyIndex occupancy = store.getOccupancy();
+		if (occupancy == null) {
+			throw new IllegalStateException("Occupancy isn't being indexed");
+		}
+		return occupancy;
+	}
+
+	//Methods: other -------------------------------------------------------
+	public void start() {
+		server.start();
+	}
+
+	/**Stops taking requests, waits for those in progress, then makes sure everything is on disk.*/
+	public void stop() throws InterruptedException {
+		server.stop(1);
+		executor.shutdown();
+		executor.awaitTermination(10, TimeUnit.SECONDS);
+		committer.close();
+		store.close();
+	}
+
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	/**Number of disk syncs shared by the requests so far.*/
+	long getCommitGroups() {
+		return committer.getGroupCount();
+	}
+
+	/**Runs the server until the program is stopped.
+	 * @param args port (default 8080) and directory of diary files (default "diaries")*/
+	public static void main(String[] args) throws IOException {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+		Path directory = Paths.get(args.length > 1 ? args[1] : "diaries");
+		Files.createDirectories(directory);
+		CUI.setMessages(false);
+		Metrics.publish();
+		DiaryStore store = new DiaryStore(directory);
+		store.indexOccupancy(LocalDate.now().minusDays(Integer.getInteger("timeTracker.occupancyDays", OCCUPANCY_DAYS)));
+		StampServer stampServer = new StampServer(store, new InetSocketAddress(port));
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			try {
+				stampServer.stop();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}));
+		stampServer.start();
+		System.out.println("Listening on port " + stampServer.getPort() + ", diaries in " + directory.toAbsolutePath());
+	}
+
+	//Request handling -----------------------------------------------------
+	private static String required(Map<String, String> params, String name) {
+		String value = params.get(name);
+		if (value == null) {
+			throw new IllegalArgumentException("Missing parameter: " + name);
+		}
+		return value;
+	}
+
+	private static Map<String, String> parseQuery(String query) throws UnsupportedEncodingException {
+		Map<String, String> params = new HashMap<>();
+		if (query != null) {
+			for (String pair : query.split("&")) {
+				int equals = pair.indexOf('=');
+				if (equals > 0) {
+					params.put(URLDecoder.decode(pair.substring(0, equals), "UTF-8"),
+							URLDecoder.decode(pair.substring(equals + 1), "UTF-8"));
+				}
+			}
+		}
+		return params;
+	}
+
+	/**Checks the method and employee ID, and turns exceptions into error responses.*/
+	private abstract static class Handler implements HttpHandler {
+		private final String method;
+		private final boolean needsEmployee;
+
+		Handler(String method) {
+			this(method, true);
+		}
+
+		Handler(String method, boolean needsEmployee) {
+			this.method = method;
+			this.needsEmployee = needsEmployee;
+		}
+
+		/**@param employeeId the {@code employee} parameter, or null if it isn't needed*/
+		abstract String handle(String employeeId, Map<String, String> params) throws Exception;
+
+		@Override
+		public void handle(HttpExchange exchange) throws IOException {
+			int status = 200;
+			String body;
+			try {
+				if (!exchange.getRequestMethod().equals(method)) {
+					status = 405;
+					body = "Use " + method;
+				} else {
+					Map<String, String> params = parseQuery(exchange.getRequestURI().getRawQuery());
+					body = handle(needsEmployee ? required(params, "employee") : null, params);
+				}
+			} catch (IllegalArgumentException | DateTimeException e) {
+				status = 400;
+				body = e.getMessage();
+			} catch (ExecutionException e) {
+				status = 500;
+				body = "Not saved: " + e.getCause();
+			} catch (UncheckedIOException e) {
+				status = 500;
+				body = (method.equals("POST") ? "Not saved: " : "") + e.getCause();
+			} catch (Exception e) {
+				status = 500;
+				body = e.toString();
+			}
+			byte[] bytes = (body + "\n").getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+			exchange.sendResponseHeaders(status, bytes.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(bytes);
+			}
+		}
+	}
+}
@@ -1,9 +1,16 @@
 package com.github.sourzo.timeTracker;
 
+import java.time.DateTimeException;
 import java.time.Duration;
+import java.time.LocalDate;
 import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.ResolverStyle;
 
 public class TimeAndDate {
+	/**DD/MM/YYYY (also single-digit day/month).*/
+	private static final DateTimeFormatter DATE = DateTimeFormatter.ofPattern("d/M/uuuu").withResolverStyle(ResolverStyle.STRICT);
+
 	/**Get the time right now, ignoring seconds and nanoseconds. Prints out in the format HH:mm.*/
 	public static LocalTime timeNow() {
 		LocalTime now = LocalTime.now();
@@ -17,6 +24,15 @@ public class TimeAndDate {
 		return time;
 	}
 	
+	/**@return the date in {@code text} (DD/MM/YYYY), or null if it isn't one*/
+	static LocalDate parseDate(String text) {
+		try {
+			return LocalDate.parse(text, DATE);
+		} catch (DateTimeException e) {
+			return null;
+		}
+	}
+	
 	public static String parseDuration(Duration dur) {
         long hours = dur.toHours();
         Duration remainder = dur.minusHours(hours);
@@ -1,40 +1,150 @@
 package com.github.sourzo.timeTracker;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 import java.time.Duration;
 import java.time.LocalDate;
 import java.time.LocalTime;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
 import java.util.TreeMap;
 
 
+/**The clockings and activities recorded for one day.
+ * <P>To keep the memory used by a diary with years of history down, everything is stored 
+ * as primitive minute counts: the time stamps as a sorted {@code short[]}, the activities as a 
+ * {@code long[]} indexed by {@link ActivityType#ordinal()}, and the time worked as an {@code int}. 
+ * {@link #getTimeStamps()} and {@link #getActivities()} give read-only map views of these.
+ * Times and durations are recorded to the minute (as {@link TimeAndDate#timeNow()} does); any 
+ * seconds are dropped.*/
 public class WorkDay implements Serializable {
 	//Static fields--------------------------------------------------------
 	private static final long serialVersionUID = 1L;
+	/**Keeps the serialized form the same as before the fields were packed, so that diaries 
+	 * saved with Java serialization can still be read (see {@link Diary#load(String)}).*/
+	private static final ObjectStreamField[] serialPersistentFields = {
+			new ObjectStreamField("date", LocalDate.class),
+			new ObjectStreamField("timeStamps", TreeMap.class),
+			new ObjectStreamField("activities", HashMap.class),
+			new ObjectStreamField("hoursWorked", Duration.class),
+			new ObjectStreamField("warnings", boolean.class)};
+	private static final short[] NO_STAMPS = new short[0];
+	/**Value in {@link #activities} for an activity which hasn't been recorded.*/
+	private static final long NOT_RECORDED = -1;
+	/**Bits of {@link #getAnomalies()}: the first stamp is OUT.*/
+	static final int STARTS_WITH_OUT = 1;
+	/**Bits of {@link #getAnomalies()}: a stamp is the same type as the one before it (IN-IN or OUT-OUT).*/
+	static final int REPEATED_STAMP = 2;
+	/**Bits of {@link #getAnomalies()}: the last stamp is IN.*/
+	static final int STILL_CLOCKED_IN = 4;
 	
 	//Instance Fields----------------------------------------------------------------
-	/**The date for this record.*/
-	private final LocalDate date;
-	/**Set of all in/out time stamps recorded by the user for the day.*/
-	private TreeMap<LocalTime, StampType> timeStamps = new TreeMap<>();
-	/**Set of all activities (added by the user) which count towards the working day's time total. 
-	 * For example: 7h annual leave, or 3h training.*/
-	private HashMap<ActivityType, Duration> activities = new HashMap<>();
-	/**The number of hours worked for the day.*/
-	private Duration hoursWorked = Duration.ofHours(0);
+	/**The date for this record. (Not final only so that it can be set by {@link #readObject(ObjectInputStream)}.)*/
+	private LocalDate date;
+	/**All in/out time stamps recorded by the user for the day, in time order. Each is stored as 
+	 * {@code minuteOfDay << 1}, plus 1 if it is a clock OUT. Only the first {@link #stampCount} are used.*/
+	private short[] stamps = NO_STAMPS;
+	private int stampCount = 0;
+	/**Minutes recorded for each activity (added by the user) which counts towards the working day's 
+	 * time total, indexed by {@link ActivityType#ordinal()}; {@link #NOT_RECORDED} if the activity isn't 
+	 * recorded. For example: 7h annual leave, or 3h training. Null if there are no activities.*/
+	private long[] activities;
+	/**The number of minutes worked for the day: {@link #stampMinutes} + {@link #activityMinutes}.*/
+	private int minutesWorked = 0;
+	/**Running total of the minutes worked according to the time stamps (see {@link #timeStampsTotal()}).*/
+	private transient int stampMinutes = 0;
+	/**Running total of the minutes recorded for activities (see {@link #activitiesTotal()}).*/
+	private transient int activityMinutes = 0;
+	/**The number of stamps which are the same type as the stamp before them.*/
+	private transient int repeatedStamps = 0;
+	/**What is wrong with the stamps ({@link #STARTS_WITH_OUT} etc.), worked out after each change to them.*/
+	private transient int anomalies = 0;
 	/**Whether to print warnings to the console.*/
 	private boolean warnings = true;
+	/**Told about every change to this day (used by {@link Diary} to journal changes).*/
+	private transient WorkDayListener listener;
 	//Constructors----------------------------------------------------------
 	public WorkDay(LocalDate date)
 	{
 		this.date = date;
 	}
+	/**A copy of {@code other}, without its listener (e.g. for a {@link DiarySnapshot}).*/
+	WorkDay(WorkDay other)
+	{
+		this.date = other.date;
+		this.stamps = other.stampCount == 0 ? NO_STAMPS : Arrays.copyOf(other.stamps, other.stampCount);
+		this.stampCount = other.stampCount;
+		this.activities = other.activities == null ? null : other.activities.clone();
+		this.minutesWorked = other.minutesWorked;
+		this.stampMinutes = other.stampMinutes;
+		this.activityMinutes = other.activityMinutes;
+		this.repeatedStamps = other.repeatedStamps;
+		this.anomalies = other.anomalies;
+		this.warnings = other.warnings;
+	}
 	//Simple getters ----------------------------------------------------------
 	public LocalDate getDate() {return date;}
-	public TreeMap<LocalTime, StampType> getTimeStamps() {return timeStamps;}
-	public HashMap<ActivityType, Duration> getActivities() {return activities;}
-	public Duration getHoursWorked() {warnMissedStamps(); return hoursWorked;} //add optional boolean for warning?
+	/**A read-only view of the time stamps, in time order.*/
+	public Map<LocalTime, StampType> getTimeStamps() {return new TimeStampsView();}
+	/**A read-only view of the activities.*/
+	public Map<ActivityType, Duration> getActivities() {return new ActivitiesView();}
+	public Duration getHoursWorked() {return Duration.ofMinutes(minutesWorked);}
+	/**@param warn whether to print warnings about missed stamps (see {@link #warnMissedStamps()})*/
+	public Duration getHoursWorked(boolean warn) {
+		if (warn) {
+			warnMissedStamps();
+		}
+		return Duration.ofMinutes(minutesWorked);
+	}
+	int getMinutesWorked() {return minutesWorked;}
+	/**Which of {@link #STARTS_WITH_OUT}, {@link #REPEATED_STAMP} and {@link #STILL_CLOCKED_IN} apply to the stamps.*/
+	int getAnomalies() {return anomalies;}
+	int stampCount() {return stampCount;}
+	/**Minute of the day of the {@code i}th stamp.*/
+	int stampMinute(int i) {return stamps[i] >> 1;}
+	StampType stampType(int i) {return (stamps[i] & 1) == 0 ? StampType.IN : StampType.OUT;}
+	/**Minutes recorded for {@code activity}, or -1 if it hasn't been recorded.*/
+	long activityMinutes(ActivityType activity) {
+		return activities == null ? NOT_RECORDED : activities[activity.ordinal()];
+	}
+	void setListener(WorkDayListener listener) {this.listener = listener;}
+	
+	//Methods: packing ---------------------------------------------------------
+	private static int minuteOf(LocalTime time) {
+		return time.getHour() * 60 + time.getMinute();
+	}
+	
+	private static LocalTime timeOf(int minuteOfDay) {
+		return LocalTime.of(minuteOfDay / 60, minuteOfDay % 60);
+	}
+	
+	/**Index of the stamp at {@code minuteOfDay}, or {@code -(insertion point) - 1} if there isn't one.*/
+	private int indexOf(int minuteOfDay) {
+		int low = 0;
+		int high = stampCount - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int midMinute = stamps[mid] >> 1;
+			if (midMinute < minuteOfDay) {
+				low = mid + 1;
+			} else if (midMinute > minuteOfDay) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -(low + 1);
+	}
+	
 	//Methods: descriptive -------------------------------------------------------
 	//Note: Nothing in this section should change the fields of this instance.
 
@@ -43,46 +153,56 @@ public class WorkDay implements Serializable {
 	 * The second one will be ignored. If the last clocking is IN then you've missed a time stamp 
 	 * (well, not clocked out yet). This will be ignored.*/
 	Duration timeStampsTotal() {
-		if (timeStamps.isEmpty()) {
-			return Duration.ofHours(0);
-		} else {
-			StampType inOrOut = StampType.OUT;
-			Duration tsTotal = Duration.ofHours(0);
-			LocalTime intervalStart = null; 
-			for (Map.Entry<LocalTime, StampType> stamp : timeStamps.entrySet()) {
-				if (stamp.getValue() != inOrOut) {
-					inOrOut = stamp.getValue();
-					if (stamp.getValue() == StampType.IN) {
-						intervalStart = stamp.getKey();
-					} else if (stamp.getValue() == StampType.OUT){
-						tsTotal = tsTotal.plus(Duration.between(intervalStart, stamp.getKey()));
-					}
-				} //ignore repeated StampType: IN-IN or OUT-OUT
-			}
-			//if last stamp-type is IN then it will be ignored.
-			return tsTotal;
+		return Duration.ofMinutes(timeStampMinutes(0, stampCount));
+	}
+	
+	/**The minutes worked between the stamps {@code from} (inclusive) and {@code to} (exclusive), 
+	 * treating the stamp before {@code from} as OUT. Used with {@code from} at the start of a run 
+	 * of stamps of the same type, this is the part of {@link #timeStampsTotal()} which belongs to 
+	 * the stamps in the range.*/
+	private int timeStampMinutes(int from, int to) {
+		int inOrOut = 1; //OUT
+		int total = 0;
+		int intervalStart = 0;
+		for (int i = from; i < to; i++) {
+			int type = stamps[i] & 1;
+			if (type != inOrOut) {
+				inOrOut = type;
+				if (type == 0) {
+					intervalStart = stamps[i] >> 1;
+				} else {
+					total += (stamps[i] >> 1) - intervalStart;
+				}
+			} //ignore repeated StampType: IN-IN or OUT-OUT
 		}
+		//if last stamp-type is IN then it will be ignored.
+		return total;
 	}
 
 	Duration activitiesTotal() {
-		if (activities.isEmpty()) {
-			return Duration.ofHours(0);
-		} else {
-			Duration total = Duration.ofHours(0);
-			for (Map.Entry<ActivityType, Duration> activity : activities.entrySet()) {
-				total = total.plus(activity.getValue());
+		return Duration.ofMinutes(sumActivityMinutes());
+	}
+	
+	private int sumActivityMinutes() {
+		int total = 0;
+		if (activities != null) {
+			for (long minutes : activities) {
+				if (minutes != NOT_RECORDED) {
+					total += minutes;
+				}
 			}
-			return total;
 		}
+		return total;
 	}
 	
 	/**Prints out the hours worked, broken down by activity type plus total from clockings.*/
 	public void displaySummary() { //TODO Work out how to make this an @override toString()
 		System.out.println(date.toString());
-		for (LocalTime time : timeStamps.keySet()) {
+		warnMissedStamps();
+		for (int i = 0; i < stampCount; i++) {
 			System.out.println("Hours clocked: " + timeStampsTotal());
 		}
-		for (Map.Entry<ActivityType, Duration> activity : activities.entrySet()) {
+		for (Map.Entry<ActivityType, Duration> activity : getActivities().entrySet()) {
 			System.out.println(activity.getKey() + " " + activity.getValue().toHours() + " hours");
 		}
 		System.out.println("Hours Worked: " + this.getHoursWorked().toHours() + "; ");
@@ -92,10 +212,11 @@ public class WorkDay implements Serializable {
 	/**Prints out the clockings and activities for the day, and the total number of hours worked.*/
 	public void displayDetails() { //TODO Work out how to make this an @override toString()
 		System.out.println(date.toString());
-		for (LocalTime time : timeStamps.keySet()) {
-			System.out.println(timeStamps.get(time).toString() + ": " + time.toString() +  "; ");
+		warnMissedStamps();
+		for (int i = 0; i < stampCount; i++) {
+			System.out.println(stampType(i).toString() + ": " + timeOf(stampMinute(i)).toString() +  "; ");
 		}
-		for (Map.Entry<ActivityType, Duration> activity : activities.entrySet()) {
+		for (Map.Entry<ActivityType, Duration> activity : getActivities().entrySet()) {
 			System.out.println(activity.getKey() + " " + activity.getValue().toHours() + " hours");
 		}
 		System.out.println("Hours Worked: " + this.getHoursWorked().toHours() + "; ");
@@ -104,30 +225,118 @@ public class WorkDay implements Serializable {
 
 
 	//Methods: changing things -----------------------------------------------------
-	//Note everything here should apply recalculateHoursWorked()
+	//Note everything here should keep minutesWorked up to date
 	
 	/**Calculates the number of hours which count towards the "working hours" total for this day, 
-	 * and updates the {@link #hoursWorked} value. The calculation is the sum of the duration of 
+	 * and updates the {@link #minutesWorked} value. The calculation is the sum of the duration of 
 	 * recorded activities (see {@link #activitiesTotal()}) and the sum of all valid clockings (see
 	 * {@link #timeStampsTotal()})
-	 * @return the updated value for {@link #hoursWorked}*/
+	 * <P>Changes to the day keep the total up to date as they go, so this isn't needed after them.
+	 * @return the updated number of hours worked*/
 	public Duration recalculateHoursWorked() {
-		hoursWorked = this.activitiesTotal().plus(this.timeStampsTotal());
-		return hoursWorked;
+		stampMinutes = timeStampMinutes(0, stampCount);
+		activityMinutes = sumActivityMinutes();
+		repeatedStamps = 0;
+		for (int i = 1; i < stampCount; i++) {
+			repeatedStamps += repeats(i);
+		}
+		updateAnomalies();
+		hoursChanged();
+		return Duration.ofMinutes(minutesWorked);
+	}
+	
+	private void hoursChanged() {
+		minutesWorked = stampMinutes + activityMinutes;
+		if (listener != null) {
+			listener.hoursChanged(this);
+		}
+	}
+	
+	/**1 if stamp {@code i} is the same type as the stamp before it, otherwise 0.*/
+	private int repeats(int i) {
+		return i > 0 && i < stampCount && (stamps[i] & 1) == (stamps[i - 1] & 1) ? 1 : 0;
+	}
+	
+	private void updateAnomalies() {
+		anomalies = 0;
+		if (stampCount > 0) {
+			if ((stamps[0] & 1) == 1) {
+				anomalies |= STARTS_WITH_OUT;
+			}
+			if (repeatedStamps > 0) {
+				anomalies |= REPEATED_STAMP;
+			}
+			if ((stamps[stampCount - 1] & 1) == 0) {
+				anomalies |= STILL_CLOCKED_IN;
+			}
+		}
+	}
+	
+	/**Start of the run of stamps of the same type (IN-IN... or OUT-OUT...) which includes stamp {@code i}.*/
+	private int runStart(int i) {
+		if (i < 0) {
+			return 0;
+		}
+		while (i > 0 && (stamps[i - 1] & 1) == (stamps[i] & 1)) {
+			i--;
+		}
+		return i;
+	}
+	
+	/**The first stamp after {@code i} which is an IN following an OUT (or {@link #stampCount} if there 
+	 * isn't one). The minutes counted for stamps from here on don't depend on anything before it.*/
+	private int nextIntervalStart(int i) {
+		int j = i + 1;
+		while (j < stampCount && !((stamps[j] & 1) == 0 && (stamps[j - 1] & 1) == 1)) {
+			j++;
+		}
+		return Math.min(j, stampCount);
 	}
 	
 	/**Adds a new time stamp to the set of time stamps.
 	 * Note that this will replace an existing stamp if it is already in the dataset, 
-	 * but only if it is exactly the same time. */
+	 * but only if it is exactly the same time (to the minute). 
+	 * <P>Only the stamps next to the new one are looked at to update the hours worked and the missed stamps.*/
 	public void addTimeStamp(LocalTime time, StampType inOrOut) {
-		timeStamps.put(time, inOrOut);
-		this.recalculateHoursWorked();
+		time = TimeAndDate.time(time);
+		int minuteOfDay = minuteOf(time);
+		short packed = (short) (minuteOfDay << 1 | (inOrOut == StampType.OUT ? 1 : 0));
+		int index = indexOf(minuteOfDay);
+		if (index >= 0) {
+			int from = runStart(index - 1);
+			int to = nextIntervalStart(index + 1);
+			int before = timeStampMinutes(from, to);
+			repeatedStamps -= repeats(index) + repeats(index + 1);
+			stamps[index] = packed;
+			repeatedStamps += repeats(index) + repeats(index + 1);
+			stampMinutes += timeStampMinutes(from, to) - before;
+		} else {
+			index = -index - 1;
+			int from = runStart(index - 1);
+			int to = nextIntervalStart(index);
+			int before = timeStampMinutes(from, to);
+			repeatedStamps -= repeats(index);
+			if (stampCount == stamps.length) {
+				stamps = Arrays.copyOf(stamps, Math.max(4, stampCount * 2));
+			}
+			System.arraycopy(stamps, index, stamps, index + 1, stampCount - index);
+			stamps[index] = packed;
+			stampCount++;
+			repeatedStamps += repeats(index) + repeats(index + 1);
+			stampMinutes += timeStampMinutes(from, to + 1) - before;
+		}
+		updateAnomalies();
+		hoursChanged();
+		if (listener != null) {
+			listener.timeStampAdded(this, time, inOrOut);
+		}
 	}
 	
 	/**Decides if Stamp Type should be IN or OUT, then runs {@link #addTimeStamp(LocalTime, StampType)}.*/
 	public void addTimeStamp(LocalTime time) {
-		Map.Entry<LocalTime, StampType> lastStamp = timeStamps.lowerEntry(time);
-		if (lastStamp == null || lastStamp.getValue() == StampType.OUT) {
+		int index = indexOf(minuteOf(time));
+		int lastStamp = (index >= 0 ? index : -index - 1) - 1;
+		if (lastStamp < 0 || stampType(lastStamp) == StampType.OUT) {
 			//First clocking or previous clocking was OUT: assume IN
 			addTimeStamp(time, StampType.IN);
 		} else {
@@ -137,34 +346,65 @@ public class WorkDay implements Serializable {
 	}
 	
 	public void removeTimeStamp(LocalTime time) {
-		if (timeStamps.containsKey(time)) {
-			timeStamps.remove(time);
+		time = TimeAndDate.time(time);
+		int index = indexOf(minuteOf(time));
+		if (index >= 0) {
+			int from = runStart(index - 1);
+			int to = nextIntervalStart(index + 1);
+			int before = timeStampMinutes(from, to);
+			repeatedStamps -= repeats(index) + repeats(index + 1);
+			System.arraycopy(stamps, index + 1, stamps, index, stampCount - index - 1);
+			stampCount--;
+			repeatedStamps += repeats(index);
+			stampMinutes += timeStampMinutes(from, to - 1) - before;
+			updateAnomalies();
+			hoursChanged();
+			if (listener != null) {
+				listener.timeStampRemoved(this, time);
+			}
 		} else CUI.warn("Time stamp not recorded on this day. Nothing to remove.");
 	}
 	
 	/**Adds a new activity to the set of activities for the day, or updates an 
 	 * existing activity by increasing by the value {@code duration}*/
 	public void addActivity(ActivityType activity, Duration duration) {
-		if (activities.containsKey(activity)) {
-			activities.put(activity, activities.get(activity).plus(duration));
+		if (activities == null) {
+			activities = new long[ActivityType.values().length];
+			Arrays.fill(activities, NOT_RECORDED);
+		}
+		int a = activity.ordinal();
+		if (activities[a] != NOT_RECORDED) {
+			activities[a] += duration.toMinutes();
 		} else {
-			activities.put(activity, duration);
+			activities[a] = duration.toMinutes();
+		}
+		activityMinutes += duration.toMinutes();
+		hoursChanged();
+		if (listener != null) {
+			listener.activityAdded(this, activity, duration);
 		}
-		this.recalculateHoursWorked();
 	}
 	
 	public void removeActivity(ActivityType activity) {
-		if (activities.containsKey(activity)) {
-			activities.remove(activity);
-			this.recalculateHoursWorked();
+		if (activityMinutes(activity) != NOT_RECORDED) {
+			activityMinutes -= activities[activity.ordinal()];
+			activities[activity.ordinal()] = NOT_RECORDED;
+			hoursChanged();
+			if (listener != null) {
+				listener.activityRemoved(this, activity, null);
+			}
 		} else CUI.warn(activity.getLabel() + " has not been recorded on this day. Nothing to remove.");
 	}
 	
 	public void removeActivity(ActivityType activity, Duration duration) {
-		if (activities.containsKey(activity)) {
-			if(activities.get(activity).compareTo(duration) >= 0) {
-				activities.put(activity, activities.get(activity).minus(duration));
-				this.recalculateHoursWorked();			
+		if (activityMinutes(activity) != NOT_RECORDED) {
+			if(activities[activity.ordinal()] >= duration.toMinutes()) {
+				activities[activity.ordinal()] -= duration.toMinutes();
+				activityMinutes -= duration.toMinutes();
+				hoursChanged();
+				if (listener != null) {
+					listener.activityRemoved(this, activity, duration);
+				}
 			} else CUI.warn("Duration to remove is too long. No time deducted.");
 		} else CUI.warn(activity.getLabel() + " has not been recorded on this day");
 	}
@@ -176,28 +416,160 @@ public class WorkDay implements Serializable {
 		warnings = false;
 	}
 	
-	public void warnMissedStamps() {//TODO test this
-		if (CUI.getWarnings()) {
-			if (timeStamps.lastEntry() != null){
-				//Stamps should start with clocking IN
-				if (timeStamps.firstEntry().getValue()==StampType.OUT) {
-					System.out.println("Warning: Not yet clocked in before " + timeStamps.firstKey());
-				}			
-				//Compare each stamp to the previous one, making sure they alternate between in & out
-				StampType inOrOut = StampType.OUT;
-				LocalTime lagTime = TimeAndDate.timeNow();
-				for (Map.Entry<LocalTime, StampType> stamp : timeStamps.entrySet()) {
-					if (stamp.getValue() == inOrOut && !stamp.equals(timeStamps.firstEntry())) {
-						System.out.println("Warning: Missed time stamp: " + lagTime + " = " + inOrOut + ", " + stamp.getKey() + " = " + stamp.getValue());
-					}
-					lagTime = stamp.getKey();
-					inOrOut = stamp.getValue();
+	/**Whether there is anything that {@link #warnMissedStamps()} would warn about.*/
+	boolean hasMissedStamps() {
+		return anomalies != 0;
+	}
+	
+	/**Prints a warning for each missed stamp. Days without any don't look at their stamps 
+	 * (see {@link #getAnomalies()}).*/
+	public void warnMissedStamps() {
+		if (anomalies != 0 && CUI.getWarnings()) {
+			//Stamps should start with clocking IN
+			if ((anomalies & STARTS_WITH_OUT) != 0) {
+				System.out.println("Warning: Not yet clocked in before " + timeOf(stampMinute(0)));
+			}
+			//Compare each stamp to the previous one, making sure they alternate between in & out
+			for (int i = 1; i < stampCount && (anomalies & REPEATED_STAMP) != 0; i++) {
+				if (stampType(i) == stampType(i - 1)) {
+					System.out.println("Warning: Missed time stamp: " + timeOf(stampMinute(i - 1)) + " = " + stampType(i - 1) 
+							+ ", " + timeOf(stampMinute(i)) + " = " + stampType(i));
 				}
-				//Stamps should end with clocking OUT
-				if (timeStamps.lastEntry().getValue()==StampType.IN) {
-					System.out.println("Warning: Not yet clocked out after " + timeStamps.lastKey());
-				}			
 			}
+			//Stamps should end with clocking OUT
+			if ((anomalies & STILL_CLOCKED_IN) != 0) {
+				System.out.println("Warning: Not yet clocked out after " + timeOf(stampMinute(stampCount - 1)));
+			}
+		}
+	}
+	
+	//Serialization ------------------------------------------------------
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		ObjectOutputStream.PutField fields = out.putFields();
+		fields.put("date", date);
+		fields.put("timeStamps", new TreeMap<>(getTimeStamps()));
+		fields.put("activities", new HashMap<>(getActivities()));
+		fields.put("hoursWorked", Duration.ofMinutes(minutesWorked));
+		fields.put("warnings", warnings);
+		out.writeFields();
+	}
+	
+	@SuppressWarnings("unchecked")
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		ObjectInputStream.GetField fields = in.readFields();
+		date = (LocalDate) fields.get("date", null);
+		warnings = fields.get("warnings", true);
+		stamps = NO_STAMPS;
+		TreeMap<LocalTime, StampType> timeStamps = (TreeMap<LocalTime, StampType>) fields.get("timeStamps", null);
+		if (timeStamps != null) {
+			for (Map.Entry<LocalTime, StampType> stamp : timeStamps.entrySet()) {
+				addTimeStamp(stamp.getKey(), stamp.getValue());
+			}
+		}
+		HashMap<ActivityType, Duration> activities = (HashMap<ActivityType, Duration>) fields.get("activities", null);
+		if (activities != null) {
+			for (Map.Entry<ActivityType, Duration> activity : activities.entrySet()) {
+				addActivity(activity.getKey(), activity.getValue());
+			}
+		}
+	}
+	
+	//Views ---------------------------------------------------------------
+	/**Read-only map of the time stamps, backed by {@link #stamps}.*/
+	private class TimeStampsView extends AbstractMap<LocalTime, StampType> {
+		@Override
+		public int size() {return stampCount;}
+		
+		@Override
+		public StampType get(Object key) {
+			if (!(key instanceof LocalTime)) {
+				return null;
+			}
+			LocalTime time = (LocalTime) key;
+			int index = indexOf(minuteOf(time));
+			return index >= 0 && time.equals(TimeAndDate.time(time)) ? stampType(index) : null;
+		}
+		
+		@Override
+		public boolean containsKey(Object key) {return get(key) != null;}
+		
+		@Override
+		public Set<Map.Entry<LocalTime, StampType>> entrySet() {
+			return new AbstractSet<Map.Entry<LocalTime, StampType>>() {
+				@Override
+				public int size() {return stampCount;}
+				@Override
+				public Iterator<Map.Entry<LocalTime, StampType>> iterator() {
+					return new Iterator<Map.Entry<LocalTime, StampType>>() {
+						private int next = 0;
+						@Override
+						public boolean hasNext() {return next < stampCount;}
+						@Override
+						public Map.Entry<LocalTime, StampType> next() {
+							if (next >= stampCount) {
+								throw new NoSuchElementException();
+							}
+							Map.Entry<LocalTime, StampType> entry = 
+									new SimpleImmutableEntry<>(timeOf(stampMinute(next)), stampType(next));
+							next++;
+							return entry;
+						}
+					};
+				}
+			};
+		}
+	}
+	
+	/**Read-only map of the activities, backed by {@link #activities}.*/
+	private class ActivitiesView extends AbstractMap<ActivityType, Duration> {
+		@Override
+		public Duration get(Object key) {
+			if (!(key instanceof ActivityType) || activityMinutes((ActivityType) key) == NOT_RECORDED) {
+				return null;
+			}
+			return Duration.ofMinutes(activityMinutes((ActivityType) key));
+		}
+		
+		@Override
+		public boolean containsKey(Object key) {return get(key) != null;}
+		
+		@Override
+		public Set<Map.Entry<ActivityType, Duration>> entrySet() {
+			return new AbstractSet<Map.Entry<ActivityType, Duration>>() {
+				@Override
+				public int size() {
+					int size = 0;
+					for (ActivityType activity : ActivityType.values()) {
+						if (activityMinutes(activity) != NOT_RECORDED) {
+							size++;
+						}
+					}
+					return size;
+				}
+				@Override
+				public Iterator<Map.Entry<ActivityType, Duration>> iterator() {
+					return new Iterator<Map.Entry<ActivityType, Duration>>() {
+						private int next = nextRecorded(0);
+						private int nextRecorded(int from) {
+							while (from < ActivityType.values().length && activityMinutes(ActivityType.values()[from]) == NOT_RECORDED) {
+								from++;
+							}
+							return from;
+						}
+						@Override
+						public boolean hasNext() {return next < ActivityType.values().length;}
+						@Override
+						public Map.Entry<ActivityType, Duration> next() {
+							if (!hasNext()) {
+								throw new NoSuchElementException();
+							}
+							ActivityType activity = ActivityType.values()[next];
+							next = nextRecorded(next + 1);
+							return new SimpleImmutableEntry<>(activity, Duration.ofMinutes(activityMinutes(activity)));
+						}
+					};
+				}
+			};
 		}
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,24 @@
+package com.github.sourzo.timeTracker;
+
+import java.time.Duration;
+import java.time.LocalTime;
+
+/**Receives a callback every time a {@link WorkDay} is changed, so that the {@link Diary}
+ * which owns the day can keep its journal and balance up to date.*/
+interface WorkDayListener {
+	/**A time stamp was added to the day (or an existing stamp at the same time was replaced).*/
+	void timeStampAdded(WorkDay day, LocalTime time, StampType inOrOut);
+
+	/**A time stamp was removed from the day.*/
+	void timeStampRemoved(WorkDay day, LocalTime time);
+
+	/**Time was added to an activity on the day.*/
+	void activityAdded(WorkDay day, ActivityType activity, Duration duration);
+
+	/**Time was removed from an activity on the day.
+	 * @param duration the time removed, or null if the whole activity was removed.*/
+	void activityRemoved(WorkDay day, ActivityType activity, Duration duration);
+
+	/**The number of hours worked on the day has been recalculated (it may not have changed).*/
+	void hoursChanged(WorkDay day);
+}
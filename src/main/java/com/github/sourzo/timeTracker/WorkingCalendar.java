@@ -0,0 +1,259 @@
+package com.github.sourzo.timeTracker;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.DayOfWeek;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.Year;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**How many minutes a {@link Diary}'s owner is expected to work on each day. Three kinds of rule
+ * decide it, each overriding the one before:
+ * <UL>
+ * <LI>weekly patterns (minutes for each day of the week), each in force from a date until the
+ * next one, e.g. a change to part-time hours. Before the first, the diary's day target applies
+ * on every day except its regular non-working days
+ * <LI>public holidays, which are read from a file shared by everyone (see {@link #readHolidays(Path)}),
+ * when nothing is expected
+ * <LI>the diary's own overrides for single days
+ * </UL>
+ * The rules are compiled into an {@code int[]} of expected minutes for each year (indexed by day
+ * of the year) the first time the year is used, plus a {@link DayBitmap} of the days when
+ * anything is expected, so that balances and unrecorded days look each day up rather than
+ * working through the rules. Changing a rule drops what has been compiled.*/
+class WorkingCalendar {
+	//Static fields--------------------------------------------------------
+	/**The file of holidays which is read for every diary in the same directory (see {@link Diary#load(String)}).*/
+	static final String HOLIDAYS_FILE_NAME = "holidays.txt";
+
+	//Instance fields------------------------------------------------------
+	/**Minutes for each day of the week (by {@link DayOfWeek#ordinal()}) before the first weekly pattern.*/
+	private int[] defaultWeek = new int[7];
+	/**Weekly patterns by the date they come into force.*/
+	private final TreeMap<LocalDate, int[]> weeks = new TreeMap<>();
+	/**Public holidays, with their names.*/
+	private final TreeMap<LocalDate, String> holidays = new TreeMap<>();
+	/**Minutes expected on single days, replacing the other rules.*/
+	private final TreeMap<LocalDate, Integer> overrides = new TreeMap<>();
+	/**Expected minutes for each day of each compiled year, indexed by day of the year - 1.*/
+	private final Map<Integer, int[]> years = new HashMap<>();
+	/**The days of the compiled years when anything is expected.*/
+	private final DayBitmap workingDays = new DayBitmap();
+	/**The year looked up last, which is usually the one wanted next.*/
+	private int lastYear;
+	private int[] lastYearMinutes;
+
+	//Constructors----------------------------------------------------------
+	WorkingCalendar() {}
+
+	/**A copy of the rules of {@code other}.*/
+	WorkingCalendar(WorkingCalendar other) {
+		defaultWeek = other.defaultWeek.clone();
+		other.weeks.forEach((from, week) -> weeks.put(from, week.clone()));
+		holidays.putAll(other.holidays);
+		overrides.putAll(other.overrides);
+	}
+
+	//Methods: rules -------------------------------------------------------
+	/**Expects {@code dayTarget} on every day except {@code nonWorkingDays}, before the first weekly pattern.*/
+	void setDefaultWeek(Duration dayTarget, Set<DayOfWeek> nonWorkingDays) {
+		int[] week = new int[7];
+		for (DayOfWeek day : DayOfWeek.values()) {
+			week[day.ordinal()] = nonWorkingDays.contains(day) ? 0 : (int) dayTarget.toMinutes();
+		}
+		defaultWeek = week;
+		changed();
+	}
+
+	/**Expects {@code minutes} on {@code day} each week from {@code from}, until the next weekly
+	 * pattern. If no pattern starts on {@code from}, one is started, copied from the pattern which
+	 * was in force then.*/
+	void setWeekDay(LocalDate from, DayOfWeek day, int minutes) {
+		int[] week = weeks.get(from);
+		if (week == null) {
+			week = weekOn(from).clone();
+			weeks.put(from, week);
+		}
+		week[day.ordinal()] = minutes;
+		changed();
+	}
+
+	void setHoliday(LocalDate date, String name) {
+		holidays.put(date, name);
+		changed();
+	}
+
+	/**Expects {@code minutes} on {@code date}, whatever the other rules say.*/
+	void setOverride(LocalDate date, int minutes) {
+		overrides.put(date, minutes);
+		changed();
+	}
+
+	void clearOverride(LocalDate date) {
+		if (overrides.remove(date) != null) {
+			changed();
+		}
+	}
+
+	private void changed() {
+		lastYearMinutes = null;
+		years.clear();
+		workingDays.clear();
+	}
+
+	/**The weekly pattern in force on {@code date}.*/
+	private int[] weekOn(LocalDate date) {
+		Map.Entry<LocalDate, int[]> week = weeks.floorEntry(date);
+		return week == null ? defaultWeek : week.getValue();
+	}
+
+	SortedMap<LocalDate, String> getHolidays() {return Collections.unmodifiableSortedMap(holidays);}
+
+	//Methods: compiled lookups --------------------------------------------
+	/**Minutes expected on {@code date}.*/
+	int expectedMinutes(LocalDate date) {
+		return year(date.getYear())[date.getDayOfYear() - 1];
+	}
+
+	/**Minutes expected altogether on the days of {@code month} whose bits are set in
+	 * {@code dayMask} (bit {@code n} for day {@code n + 1}, as in {@link DiarySegments.Segment}).*/
+	long expectedMinutes(YearMonth month, int dayMask) {
+		int[] year = year(month.getYear());
+		int firstDay = month.atDay(1).getDayOfYear() - 1;
+		long minutes = 0;
+		for (; dayMask != 0; dayMask &= dayMask - 1) {
+			minutes += year[firstDay + Integer.numberOfTrailingZeros(dayMask)];
+		}
+		return minutes;
+	}
+
+	/**The days when anything is expected, compiled for at least {@code from} to {@code to}.*/
+	DayBitmap workingDays(LocalDate from, LocalDate to) {
+		for (int year = from.getYear(); year <= to.getYear(); year++) {
+			year(year);
+		}
+		return workingDays;
+	}
+
+	/**The expected minutes for each day of {@code year}, compiling them if need be.*/
+	private int[] year(int year) {
+		if (lastYearMinutes != null && year == lastYear) {
+			return lastYearMinutes;
+		}
+		int[] minutes = years.get(year);
+		if (minutes == null) {
+			minutes = compile(year);
+			years.put(year, minutes);
+			long firstDay = LocalDate.ofYearDay(year, 1).toEpochDay();
+			for (int i = 0; i < minutes.length; i++) {
+				if (minutes[i] > 0) {
+					workingDays.set(firstDay + i);
+				}
+			}
+		}
+		lastYear = year;
+		lastYearMinutes = minutes;
+		return minutes;
+	}
+
+	private int[] compile(int year) {
+		LocalDate first = LocalDate.ofYearDay(year, 1);
+		LocalDate next = first.plusYears(1);
+		int[] minutes = new int[Year.isLeap(year) ? 366 : 365];
+		int[] week = weekOn(first);
+		int dayOfWeek = first.getDayOfWeek().ordinal();
+		LocalDate change = weeks.higherKey(first);
+		for (int i = 0; i < minutes.length; i++) {
+			if (change != null && change.getYear() == year && change.getDayOfYear() - 1 == i) {
+				week = weeks.get(change);
+				change = weeks.higherKey(change);
+			}
+			minutes[i] = week[dayOfWeek];
+			dayOfWeek = dayOfWeek == 6 ? 0 : dayOfWeek + 1;
+		}
+		for (LocalDate holiday : holidays.subMap(first, next).keySet()) {
+			minutes[holiday.getDayOfYear() - 1] = 0;
+		}
+		for (Map.Entry<LocalDate, Integer> override : overrides.subMap(first, next).entrySet()) {
+			minutes[override.getKey().getDayOfYear() - 1] = override.getValue();
+		}
+		return minutes;
+	}
+
+	//Methods: files -------------------------------------------------------
+	/**Reads public holidays from {@code file}: one per line, as {@code DD/MM/YYYY} followed by its
+	 * name (blank lines and lines starting with # are ignored). Lines without a date are skipped.
+	 * @return the skipped lines, each as {@code line <number>: <text>}*/
+	List<String> readHolidays(Path file) throws IOException {
+		List<String> skipped = new ArrayList<>();
+		try (BufferedReader in = Files.newBufferedReader(file)) {
+			int lineNumber = 0;
+			for (String line = in.readLine(); line != null; line = in.readLine()) {
+				lineNumber++;
+				line = line.strip();
+				if (line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+				String[] fields = line.split("\\s+", 2);
+				LocalDate date = TimeAndDate.parseDate(fields[0]);
+				if (date == null) {
+					skipped.add("line " + lineNumber + ": " + line);
+					continue;
+				}
+				holidays.put(date, fields.length > 1 ? fields[1] : "");
+			}
+		}
+		changed();
+		return skipped;
+	}
+
+	/**Writes the weekly patterns and overrides (the holidays come from their own file): the
+	 * number of patterns, then each one's first day (epoch day) and minutes for Monday to Sunday,
+	 * then the number of overrides, then each one's day and minutes.*/
+	void writeRules(DataOutputStream out) throws IOException {
+		DiaryCodec.writeVarLong(out, weeks.size());
+		for (Map.Entry<LocalDate, int[]> week : weeks.entrySet()) {
+			DiaryCodec.writeSignedVarLong(out, week.getKey().toEpochDay());
+			for (int minutes : week.getValue()) {
+				DiaryCodec.writeVarLong(out, minutes);
+			}
+		}
+		DiaryCodec.writeVarLong(out, overrides.size());
+		for (Map.Entry<LocalDate, Integer> override : overrides.entrySet()) {
+			DiaryCodec.writeSignedVarLong(out, override.getKey().toEpochDay());
+			DiaryCodec.writeVarLong(out, override.getValue());
+		}
+	}
+
+	/**Reads what {@link #writeRules} wrote.*/
+	void readRules(DataInputStream in) throws IOException {
+		long weekCount = DiaryCodec.readVarLong(in);
+		for (long w = 0; w < weekCount; w++) {
+			LocalDate from = LocalDate.ofEpochDay(DiaryCodec.readSignedVarLong(in));
+			int[] week = new int[7];
+			for (int d = 0; d < 7; d++) {
+				week[d] = (int) DiaryCodec.readVarLong(in);
+			}
+			weeks.put(from, week);
+		}
+		long overrideCount = DiaryCodec.readVarLong(in);
+		for (long o = 0; o < overrideCount; o++) {
+			LocalDate date = LocalDate.ofEpochDay(DiaryCodec.readSignedVarLong(in));
+			overrides.put(date, (int) DiaryCodec.readVarLong(in));
+		}
+		changed();
+	}
+}
@@ -0,0 +1,207 @@
+package com.github.sourzo.timeTracker;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.DayOfWeek;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.MonthDay;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+/**Makes up diaries for many employees, e.g. to size hardware or to load-test a store (see
+ * {@link LoadDriver}) before rolling it out.
+ * <P>Each employee has habits of their own (when they arrive, whether they take lunch, whether
+ * they work part time), and most days are clocked to those habits with some variation. Now and
+ * then a stamp is missed, a day is left unrecorded, a weekend is worked, or the day is annual
+ * leave, sickness, training, special leave or a medical appointment; a few fixed dates each year
+ * are all-staff non-working days.
+ * <P>The same seed and end date always give the same diaries: each employee's days come from a
+ * {@link Random} of their own, seeded from the seed and their number, so the diaries can be made
+ * in any order, on any number of threads, or a few at a time.*/
+public class WorkloadGenerator {
+	//Static fields--------------------------------------------------------
+	/**The all-staff non-working days each year.*/
+	private static final List<MonthDay> CLOSED_DAYS = Arrays.asList(
+			MonthDay.of(1, 1), MonthDay.of(12, 25), MonthDay.of(12, 26));
+	/**The activities which take up a whole day, and how likely each is to start on a working day.*/
+	private static final ActivityType[] ABSENCES = {ActivityType.ANNUAL_LEAVE, ActivityType.SICK,
+			ActivityType.TRAINING, ActivityType.SPECIAL_LEAVE};
+	private static final int[] ABSENCE_ODDS = {70, 120, 150, 400};
+	/**The longest run of days each of {@link #ABSENCES} lasts.*/
+	private static final int[] ABSENCE_DAYS = {10, 3, 2, 1};
+
+	//Instance fields------------------------------------------------------
+	private final long seed;
+	private final LocalDate end;
+	private final int years;
+
+	//Constructors----------------------------------------------------------
+	/**@param end the last day of every diary
+	 * @param years how many years before {@code end} the diaries go back (some employees start later)*/
+	public WorkloadGenerator(long seed, LocalDate end, int years) {
+		this.seed = seed;
+		this.end = end;
+		this.years = years;
+	}
+
+	//Methods: get & set ---------------------------------------------------
+	public LocalDate getEnd() {return end;}
+
+	//Methods: other -------------------------------------------------------
+	/**The ID of employee {@code employee}, e.g. {@code e00042}.*/
+	public static String employeeId(int employee) {
+		return String.format("e%05d", employee);
+	}
+
+	/**A new diary for employee {@code employee}, which will be saved as {@code fileName}.*/
+	public Diary diary(String fileName, int employee) {
+		Diary diary = new Diary(fileName);
+		fill(diary, employee);
+		return diary;
+	}
+
+	/**Records the days of employee {@code employee} in {@code diary}, from their start to the end date.*/
+	void fill(Diary diary, int employee) {
+		Random random = new Random(seed * 1_000_003 + employee);
+		LocalDate start = end.minusYears(years);
+		if (random.nextInt(10) < 3) {
+			start = start.plusDays(random.nextInt(years * 365));						// Joined later
+		}
+		boolean partTime = random.nextInt(5) == 0;
+		Duration target = partTime ? Duration.ofMinutes(4 * 60 + 30 * random.nextInt(5)) : Duration.ofHours(7);
+		Set<DayOfWeek> nonWorkingDays = EnumSet.of(DayOfWeek.SATURDAY, DayOfWeek.SUNDAY);
+		if (partTime && random.nextBoolean()) {
+			nonWorkingDays.add(DayOfWeek.FRIDAY);
+		}
+		diary.restoreSettings(start, target, nonWorkingDays);
+		int arrival = 7 * 60 + 30 + random.nextInt(120);
+		int lunchOdds = 5 + random.nextInt(6);											// Out of 10
+		ActivityType absence = null;
+		int absenceLeft = 0;
+
+		for (LocalDate date = start; !date.isAfter(end); date = date.plusDays(1)) {
+			boolean working = !nonWorkingDays.contains(date.getDayOfWeek());
+			if (!working) {
+				if (random.nextInt(50) == 0) {
+					workWeekend(diary.get(date), random);
+				}
+				continue;
+			}
+			if (CLOSED_DAYS.contains(MonthDay.from(date))) {
+				diary.get(date).addActivity(ActivityType.GLOBAL_NON_WORKING_DAY, target);
+				continue;
+			}
+			if (absenceLeft == 0) {
+				for (int i = 0; i < ABSENCES.length && absenceLeft == 0; i++) {
+					if (random.nextInt(ABSENCE_ODDS[i]) == 0) {
+						absence = ABSENCES[i];
+						absenceLeft = 1 + random.nextInt(ABSENCE_DAYS[i]);
+					}
+				}
+			}
+			if (absenceLeft > 0) {
+				diary.get(date).addActivity(absence, target);
+				absenceLeft--;
+				continue;
+			}
+			if (random.nextInt(200) == 0) {
+				continue;																	// Nothing recorded
+			}
+			workDay(diary.get(date), random, arrival, target, random.nextInt(10) < lunchOdds);
+		}
+	}
+
+	/**Clocks a working day, starting around {@code arrival} (minutes after midnight).*/
+	private static void workDay(WorkDay day, Random random, int arrival, Duration target, boolean lunch) {
+		List<Integer> minutes = new ArrayList<>();
+		int in = arrival + (int) (random.nextGaussian() * 15);
+		int out = in + (int) target.toMinutes() + (int) (random.nextGaussian() * 30);
+		if (random.nextInt(60) == 0) {
+			int appointment = 60 + 15 * random.nextInt(7);
+			day.addActivity(ActivityType.MEDICAL_APPOINTMENT, Duration.ofMinutes(appointment));
+			out -= appointment;
+		}
+		minutes.add(in);
+		if (lunch && out - in > 5 * 60) {
+			int lunchOut = Math.max(in + 60, 12 * 60 + random.nextInt(90));
+			int lunchIn = lunchOut + 20 + random.nextInt(40);
+			minutes.add(lunchOut);
+			minutes.add(lunchIn);
+			out += lunchIn - lunchOut;
+		}
+		if (random.nextInt(20) == 0) {
+			int breakOut = out - 60 - random.nextInt(60);
+			if (breakOut > minutes.get(minutes.size() - 1) + 10) {
+				minutes.add(breakOut);
+				minutes.add(breakOut + 5 + random.nextInt(10));
+				out += 10;
+			}
+		}
+		minutes.add(out);
+		int missed = random.nextInt(40) == 0 ? random.nextInt(minutes.size()) : -1;		// A missed clocking
+		for (int i = 0; i < minutes.size(); i++) {
+			if (i != missed) {
+				int minute = Math.max(0, Math.min(24 * 60 - 1, minutes.get(i)));
+				day.addTimeStamp(LocalTime.MIN.plusMinutes(minute), i % 2 == 0 ? StampType.IN : StampType.OUT);
+			}
+		}
+	}
+
+	/**A few hours on a day off.*/
+	private static void workWeekend(WorkDay day, Random random) {
+		int in = 9 * 60 + random.nextInt(180);
+		day.addTimeStamp(LocalTime.MIN.plusMinutes(in), StampType.IN);
+		day.addTimeStamp(LocalTime.MIN.plusMinutes(in + 60 + random.nextInt(180)), StampType.OUT);
+	}
+
+	/**Saves a diary for each of employees {@code 0} to {@code employees - 1} in {@code directory},
+	 * as {@link DiaryStore} names them (see {@link #employeeId(int)}), several at a time.
+	 * @return the number of days recorded*/
+	public long populate(Path directory, int employees) {
+		DiaryStore store = new DiaryStore(directory);
+		AtomicLong days = new AtomicLong();
+		IntStream.range(0, employees).parallel().forEach(employee -> {
+			Diary diary = diary(store.fileFor(employeeId(employee)).toString(), employee);
+			try {
+				diary.write();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			} finally {
+				diary.closeJournal();
+			}
+			days.addAndGet(diary.dayCount());
+		});
+		return days.get();
+	}
+
+	/**Saves made-up diaries in a directory, for a {@link DiaryStore} or a {@link LoadDriver}.
+	 * @param args directory, number of employees, number of years (default 5) and seed
+	 * (default 1). The diaries end today.*/
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.out.println("Usage: generate directory employees [years] [seed]");
+			return;
+		}
+		Path directory = Paths.get(args[0]);
+		int employees = Integer.parseInt(args[1]);
+		int years = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+		long seed = args.length > 3 ? Long.parseLong(args[3]) : 1;
+		Files.createDirectories(directory);
+		CUI.setMessages(false);
+		long start = System.nanoTime();
+		long days = new WorkloadGenerator(seed, LocalDate.now(), years).populate(directory, employees);
+		System.err.println(employees + " diaries (" + days + " days) saved in "
+				+ (System.nanoTime() - start) / 1000000 + "ms");
+	}
+}
@@ -0,0 +1,111 @@
+package com.github.sourzo.timeTracker;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalTime;
+
+import junit.framework.TestCase;
+
+public class TestBackgroundSaver extends TestCase {
+	private static final String FILE_NAME = "TestSaver.txt";
+	private Diary diary;
+
+	public void setUp() {
+		diary = Diary.load(FILE_NAME);
+	}
+
+	public void tearDown() throws IOException {
+		diary.closeJournal();
+		Files.deleteIfExists(Paths.get(FILE_NAME));
+		Files.deleteIfExists(DiaryJournal.pathFor(FILE_NAME));
+		TestDiaryStore.deleteDirectory(DiarySegments.directoryFor(FILE_NAME));
+	}
+
+	/**A burst of changes within the window is written once.*/
+	public void testCoalescesBursts() throws InterruptedException {
+		BackgroundSaver saver = new BackgroundSaver(diary, Duration.ofMillis(200));
+		LocalDate day = LocalDate.of(2021, 6, 7);
+		for (int i = 0; i < 100; i++) {
+			diary.get(day).addTimeStamp(LocalTime.of(8, 0).plusMinutes(i));
+		}
+		assertFalse(saver.isDurable());
+		assertEquals(0, saver.getWriteCount());										// Nobody waited for the disk
+		for (int i = 0; i < 100 && !saver.isDurable(); i++) {
+			Thread.sleep(20);
+		}
+		assertTrue(saver.isDurable());
+		assertEquals(1, saver.getWriteCount());
+
+		diary.get(day).addActivity(ActivityType.TRAINING, Duration.ofHours(1));	// A later change is written again
+		saver.flush();
+		assertTrue(saver.isDurable());
+		assertEquals(2, saver.getWriteCount());
+		saver.flush();
+		assertEquals(2, saver.getWriteCount());										// Nothing new to write
+		saver.close();
+
+		diary.get(day).addActivity(ActivityType.TRAINING, Duration.ofHours(1));	// No longer listening
+		assertEquals(2, saver.getWriteCount());
+	}
+
+	/**Changes are durable in the journal after flush(), without saving the diary.*/
+	public void testFlushBeforeExit() {
+		BackgroundSaver saver = new BackgroundSaver(diary, Duration.ofHours(1));
+		LocalDate day = LocalDate.of(2021, 6, 8);
+		diary.get(day).addTimeStamp(LocalTime.of(9, 0), StampType.IN);
+		diary.get(day).addTimeStamp(LocalTime.of(17, 0), StampType.OUT);
+		saver.close();
+		diary.closeJournal();
+		diary = Diary.load(FILE_NAME);
+		assertEquals(Duration.ofHours(8), diary.get(day).getHoursWorked());
+	}
+
+	/**Changes whose write fails stay pending, and are written by a later try.*/
+	public void testRetriesFailedWrite() throws Exception {
+		BackgroundSaver saver = new BackgroundSaver(diary, Duration.ofMillis(50));
+		LocalDate day = LocalDate.of(2021, 6, 9);
+		diary.get(day).addTimeStamp(LocalTime.of(9, 0), StampType.IN);
+		saver.flush();
+		Field journalField = Diary.class.getDeclaredField("journal");
+		journalField.setAccessible(true);
+		Field channelField = DiaryJournal.class.getDeclaredField("channel");
+		channelField.setAccessible(true);
+		((FileChannel) channelField.get(journalField.get(diary))).close();				// As if the disk had gone
+
+		try {
+			diary.get(day).addTimeStamp(LocalTime.of(17, 0), StampType.OUT);
+			fail();
+		} catch (UncheckedIOException e) {
+			//Expected: kept in memory, but not journalled
+		}
+		saver.flush();
+		assertFalse(saver.isDurable());
+		assertEquals(1, saver.getWriteCount());
+		Thread.sleep(120);
+		assertFalse(saver.isDurable());												// Still failing
+
+		diary.save();																	// A new journal, which can be written
+		for (int i = 0; i < 100 && !saver.isDurable(); i++) {
+			Thread.sleep(20);
+		}
+		assertTrue(saver.isDurable());
+		assertEquals(2, saver.getWriteCount());
+		saver.close();
+	}
+
+	public static void main(String[] args) throws Exception {
+		TestBackgroundSaver test = new TestBackgroundSaver();
+		test.setUp();
+		test.testCoalescesBursts();
+		test.tearDown();
+		test.setUp();
+		test.testRetriesFailedWrite();
+		test.tearDown();
+	}
+}
@@ -3,6 +3,13 @@ package com.github.sourzo.timeTracker;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.time.DayOfWeek;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.YearMonth;
+import java.util.Random;
+import java.util.TreeSet;
 
 import junit.framework.TestCase;
 
@@ -19,20 +26,253 @@ public class TestDiary extends TestCase {
 		newDiary.saveAs("Test2.txt");
 		assertTrue(Files.exists(Paths.get("Test2.txt")));	// Can save a diary with a new name
 		assertEquals("Test2.txt", newDiary.getFileName()); 	// Saving a diary changes diary name
+		newDiary.closeJournal();
 		Files.deleteIfExists(Paths.get("Test2.txt"));
+		Files.deleteIfExists(Paths.get("Test2.txt.journal"));
 
 		Diary loadedDiary = Diary.load("Test.txt");
 		assertNotNull(loadedDiary);							// Can load a diary
+		loadedDiary.closeJournal();
 		Files.deleteIfExists(Paths.get("Test.txt"));
+		Files.deleteIfExists(Paths.get("Test.txt.journal"));
+		TestDiaryStore.deleteDirectory(DiarySegments.directoryFor("Test.txt"));
 		//serialization - make changes and save & load
 		//load a diary that doesn't exist
 		//day with no clockings?
 	}
 
+	public void testJournal() throws IOException {
+		LocalDate day = LocalDate.of(2020, 3, 2);
+		Diary diary = new Diary("TestJournal.txt");
+		diary.save();
+		long savedSize = Files.size(Paths.get("TestJournal.txt"));
+		
+		diary.get(day).addTimeStamp(LocalTime.of(9, 0), StampType.IN);
+		diary.get(day).addTimeStamp(LocalTime.of(17, 30), StampType.OUT);
+		diary.get(day).addActivity(ActivityType.TRAINING, Duration.ofHours(2));
+		diary.get(day).removeActivity(ActivityType.TRAINING, Duration.ofMinutes(30));
+		long journalSize = Files.size(Paths.get("TestJournal.txt.journal"));
+		assertEquals(savedSize, Files.size(Paths.get("TestJournal.txt")));		// Changes don't rewrite the saved file
+		diary.get(day).addTimeStamp(LocalTime.of(12, 0), StampType.OUT);
+		diary.get(day).addTimeStamp(LocalTime.of(12, 30), StampType.IN);
+		assertEquals(journalSize + 2 * DiaryJournal.RECORD_SIZE, 
+				Files.size(Paths.get("TestJournal.txt.journal")));					// Each change appends one record
+		diary.closeJournal();
+		
+		Diary loadedDiary = Diary.load("TestJournal.txt");							// Changes are replayed from the journal
+		WorkDay loadedDay = loadedDiary.get(day);
+		assertEquals(4, loadedDay.getTimeStamps().size());
+		assertEquals(Duration.ofMinutes(90), loadedDay.getActivities().get(ActivityType.TRAINING));
+		assertEquals(Duration.ofMinutes(570), loadedDay.getHoursWorked());
+		
+		loadedDiary.save();															// Saving folds the journal into the file
+		assertFalse(Files.exists(Paths.get("TestJournal.txt.journal")));
+		loadedDiary.closeJournal();
+		assertEquals(Duration.ofMinutes(570), Diary.load("TestJournal.txt").get(day).getHoursWorked());
+		Files.deleteIfExists(Paths.get("TestJournal.txt"));
+		Files.deleteIfExists(Paths.get("TestJournal.txt.journal"));
+		TestDiaryStore.deleteDirectory(DiarySegments.directoryFor("TestJournal.txt"));
+	}
+
+	/**A save which fails leaves the diary on its last save and journal, so changes aren't lost.*/
+	public void testFailedSave() throws IOException {
+		String fileName = "TestFailedSave.txt";
+		LocalDate day = LocalDate.of(2020, 3, 2);
+		Diary diary = new Diary(fileName);
+		diary.save();
+		long generation = diary.getGeneration();
+		diary.get(day).addTimeStamp(LocalTime.of(9, 0), StampType.IN);
+		Files.createDirectory(Paths.get(fileName + ".tmp"));						// The manifest can't be written
+		try {
+			diary.write();
+			fail();
+		} catch (IOException e) {
+			//Expected
+		}
+		assertEquals(generation, diary.getGeneration());
+		diary.get(day).addTimeStamp(LocalTime.of(17, 0), StampType.OUT);			// Still journalled
+		diary.syncJournal();
+		diary.closeJournal();
+		try {
+			diary.syncJournal();
+			fail();
+		} catch (IOException e) {
+			//Expected: nothing is journalling its changes now
+		}
+		Files.delete(Paths.get(fileName + ".tmp"));
+
+		Diary loaded = Diary.load(fileName);
+		assertEquals(Duration.ofHours(8), loaded.get(day).getHoursWorked());
+		loaded.closeJournal();
+		Files.deleteIfExists(Paths.get(fileName));
+		Files.deleteIfExists(Paths.get(fileName + ".journal"));
+		TestDiaryStore.deleteDirectory(DiarySegments.directoryFor(fileName));
+	}
+
+	public void testBalance() {
+		Diary diary = new Diary("TestBalance.txt");
+		LocalDate monday = LocalDate.of(2021, 6, 7);
+		diary.get(monday).addTimeStamp(LocalTime.of(9, 0), StampType.IN);
+		diary.get(monday).addTimeStamp(LocalTime.of(17, 0), StampType.OUT);			// 8h: +1h
+		diary.get(monday.plusDays(1)).addActivity(ActivityType.SICK, Duration.ofHours(7));	// 7h: 0
+		diary.get(monday.plusDays(2)).addTimeStamp(LocalTime.of(9, 0), StampType.IN);
+		diary.get(monday.plusDays(2)).addTimeStamp(LocalTime.of(15, 0), StampType.OUT);	// 6h: -1h
+		assertEquals(Duration.ofHours(1), diary.balanceToDate(monday, monday));
+		assertEquals(Duration.ofHours(1), diary.balanceToDate(monday, monday.plusDays(1)));
+		assertEquals(Duration.ofHours(0), diary.balanceToDate(monday, monday.plusDays(2)));
+		assertEquals(Duration.ofHours(-1), diary.balanceToDate(monday.plusDays(1), monday.plusDays(5)));
+		assertEquals(Duration.ofHours(0), diary.balanceToDate(monday.minusYears(1), monday.minusDays(1)));
+		
+		diary.get(monday.plusDays(2)).removeTimeStamp(LocalTime.of(15, 0));			// Edits through get() are included
+		assertEquals(Duration.ofHours(-6), diary.balanceToDate(monday, monday.plusDays(2)));
+		assertEquals(diary.recalculateBalance(), diary.balanceToDate(monday.minusYears(1), monday.plusYears(1)));
+	}
+	
+	public void testBalanceMatchesFullRecalculation() {
+		Random random = new Random(42);
+		Diary diary = new Diary("TestBalance.txt");
+		LocalDate start = LocalDate.of(2010, 1, 1);
+		for (int i = 0; i < 2000; i++) {
+			WorkDay day = diary.get(start.plusDays(random.nextInt(3000) - 500));
+			if (random.nextBoolean()) {
+				day.addTimeStamp(LocalTime.of(random.nextInt(24), random.nextInt(60)));
+			} else {
+				day.addActivity(ActivityType.TRAINING, Duration.ofMinutes(random.nextInt(120)));
+			}
+		}
+		for (int i = 0; i < 200; i++) {
+			LocalDate from = start.plusDays(random.nextInt(4000) - 1000);
+			LocalDate to = from.plusDays(random.nextInt(1500));
+			Duration expected = Duration.ofHours(0);
+			for (WorkDay day : diary.days()) {
+				if (!day.getDate().isBefore(from) && !day.getDate().isAfter(to)) {
+					expected = expected.plus(day.getHoursWorked(false)).minus(diary.getExpectedHours(day.getDate()));
+				}
+			}
+			assertEquals(expected, diary.balanceToDate(from, to));
+		}
+	}
+
+	public void testUnrecordedDays() {
+		Diary diary = new Diary("TestUnrecorded.txt");
+		LocalDate today = LocalDate.now();
+		diary.get(today);
+		assertFalse(diary.hasUnrecordedDays());										// Diary starts today
+		
+		Random random = new Random(7);
+		TreeSet<LocalDate> recorded = new TreeSet<>();
+		recorded.add(today);
+		diary.setStartDate(today.minusDays(400));
+		for (int i = 0; i < 250; i++) {
+			LocalDate date = today.minusDays(random.nextInt(400));
+			diary.get(date);
+			recorded.add(date);
+		}
+		TreeSet<LocalDate> expected = new TreeSet<>();
+		for (LocalDate date = today.minusDays(400); !date.isAfter(today); date = date.plusDays(1)) {
+			if (!recorded.contains(date) 
+					&& date.getDayOfWeek() != DayOfWeek.SATURDAY && date.getDayOfWeek() != DayOfWeek.SUNDAY) {
+				expected.add(date);
+			}
+		}
+		assertTrue(diary.hasUnrecordedDays());
+		assertEquals(expected, diary.getUnrecordedDays());
+		
+		for (LocalDate date : expected) {
+			diary.get(date);
+		}
+		assertFalse(diary.hasUnrecordedDays());										// Everything recorded
+		assertTrue(diary.getUnrecordedDays().isEmpty());
+	}
+
+	public void testRollups() {
+		Diary diary = new Diary("TestRollups.txt");
+		LocalDate monday = LocalDate.of(2021, 6, 28);
+		diary.get(monday).addTimeStamp(LocalTime.of(9, 0), StampType.IN);
+		diary.get(monday).addTimeStamp(LocalTime.of(17, 0), StampType.OUT);			// 8h
+		diary.get(monday.plusDays(3)).addActivity(ActivityType.TRAINING, Duration.ofHours(5));	// Thursday 1 July
+		diary.get(monday.plusDays(4)).addTimeStamp(LocalTime.of(9, 0), StampType.IN);	// Missed stamp
+		
+		Rollup week = diary.getWeek(monday.plusDays(2));
+		assertEquals(monday, week.getStart());
+		assertEquals(Duration.ofHours(13), week.getHoursWorked());
+		assertEquals(Duration.ofHours(13 - 21), week.getBalance());
+		assertEquals(Duration.ofHours(8), week.getHoursWorked(monday));
+		assertNull(week.getHoursWorked(monday.plusDays(1)));
+		assertEquals(Duration.ofHours(5), week.getActivities().get(ActivityType.TRAINING));
+		assertEquals(1, week.getMissedStampDays());
+		Rollup june = diary.getMonth(YearMonth.of(2021, 6));
+		assertEquals(Duration.ofHours(8), june.getHoursWorked());
+		assertEquals(1, june.getDaysRecorded());
+		
+		long misses = diary.rollups().getMisses();
+		for (int i = 0; i < 10; i++) {
+			assertSame(week, diary.getWeek(monday.plusDays(i % 7)));				// Paging back and forth hits the cache
+			assertSame(june, diary.getMonth(YearMonth.of(2021, 6)));
+		}
+		assertEquals(misses, diary.rollups().getMisses());
+		
+		diary.get(monday.plusDays(4)).addTimeStamp(LocalTime.of(11, 0), StampType.OUT);	// Changes in July...
+		assertSame(june, diary.getMonth(YearMonth.of(2021, 6)));					// ...don't affect June
+		Rollup changedWeek = diary.getWeek(monday);
+		assertNotSame(week, changedWeek);
+		assertEquals(Duration.ofHours(15), changedWeek.getHoursWorked());
+		assertEquals(0, changedWeek.getMissedStampDays());
+		diary.get(monday).removeTimeStamp(LocalTime.of(17, 0));
+		assertEquals(Duration.ofHours(0), diary.getMonth(YearMonth.of(2021, 6)).getHoursWorked());
+		
+		for (int i = 0; i < 2 * RollupCache.DEFAULT_CAPACITY; i++) {
+			diary.getWeek(monday.plusWeeks(i));
+		}
+		assertEquals(RollupCache.DEFAULT_CAPACITY, diary.rollups().size());			// Old weeks are dropped
+	}
+
+	public void testMissedStampDays() throws IOException {
+		String fileName = "TestMissedStamps.txt";
+		Diary diary = new Diary(fileName);
+		LocalDate monday = LocalDate.of(2021, 6, 28);
+		diary.get(monday).addTimeStamp(LocalTime.of(9, 0), StampType.IN);				// Still clocked in
+		diary.get(monday.plusDays(1)).addTimeStamp(LocalTime.of(9, 0), StampType.OUT);	// Starts with OUT
+		diary.get(monday.plusDays(2)).addTimeStamp(LocalTime.of(9, 0), StampType.IN);
+		diary.get(monday.plusDays(2)).addTimeStamp(LocalTime.of(17, 0), StampType.OUT);	// Fine
+		diary.get(monday.plusDays(35)).addTimeStamp(LocalTime.of(9, 0), StampType.IN);	// August
+		TreeSet<LocalDate> expected = new TreeSet<>();
+		expected.add(monday);
+		expected.add(monday.plusDays(1));
+		assertEquals(expected, diary.getMissedStampDays(monday, monday.plusDays(6)));
+		
+		diary.get(monday).addTimeStamp(LocalTime.of(17, 0), StampType.OUT);			// Fixed
+		expected.remove(monday);
+		expected.add(monday.plusDays(35));
+		assertEquals(expected, diary.getMissedStampDays(monday, monday.plusDays(35)));
+		diary.save();
+		diary.closeJournal();
+		
+		Diary loaded = Diary.load(fileName);
+		assertEquals(expected, loaded.getMissedStampDays(monday, monday.plusDays(35)));
+		assertEquals(0, loaded.segments().loadedCount());							// From the manifest
+		loaded.get(monday.plusDays(35)).addTimeStamp(LocalTime.of(12, 0), StampType.IN);	// IN-IN as well
+		loaded.get(monday.plusDays(35)).removeTimeStamp(LocalTime.of(9, 0));
+		loaded.get(monday.plusDays(35)).addTimeStamp(LocalTime.of(13, 0), StampType.OUT);
+		expected.remove(monday.plusDays(35));
+		assertEquals(expected, loaded.getMissedStampDays(monday, monday.plusDays(35)));
+		loaded.closeJournal();
+		Files.deleteIfExists(Paths.get(fileName));
+		Files.deleteIfExists(DiaryJournal.pathFor(fileName));
+		TestDiaryStore.deleteDirectory(DiarySegments.directoryFor(fileName));
+	}
+
 	public static void main(String[] args) throws IOException {
 		//Test the WorkDay class
 		//Test the Diary class
 		TestDiary test = new TestDiary();
 		test.testDiary();
+		test.testJournal();
+		test.testFailedSave();
+		test.testBalance();
+		test.testBalanceMatchesFullRecalculation();
+		test.testUnrecordedDays();
+		test.testRollups();
+		test.testMissedStampDays();
 	}
 }
@@ -0,0 +1,108 @@
+package com.github.sourzo.timeTracker;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.time.DayOfWeek;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalTime;
+
+import junit.framework.TestCase;
+
+public class TestDiaryBatch extends TestCase {
+	private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+	private final PrintStream out = new PrintStream(output, true);
+
+	private static BufferedReader script(String text) {
+		return new BufferedReader(new StringReader(text));
+	}
+
+	public void testCommands() throws IOException {
+		Diary diary = new Diary("TestBatch.txt");
+		LocalDate monday = LocalDate.of(2021, 6, 7);
+		diary.setStartDate(monday);
+		DiaryBatch batch = new DiaryBatch(diary, out);
+		batch.run(script("# Monday\n"
+				+ "stamp 07/06/2021 09:00\n"											// IN guessed
+				+ "stamp 7/6/2021 17:30 out\n"
+				+ "\n"
+				+ "activity 08/06/2021 training 2:00\n"
+				+ "activity 08/06/2021 SICK 5:00\n"
+				+ "unactivity 08/06/2021 SICK 1:00\n"
+				+ "unactivity 08/06/2021 TRAINING\n"
+				+ "stamp 07/06/2021 12:00 in\n"
+				+ "unstamp 07/06/2021 12:00\n"
+				+ "report 08/06/2021\n"
+				+ "stamp 31/06/2021 09:00\n"												// Not a date
+				+ "stamp 09/06/2021 9am\n"
+				+ "unstamp 09/06/2021 10:00\n"
+				+ "unactivity 09/06/2021 SICK\n"
+				+ "holiday 09/06/2021\n"
+				+ "bogus\n"));
+		assertEquals(9, batch.getApplied());
+		assertEquals(6, batch.getSkipped());
+		assertTrue(diary.getUnrecordedDays().contains(monday.plusDays(2)));				// Skipped lines record nothing
+		WorkDay day = diary.get(monday);
+		assertEquals(StampType.IN, day.getTimeStamps().get(LocalTime.of(9, 0)));
+		assertEquals(Duration.ofMinutes(510), day.getHoursWorked());
+		assertEquals(Duration.ofHours(4), diary.get(monday.plusDays(1)).getHoursWorked());
+		assertNull(diary.get(monday.plusDays(1)).getActivities().get(ActivityType.TRAINING));
+
+		String[] lines = new String(output.toByteArray(), StandardCharsets.UTF_8).split("\\R");
+		assertEquals("Balance to 2021-06-08: -1h -30min", lines[0]);
+		assertEquals("Line 12: expected a date (DD/MM/YYYY): stamp 31/06/2021 09:00", lines[1]);
+		assertEquals("Line 16: unknown command: holiday 09/06/2021", lines[5]);
+		assertEquals("Line 17: unknown command: bogus", lines[6]);
+	}
+
+	/**Back-fills a month of clockings in one go.*/
+	public void testBackfillMonth() throws IOException {
+		StringBuilder text = new StringBuilder();
+		for (LocalDate date = LocalDate.of(2021, 6, 1); date.getMonthValue() == 6; date = date.plusDays(1)) {
+			if (date.getDayOfWeek() != DayOfWeek.SATURDAY && date.getDayOfWeek() != DayOfWeek.SUNDAY) {
+				String day = date.getDayOfMonth() + "/06/2021 ";
+				text.append("stamp ").append(day).append("08:30 in\n")
+					.append("stamp ").append(day).append("12:30 out\n")
+					.append("stamp ").append(day).append("13:00 in\n")
+					.append("stamp ").append(day).append("16:30 out\n");
+			}
+		}
+		text.append("report 30/06/2021\n");
+		Diary diary = new Diary("TestBatch.txt");
+		diary.setStartDate(LocalDate.of(2021, 6, 1));
+		DiaryBatch batch = new DiaryBatch(diary, out);
+		long start = System.nanoTime();
+		batch.run(script(text.toString()));
+		long micros = (System.nanoTime() - start) / 1000;
+		assertEquals(0, batch.getSkipped());
+		assertEquals(Duration.ofMinutes(22 * 30), diary.balanceToDate(LocalDate.of(2021, 6, 30)));
+		System.out.println(batch.getApplied() + " commands in " + micros + "us");
+	}
+
+	/**The menus read every answer from one reader, and number their options from 1.*/
+	public void testMenuOptions() throws IOException {
+		Menu.setReader(script("0\n4\nthree\n3\n2\n"));
+		PrintStream console = System.out;
+		System.setOut(out);
+		try {
+			String[] options = {"a", "b", "c"};
+			assertEquals(2, Menu.getOptionNumber(options));
+			assertEquals(1, Menu.getOptionNumber(options));						// Nothing lost between prompts
+		} finally {
+			System.setOut(console);
+			Menu.setReader(new BufferedReader(new InputStreamReader(System.in)));
+		}
+		assertTrue(new String(output.toByteArray(), StandardCharsets.UTF_8).contains("3: c"));
+	}
+
+	public static void main(String[] args) throws IOException {
+		TestDiaryBatch test = new TestDiaryBatch();
+		test.testCommands();
+		test.testBackfillMonth();
+	}
+}
@@ -0,0 +1,135 @@
+package com.github.sourzo.timeTracker;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.DayOfWeek;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalTime;
+
+import junit.framework.TestCase;
+
+public class TestDiaryCodec extends TestCase {
+
+	/**A diary with {@code years} of weekdays, each with four stamps and (sometimes) an activity.*/
+	static Diary sampleDiary(int years) {
+		Diary diary = new Diary("TestCodec.txt");
+		LocalDate start = LocalDate.of(2015, 1, 1);
+		diary.restoreSettings(start, Duration.ofHours(7), diary.getRegularNonWorkingDays());
+		for (LocalDate date = start; date.isBefore(start.plusYears(years)); date = date.plusDays(1)) {
+			if (date.getDayOfWeek() == DayOfWeek.SATURDAY || date.getDayOfWeek() == DayOfWeek.SUNDAY) {
+				continue;
+			}
+			WorkDay day = diary.get(date);
+			int offset = (int) (date.toEpochDay() % 20);
+			day.addTimeStamp(LocalTime.of(8, 30).plusMinutes(offset), StampType.IN);
+			day.addTimeStamp(LocalTime.of(12, 0).plusMinutes(offset), StampType.OUT);
+			day.addTimeStamp(LocalTime.of(12, 45), StampType.IN);
+			day.addTimeStamp(LocalTime.of(16, 30).plusMinutes(offset), StampType.OUT);
+			if (offset == 3) {
+				day.addActivity(ActivityType.MEDICAL_APPOINTMENT, Duration.ofMinutes(90));
+			}
+		}
+		return diary;
+	}
+
+	static void assertSameDays(Diary expected, Diary actual) {
+		assertEquals(expected.getStartDate(), actual.getStartDate());
+		assertEquals(expected.getDayTargetHours(), actual.getDayTargetHours());
+		assertEquals(expected.getRegularNonWorkingDays(), actual.getRegularNonWorkingDays());
+		assertEquals(expected.days().size(), actual.days().size());
+		for (WorkDay day : expected.days()) {
+			WorkDay other = actual.get(day.getDate());
+			assertEquals(day.getTimeStamps(), other.getTimeStamps());
+			assertEquals(day.getActivities(), other.getActivities());
+			assertEquals(day.getHoursWorked(), other.getHoursWorked());
+		}
+	}
+
+	public void testRoundTrip() throws IOException {
+		Diary diary = sampleDiary(2);
+		diary.get(LocalDate.of(2015, 1, 3));									// Day with nothing recorded
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DiaryCodec.write(diary, bytes);
+		Diary decoded = DiaryCodec.read(new ByteArrayInputStream(bytes.toByteArray()), "TestCodec.txt");
+		assertSameDays(diary, decoded);
+	}
+
+	public void testVarLong() throws IOException {
+		long[] values = {0, 1, 127, 128, 16383, 16384, Long.MAX_VALUE, -1, Long.MIN_VALUE};
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		for (long value : values) {
+			DiaryCodec.writeSignedVarLong(out, value);
+		}
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		for (long value : values) {
+			assertEquals(value, DiaryCodec.readSignedVarLong(in));
+		}
+	}
+
+	public void testMigrateLegacyFile() throws IOException {
+		Diary diary = sampleDiary(1);
+		ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream("TestCodec.txt"));
+		out.writeObject(diary);
+		out.close();
+
+		Diary migrated = Diary.load("TestCodec.txt");							// Old files can still be read
+		migrated.closeJournal();
+		assertSameDays(diary, migrated);
+		assertTrue(Files.exists(Paths.get("TestCodec.txt.legacy")));			// The old file is kept
+		byte[] header = Files.readAllBytes(Paths.get("TestCodec.txt"));
+		assertTrue(DiaryCodec.isCodecFormat(header));							// ...and replaced with the new format
+
+		Diary reloaded = Diary.load("TestCodec.txt");
+		reloaded.closeJournal();
+		assertSameDays(diary, reloaded);
+		Files.deleteIfExists(Paths.get("TestCodec.txt"));
+		Files.deleteIfExists(Paths.get("TestCodec.txt.legacy"));
+		Files.deleteIfExists(Paths.get("TestCodec.txt.journal"));
+		TestDiaryStore.deleteDirectory(DiarySegments.directoryFor("TestCodec.txt"));
+	}
+
+	/**Compares file size and load time with Java serialization.*/
+	public void testSizeAndLoadTime() throws IOException, ClassNotFoundException {
+		Diary diary = sampleDiary(10);
+		ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(serialized);
+		out.writeObject(diary);
+		out.close();
+		ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+		DiaryCodec.write(diary, encoded);
+		assertTrue(encoded.size() * 10 < serialized.size());					// At least 10 times smaller
+
+		int rounds = 20;
+		long serializedNanos = 0;
+		long encodedNanos = 0;
+		for (int i = 0; i < rounds; i++) {
+			long start = System.nanoTime();
+			new ObjectInputStream(new ByteArrayInputStream(serialized.toByteArray())).readObject();
+			serializedNanos += System.nanoTime() - start;
+			start = System.nanoTime();
+			DiaryCodec.read(new ByteArrayInputStream(encoded.toByteArray()), "TestCodec.txt");
+			encodedNanos += System.nanoTime() - start;
+		}
+		System.out.println(diary.days().size() + " days: serialization " + serialized.size() + " bytes, "
+				+ serializedNanos / rounds / 1000 + "us to load; codec " + encoded.size() + " bytes, "
+				+ encodedNanos / rounds / 1000 + "us to load");
+	}
+
+	public static void main(String[] args) throws IOException, ClassNotFoundException {
+		TestDiaryCodec test = new TestDiaryCodec();
+		test.testRoundTrip();
+		test.testVarLong();
+		test.testMigrateLegacyFile();
+		test.testSizeAndLoadTime();
+	}
+}
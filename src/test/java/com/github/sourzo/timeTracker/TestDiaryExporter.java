@@ -0,0 +1,145 @@
+package com.github.sourzo.timeTracker;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import junit.framework.TestCase;
+
+public class TestDiaryExporter extends TestCase {
+	private final LocalDate monday = LocalDate.of(2021, 6, 7);
+
+	private Diary smallDiary() {
+		Diary diary = new Diary("TestExport.txt");
+		diary.setStartDate(monday);
+		diary.get(monday).addTimeStamp(LocalTime.of(9, 0), StampType.IN);
+		diary.get(monday).addTimeStamp(LocalTime.of(16, 0), StampType.OUT);
+		diary.get(monday).addActivity(ActivityType.TRAINING, Duration.ofHours(1));
+		diary.get(monday.plusDays(1)).addActivity(ActivityType.SICK, Duration.ofHours(6));
+		return diary;
+	}
+
+	public void testCsv() throws IOException {
+		StringWriter out = new StringWriter();
+		DiaryExporter exporter = new DiaryExporter(out, DiaryExporter.Format.CSV);
+		exporter.export("e1", smallDiary(), monday, monday.plusDays(6));
+		exporter.export("a,\"b\"", smallDiary(), monday.plusDays(1), monday.plusDays(1));
+		exporter.close();
+		assertEquals("employee,date,record,time,type,minutes,balance\n"
+				+ "e1,2021-06-07,stamp,09:00,IN,,\n"
+				+ "e1,2021-06-07,stamp,16:00,OUT,,\n"
+				+ "e1,2021-06-07,activity,,TRAINING,60,\n"
+				+ "e1,2021-06-07,total,,,480,60\n"
+				+ "e1,2021-06-08,activity,,SICK,360,\n"
+				+ "e1,2021-06-08,total,,,360,0\n"
+				+ "\"a,\"\"b\"\"\",2021-06-08,activity,,SICK,360,\n"			// Balance carried from the day before
+				+ "\"a,\"\"b\"\"\",2021-06-08,total,,,360,0\n", out.toString());
+	}
+
+	public void testJson() throws IOException {
+		StringWriter out = new StringWriter();
+		DiaryExporter exporter = new DiaryExporter(out, DiaryExporter.Format.JSON);
+		exporter.export("e\"1", smallDiary(), monday, monday.plusDays(1));
+		exporter.close();
+		assertEquals("[\n"
+				+ "{\"employee\":\"e\\\"1\",\"date\":\"2021-06-07\",\"stamps\":[{\"time\":\"09:00\",\"type\":\"IN\"},"
+				+ "{\"time\":\"16:00\",\"type\":\"OUT\"}],\"activities\":{\"TRAINING\":60},\"minutes\":480,\"balance\":60},\n"
+				+ "{\"employee\":\"e\\\"1\",\"date\":\"2021-06-08\",\"stamps\":[],\"activities\":{\"SICK\":360},"
+				+ "\"minutes\":360,\"balance\":0}\n]\n", out.toString());
+
+		out = new StringWriter();
+		new DiaryExporter(out, DiaryExporter.Format.JSON).close();
+		assertEquals("[\n]\n", out.toString());										// Still valid when empty
+	}
+
+	public void testGzipToFileChannel() throws IOException {
+		Path file = Files.createTempFile("export", ".csv.gz");
+		try {
+			FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+			DiaryExporter exporter = DiaryExporter.open(channel, DiaryExporter.Format.CSV, true);
+			exporter.export("e1", smallDiary(), monday, monday);
+			exporter.close();
+			assertFalse(channel.isOpen());
+
+			GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(Files.readAllBytes(file)));
+			ByteArrayOutputStream text = new ByteArrayOutputStream();
+			byte[] buffer = new byte[256];
+			for (int n = in.read(buffer); n > 0; n = in.read(buffer)) {
+				text.write(buffer, 0, n);
+			}
+			assertTrue(new String(text.toByteArray(), StandardCharsets.UTF_8).endsWith("e1,2021-06-07,total,,,480,60\n"));
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+
+	/**Exporting a saved diary reads it a month at a time, and doesn't keep the months.*/
+	public void testExportDoesNotKeepMonths() throws IOException {
+		Diary diary = TestDiaryCodec.sampleDiary(3);
+		diary.saveAs("TestExport.txt");
+		diary.closeJournal();
+		try {
+			Diary loaded = Diary.load("TestExport.txt");
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DiaryExporter exporter = DiaryExporter.open(bytes, DiaryExporter.Format.CSV, false);
+			exporter.export("e1", loaded, loaded.getStartDate(), LocalDate.of(2017, 12, 31));
+			exporter.close();
+			loaded.closeJournal();
+			assertEquals(0, loaded.segments().loadedCount());
+			String csv = new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+			String lastTotal = csv.substring(csv.lastIndexOf("total,,,"));
+			String balance = lastTotal.substring(lastTotal.lastIndexOf(',') + 1).trim();
+			assertEquals(diary.balanceToDate(LocalDate.of(2017, 12, 31)).toMinutes(), Long.parseLong(balance));
+		} finally {
+			Files.deleteIfExists(Paths.get("TestExport.txt"));
+			Files.deleteIfExists(DiaryJournal.pathFor("TestExport.txt"));
+			TestDiaryStore.deleteDirectory(DiarySegments.directoryFor("TestExport.txt"));
+		}
+	}
+
+	/**A diary which can't be read is listed rather than exported as empty, and isn't changed.*/
+	public void testUnreadableDiary() throws IOException {
+		Path directory = Files.createTempDirectory("export");
+		try {
+			Path good = directory.resolve("e1" + DiaryStore.FILE_EXTENSION);
+			smallDiary().saveAs(good.toString());
+			Files.deleteIfExists(DiaryJournal.pathFor(good.toString()));
+			Path broken = directory.resolve("broken" + DiaryStore.FILE_EXTENSION);
+			Files.write(broken, new byte[] {1, 2, 3, 4, 5, 6});
+			StringWriter out = new StringWriter();
+			DiaryExporter exporter = new DiaryExporter(out, DiaryExporter.Format.CSV);
+			List<String> failures = exporter.exportAll(Arrays.asList(broken, good), monday, monday);
+			exporter.close();
+			assertEquals(1, failures.size());
+			assertTrue(failures.get(0).startsWith(broken + "\t"));
+			assertTrue(out.toString().endsWith("e1,2021-06-07,total,,,480,60\n"));
+			assertEquals(6, Files.size(broken));
+			assertFalse(Files.exists(DiaryJournal.pathFor(broken.toString())));
+			assertFalse(Files.exists(DiaryJournal.pathFor(good.toString())));
+		} finally {
+			TestDiaryStore.deleteDirectory(directory);
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		TestDiaryExporter test = new TestDiaryExporter();
+		test.testCsv();
+		test.testJson();
+		test.testGzipToFileChannel();
+		test.testExportDoesNotKeepMonths();
+		test.testUnreadableDiary();
+	}
+}
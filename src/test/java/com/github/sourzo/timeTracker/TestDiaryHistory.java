@@ -0,0 +1,159 @@
+package com.github.sourzo.timeTracker;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import junit.framework.TestCase;
+
+public class TestDiaryHistory extends TestCase {
+	private static final String FILE_NAME = "TestHistory.txt";
+	private final LocalDate monday = LocalDate.of(2021, 6, 7);
+
+	public void tearDown() throws IOException {
+		Files.deleteIfExists(Paths.get(FILE_NAME));
+		Files.deleteIfExists(DiaryJournal.pathFor(FILE_NAME));
+		TestDiaryStore.deleteDirectory(DiarySegments.directoryFor(FILE_NAME));
+	}
+
+	private static Instant pause() throws InterruptedException {
+		Thread.sleep(5);
+		Instant now = Instant.now();
+		Thread.sleep(5);
+		return now;
+	}
+
+	public void testBalanceAsOf() throws Exception {
+		Diary diary = Diary.load(FILE_NAME);
+		diary.setStartDate(monday);
+		diary.get(monday).addTimeStamp(LocalTime.of(9, 0), StampType.IN);
+		diary.get(monday).addTimeStamp(LocalTime.of(17, 0), StampType.OUT);
+		Instant beforeAmending = pause();
+		diary.get(monday).removeTimeStamp(LocalTime.of(17, 0));
+		diary.get(monday).addTimeStamp(LocalTime.of(15, 0), StampType.OUT);
+		diary.save();																// Saving doesn't lose the history
+
+		Diary then = diary.asOf(beforeAmending);
+		assertEquals(Duration.ofHours(8), then.get(monday).getHoursWorked());
+		assertEquals(diary.balanceToDate(monday).plusHours(2), then.balanceToDate(monday));
+		assertEquals(Duration.ofHours(6), diary.asOf(Instant.now()).get(monday).getHoursWorked());
+		then.get(monday).addActivity(ActivityType.TRAINING, Duration.ofHours(1));	// A copy
+		assertEquals(Duration.ofHours(6), diary.get(monday).getHoursWorked());
+		assertEquals(Duration.ofHours(0), diary.asOf(Instant.EPOCH).get(monday).getHoursWorked());	// Before any stamps
+		diary.closeJournal();
+
+		Diary reloaded = Diary.load(FILE_NAME);
+		assertEquals(Duration.ofHours(8), reloaded.asOf(beforeAmending).get(monday).getHoursWorked());
+		reloaded.closeJournal();
+	}
+
+	public void testSnapshotsBoundReplay() throws Exception {
+		Diary diary = Diary.load(FILE_NAME);
+		diary.setSnapshotInterval(10);
+		diary.setStartDate(monday);
+		for (int i = 0; i < 17; i++) {
+			diary.get(monday.plusDays(i)).addTimeStamp(LocalTime.of(9, 0), StampType.IN);
+			diary.get(monday.plusDays(i)).addTimeStamp(LocalTime.of(17, 0), StampType.OUT);
+		}
+		Instant now = pause();
+		DiaryHistory.awaitSnapshots();
+		Path directory = DiaryHistory.directoryFor(FILE_NAME);
+		for (int snapshot = 0; snapshot <= 50; snapshot += 10) {
+			assertTrue(Files.exists(directory.resolve("snapshot." + snapshot)));		// Written as the changes were made
+		}
+		assertFalse(Files.exists(directory.resolve("start")));
+		assertFalse(Files.exists(directory.resolve("snapshot.60")));
+		assertEquals(diary.balanceToDate(monday.plusDays(20)), diary.asOf(now).balanceToDate(monday.plusDays(20)));
+
+		Files.delete(directory.resolve("snapshot.0"));								// No longer needed...
+		Diary then = diary.asOf(now);												// ...as replay starts at the nearest one
+		assertEquals(diary.balanceToDate(monday.plusDays(20)), then.balanceToDate(monday.plusDays(20)));
+		assertEquals(diary.get(monday.plusDays(16)).getTimeStamps(), then.get(monday.plusDays(16)).getTimeStamps());
+		diary.closeJournal();
+	}
+
+	/**Loading a diary doesn't start its history; the first change does, keeping the diary as it was before it.*/
+	public void testStartedByFirstChange() throws Exception {
+		Diary diary = Diary.load(FILE_NAME);
+		diary.get(monday).addTimeStamp(LocalTime.of(9, 0), StampType.IN);
+		diary.save();
+		diary.closeJournal();
+		TestDiaryStore.deleteDirectory(DiaryHistory.directoryFor(FILE_NAME));		// As if saved before histories
+
+		diary = Diary.load(FILE_NAME);
+		diary.balanceToDate(monday);
+		assertFalse(Files.exists(DiaryHistory.directoryFor(FILE_NAME)));			// Only read
+		assertEquals(1, diary.asOf(Instant.now()).get(monday).getTimeStamps().size());
+		Instant beforeChange = pause();
+		diary.get(monday).addTimeStamp(LocalTime.of(17, 0), StampType.OUT);
+		DiaryHistory.awaitSnapshots();
+		assertTrue(Files.exists(DiaryHistory.directoryFor(FILE_NAME).resolve("snapshot.0")));
+		assertEquals(1, diary.asOf(beforeChange).get(monday).getTimeStamps().size());
+		assertEquals(Duration.ofHours(8), diary.asOf(Instant.now()).get(monday).getHoursWorked());
+		diary.closeJournal();
+	}
+
+	/**Questions asked at once about a history without snapshots each write them safely.*/
+	public void testConcurrentQuestions() throws Exception {
+		Diary diary = Diary.load(FILE_NAME);
+		diary.setStartDate(monday);
+		for (int i = 0; i < 40; i++) {
+			diary.get(monday.plusDays(i)).addTimeStamp(LocalTime.of(9, 0), StampType.IN);
+		}
+		Instant now = pause();
+		diary.setSnapshotInterval(5);													// Only snapshot 0 so far
+		Duration balance = diary.balanceToDate(monday.plusDays(40));
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+		List<Future<Duration>> answers = new ArrayList<>();
+		for (int i = 0; i < 8; i++) {
+			answers.add(pool.submit(() -> diary.asOf(now).balanceToDate(monday.plusDays(40))));
+		}
+		for (Future<Duration> answer : answers) {
+			assertEquals(balance, answer.get());
+		}
+		pool.shutdown();
+		try (Stream<Path> files = Files.list(DiaryHistory.directoryFor(FILE_NAME))) {
+			assertFalse(files.anyMatch(file -> file.toString().endsWith(".tmp")));
+		}
+		diary.closeJournal();
+	}
+
+	/**A change which can't be written to the history is still journalled.*/
+	public void testHistoryFailureKeepsChange() throws Exception {
+		Diary diary = Diary.load(FILE_NAME);
+		Path history = DiaryHistory.directoryFor(FILE_NAME);
+		Files.createDirectories(history.getParent());
+		Files.write(history, new byte[] {1});										// So the history can't start
+		diary.get(monday).addTimeStamp(LocalTime.of(9, 0), StampType.IN);
+		diary.closeJournal();
+
+		Diary reloaded = Diary.load(FILE_NAME);
+		assertEquals(1, reloaded.get(monday).getTimeStamps().size());
+		reloaded.closeJournal();
+	}
+
+	public static void main(String[] args) throws Exception {
+		TestDiaryHistory test = new TestDiaryHistory();
+		test.testBalanceAsOf();
+		test.tearDown();
+		test.testSnapshotsBoundReplay();
+		test.tearDown();
+		test.testStartedByFirstChange();
+		test.tearDown();
+		test.testConcurrentQuestions();
+		test.tearDown();
+		test.testHistoryFailureKeepsChange();
+		test.tearDown();
+	}
+}
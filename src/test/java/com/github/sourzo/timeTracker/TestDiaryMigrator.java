@@ -0,0 +1,129 @@
+package com.github.sourzo.timeTracker;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import junit.framework.TestCase;
+
+public class TestDiaryMigrator extends TestCase {
+	private Path sources;
+	private Path target;
+
+	public void setUp() throws IOException {
+		CUI.setMessages(false);
+		sources = Files.createTempDirectory("migrateFrom");
+		target = Files.createTempDirectory("migrateTo");
+	}
+
+	public void tearDown() throws IOException {
+		TestDiaryStore.deleteDirectory(sources);
+		TestDiaryStore.deleteDirectory(target);
+		CUI.setMessages(true);
+	}
+
+	public void testMigrate() throws Exception {
+		Diary sample = TestDiaryCodec.sampleDiary(1);
+		try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(sources.resolve("alice.txt").toFile()))) {
+			out.writeObject(sample);															// Java serialization
+		}
+		try (FileOutputStream out = new FileOutputStream(sources.resolve("carol.txt").toFile())) {
+			DiaryCodec.write(sample, out);														// One file
+		}
+		Files.createDirectory(sources.resolve("dave"));
+		try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(sources.resolve("dave").resolve(Diary.defaultFileName).toFile()))) {
+			out.writeObject(sample);
+		}
+		String bobFile = sources.resolve("bob.txt").toString();
+		Diary bob = Diary.load(bobFile);														// The current format
+		bob.get(LocalDate.of(2021, 3, 1)).addTimeStamp(LocalTime.of(9, 0), StampType.IN);
+		bob.save();
+		bob.get(LocalDate.of(2021, 3, 1)).addTimeStamp(LocalTime.of(17, 0), StampType.OUT);	// Only journalled
+		bob.closeJournal();
+		Files.write(sources.resolve("broken.txt"), new byte[] {1, 2, 3, 4, 5, 6});
+		Files.write(sources.resolve("bad name.txt"), new byte[0]);
+		Path missing = sources.resolve("missing.txt");
+		new DiaryStore(target).update("erin", diary -> diary.save());							// Already in the store
+		Files.copy(sources.resolve("carol.txt"), sources.resolve("erin.txt"));
+
+		List<Path> files = DiaryMigrator.diaryFilesIn(sources);
+		assertFalse(files.contains(DiaryJournal.pathFor(bobFile)));
+		files.add(sources.resolve("dave").resolve(Diary.defaultFileName));
+		files.add(missing);
+		DiaryMigrator.Result result = new DiaryMigrator(new DiaryStore(target), 2).migrate(files);
+
+		assertEquals(new TreeSet<>(Arrays.asList("alice", "bob", "carol", "dave")), new TreeSet<>(result.getMigrated()));
+		assertEquals(3 * sample.days().size() + 1, result.getDays());
+		Map<String, DiaryMigrator.Failure.Stage> failures = new HashMap<>();
+		for (DiaryMigrator.Failure failure : result.getFailures()) {
+			failures.put(failure.getSource().getFileName().toString(), failure.getStage());
+		}
+		assertEquals(DiaryMigrator.Failure.Stage.READ, failures.get("broken.txt"));
+		assertEquals(DiaryMigrator.Failure.Stage.NAME, failures.get("bad name.txt"));
+		assertEquals(DiaryMigrator.Failure.Stage.READ, failures.get("missing.txt"));
+		assertEquals(DiaryMigrator.Failure.Stage.TARGET_EXISTS, failures.get("erin.txt"));
+		assertEquals(4, failures.size());
+		assertFalse(Files.exists(missing));													// Nothing is created...
+		assertFalse(Files.exists(sources.resolve("alice.txt.legacy")));						// ...or converted
+
+		DiaryStore store = new DiaryStore(target);
+		for (String employeeId : Arrays.asList("alice", "carol", "dave")) {
+			TestDiaryCodec.assertSameDays(sample, store.withDiary(employeeId, diary -> diary));
+		}
+		assertEquals(Duration.ofHours(8), store.withDiary("bob", diary -> diary.get(LocalDate.of(2021, 3, 1)).getHoursWorked()));
+		store.close();
+
+		result = new DiaryMigrator(new DiaryStore(target), 2).migrate(files);				// Carries on where it left off
+		assertEquals(0, result.getMigrated().size());
+		assertEquals(4, result.getSkipped().size());
+		assertEquals(4, result.getFailures().size());
+	}
+
+	/**A run stopped after writing a diary, but before noting the file as moved, is carried on by the next.*/
+	public void testResumeAfterWrite() throws Exception {
+		Diary sample = TestDiaryCodec.sampleDiary(1);
+		try (FileOutputStream out = new FileOutputStream(sources.resolve("alice.txt").toFile())) {
+			DiaryCodec.write(sample, out);
+		}
+		List<Path> files = DiaryMigrator.diaryFilesIn(sources);
+		assertEquals(1, new DiaryMigrator(new DiaryStore(target), 1).migrate(files).getMigrated().size());
+		Path progress = target.resolve(DiaryMigrator.PROGRESS_FILE_NAME);
+		List<String> lines = Files.readAllLines(progress);
+		assertEquals(2, lines.size());
+		Files.write(progress, lines.subList(0, 1));											// Only "started"
+
+		DiaryMigrator.Result result = new DiaryMigrator(new DiaryStore(target), 1).migrate(files);
+		assertEquals(Arrays.asList("alice"), result.getMigrated());
+		assertEquals(0, result.getFailures().size());
+		assertEquals(sample.days().size(), result.getDays());
+		result = new DiaryMigrator(new DiaryStore(target), 1).migrate(files);
+		assertEquals(1, result.getSkipped().size());
+	}
+
+	public void testEmployeeIds() {
+		assertEquals("alice", DiaryMigrator.employeeIdFor(sources.resolve("alice.txt")));
+		assertEquals("alice", DiaryMigrator.employeeIdFor(sources.resolve("alice").resolve(Diary.defaultFileName)));
+		assertEquals("bob", DiaryMigrator.employeeIdFor(sources.resolve("bob")));
+	}
+
+	public static void main(String[] args) throws Exception {
+		TestDiaryMigrator test = new TestDiaryMigrator();
+		test.setUp();
+		test.testMigrate();
+		test.testEmployeeIds();
+		test.tearDown();
+		test.setUp();
+		test.testResumeAfterWrite();
+		test.tearDown();
+	}
+}
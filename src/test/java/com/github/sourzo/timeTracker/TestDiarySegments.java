@@ -0,0 +1,219 @@
+package com.github.sourzo.timeTracker;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.YearMonth;
+import java.util.stream.Stream;
+
+import junit.framework.TestCase;
+
+public class TestDiarySegments extends TestCase {
+	private static final String FILE_NAME = "TestSegments.txt";
+
+	public void tearDown() throws IOException {
+		Files.deleteIfExists(Paths.get(FILE_NAME));
+		Files.deleteIfExists(Paths.get(FILE_NAME + ".legacy"));
+		Files.deleteIfExists(Paths.get(FILE_NAME + ".tmp"));
+		Files.deleteIfExists(DiaryJournal.pathFor(FILE_NAME));
+		TestDiaryStore.deleteDirectory(DiarySegments.directoryFor(FILE_NAME));
+	}
+
+	private static long segmentFileCount() throws IOException {
+		try (Stream<Path> files = Files.list(DiarySegments.directoryFor(FILE_NAME))) {
+			return files.filter(Files::isRegularFile).count();
+		}
+	}
+
+	/**Sample diary (two years from 2015) saved under {@link #FILE_NAME}.*/
+	private static Diary savedSample() {
+		Diary diary = TestDiaryCodec.sampleDiary(2);
+		diary.saveAs(FILE_NAME);
+		diary.closeJournal();
+		return diary;
+	}
+
+	public void testLoadsMonthsWhenUsed() throws IOException {
+		Diary diary = savedSample();
+		assertEquals(2, segmentFileCount());										// One archive per closed year
+
+		Diary loaded = Diary.load(FILE_NAME);
+		assertEquals(0, loaded.segments().loadedCount());							// Nothing read but the manifest
+		assertEquals(diary.balanceToDate(diary.getStartDate(), LocalDate.of(2016, 12, 31)),
+				loaded.balanceToDate(loaded.getStartDate(), LocalDate.of(2016, 12, 31)));
+		assertEquals(diary.getUnrecordedDays(), loaded.getUnrecordedDays());
+		assertEquals(0, loaded.segments().loadedCount());							// Whole months come from the manifest
+
+		LocalDate day = LocalDate.of(2015, 6, 10);
+		assertEquals(diary.get(day).getTimeStamps(), loaded.get(day).getTimeStamps());
+		assertEquals(1, loaded.segments().loadedCount());							// Only June was inflated
+		assertEquals(diary.balanceToDate(day, day.plusDays(3)), loaded.balanceToDate(day, day.plusDays(3)));
+		assertEquals(diary.balanceToDate(day.minusDays(30), day.plusDays(100)),
+				loaded.balanceToDate(day.minusDays(30), day.plusDays(100)));		// Reads May and September
+		assertEquals(3, loaded.segments().loadedCount());
+		assertEquals(diary.recalculateBalance(), loaded.recalculateBalance());
+		loaded.closeJournal();
+
+		TestDiaryCodec.assertSameDays(diary, Diary.load(FILE_NAME));				// Reads everything
+	}
+
+	public void testSavesChangedMonths() throws IOException {
+		int year = LocalDate.now().getYear() + 1;									// Not closed, so not archived
+		Diary diary = new Diary(FILE_NAME);
+		diary.get(LocalDate.of(year, 6, 10)).addTimeStamp(LocalTime.of(9, 0), StampType.IN);
+		diary.get(LocalDate.of(year, 7, 10)).addTimeStamp(LocalTime.of(9, 0), StampType.IN);
+		diary.save();
+		diary.closeJournal();
+		Path june = DiarySegments.pathFor(FILE_NAME, diary.segments().get(YearMonth.of(year, 6)));
+		Path july = DiarySegments.pathFor(FILE_NAME, diary.segments().get(YearMonth.of(year, 7)));
+
+		diary = Diary.load(FILE_NAME);
+		LocalDate day = LocalDate.of(year, 6, 10);
+		diary.get(day).addActivity(ActivityType.TRAINING, Duration.ofMinutes(30));
+		diary.get(LocalDate.of(year, 8, 4)).addTimeStamp(LocalTime.of(10, 0), StampType.IN);	// A new month
+		diary.save();
+		diary.closeJournal();
+		assertFalse(Files.exists(june));											// June was rewritten...
+		assertTrue(Files.exists(july));												// ...but July wasn't
+		assertEquals(3, segmentFileCount());
+		assertEquals(2, diary.segments().loadedCount());
+
+		Diary loaded = Diary.load(FILE_NAME);
+		assertEquals(Duration.ofMinutes(30), loaded.get(day).getActivities().get(ActivityType.TRAINING));
+		assertEquals(diary.recalculateBalance(), loaded.recalculateBalance());
+		loaded.closeJournal();
+	}
+
+	/**A save which fails leaves the months as they were, so the next one still replaces their old files.*/
+	public void testFailedSave() throws IOException {
+		int year = LocalDate.now().getYear() + 1;
+		Diary diary = new Diary(FILE_NAME);
+		diary.get(LocalDate.of(year, 6, 10)).addTimeStamp(LocalTime.of(9, 0), StampType.IN);
+		diary.get(LocalDate.of(year, 7, 10)).addTimeStamp(LocalTime.of(9, 0), StampType.IN);
+		diary.save();
+		DiarySegments.Segment june = diary.segments().get(YearMonth.of(year, 6));
+		Path oldJune = DiarySegments.pathFor(FILE_NAME, june);
+
+		diary.get(LocalDate.of(year, 6, 10)).addTimeStamp(LocalTime.of(17, 0), StampType.OUT);
+		Path tempPath = Paths.get(FILE_NAME + ".tmp");
+		Files.createDirectory(tempPath);												// The manifest can't be written
+		diary.save();
+		assertTrue(june.changed);
+		assertEquals(oldJune, DiarySegments.pathFor(FILE_NAME, june));
+		Files.delete(tempPath);
+
+		diary.save();
+		diary.closeJournal();
+		assertFalse(Files.exists(oldJune));
+		assertEquals(2, segmentFileCount());
+		Diary loaded = Diary.load(FILE_NAME);
+		assertEquals(Duration.ofHours(8), loaded.get(LocalDate.of(year, 6, 10)).getHoursWorked());
+		loaded.closeJournal();
+	}
+
+	public void testArchivesClosedYears() throws IOException {
+		Diary diary = savedSample();
+		Path archive = DiaryArchive.pathFor(FILE_NAME, 2015, diary.getGeneration());
+		DiaryArchive.Index index = DiaryArchive.readIndex(archive);
+		assertEquals(12, index.blocks.size());
+		int dayCount = 0;
+		long minutesWorked = 0;
+		for (WorkDay day : diary.daysBetween(LocalDate.of(2015, 1, 1), LocalDate.of(2015, 12, 31))) {
+			dayCount++;
+			minutesWorked += day.getMinutesWorked();
+		}
+		assertEquals(dayCount, index.dayCount);										// Yearly totals
+		assertEquals(minutesWorked, index.minutesWorked);
+
+		Diary loaded = Diary.load(FILE_NAME);
+		LocalDate day = LocalDate.of(2015, 6, 10);
+		assertEquals(diary.get(day).getTimeStamps(), loaded.get(day).getTimeStamps());
+		assertEquals(1, loaded.segments().loadedCount());
+
+		loaded.get(day).addActivity(ActivityType.TRAINING, Duration.ofMinutes(30));
+		loaded.save();
+		loaded.closeJournal();
+		assertFalse(Files.exists(archive));											// 2015 was archived again...
+		assertEquals(2, segmentFileCount());										// ...replacing the old one
+		assertEquals(1, loaded.segments().loadedCount());							// The rest of 2015 was dropped again
+
+		Diary reloaded = Diary.load(FILE_NAME);
+		assertEquals(Duration.ofMinutes(30), reloaded.get(day).getActivities().get(ActivityType.TRAINING));
+		assertEquals(loaded.recalculateBalance(), reloaded.recalculateBalance());
+		reloaded.closeJournal();
+	}
+
+	/**Rewriting every month of an archived year leaves nothing in the old archive, so it goes too.*/
+	public void testRewritesWholeArchivedYear() throws IOException {
+		Diary diary = savedSample();
+		Path archive = DiaryArchive.pathFor(FILE_NAME, 2015, diary.getGeneration());
+		Diary loaded = Diary.load(FILE_NAME);
+		for (int month = 1; month <= 12; month++) {
+			loaded.get(LocalDate.of(2015, month, 10)).addActivity(ActivityType.TRAINING, Duration.ofMinutes(30));
+		}
+		loaded.save();
+		loaded.closeJournal();
+		assertFalse(Files.exists(archive));
+		assertEquals(2, segmentFileCount());
+
+		Diary reloaded = Diary.load(FILE_NAME);
+		assertEquals(Duration.ofMinutes(30), reloaded.get(LocalDate.of(2015, 12, 10)).getActivities().get(ActivityType.TRAINING));
+		assertEquals(loaded.recalculateBalance(), reloaded.recalculateBalance());
+		reloaded.closeJournal();
+	}
+
+	public void testMigrateSingleFile() throws IOException {
+		Diary diary = TestDiaryCodec.sampleDiary(1);
+		FileOutputStream out = new FileOutputStream(FILE_NAME);
+		DiaryCodec.write(diary, out);
+		out.close();
+
+		Diary migrated = Diary.load(FILE_NAME);
+		migrated.closeJournal();
+		assertEquals(1, segmentFileCount());										// 2015 is archived
+		assertTrue(Files.exists(Paths.get(FILE_NAME + ".legacy")));
+		Diary reloaded = Diary.load(FILE_NAME);
+		reloaded.closeJournal();
+		TestDiaryCodec.assertSameDays(diary, reloaded);
+	}
+
+	/**Compares the time to load the diary file and one day with reading it in one piece.*/
+	public void testLoadTime() throws IOException {
+		Diary diary = TestDiaryCodec.sampleDiary(20);
+		diary.saveAs(FILE_NAME);
+		diary.closeJournal();
+		ByteArrayOutputStream whole = new ByteArrayOutputStream();
+		DiaryCodec.write(diary, whole);
+		Path wholeFile = Paths.get(FILE_NAME + ".legacy");
+		Files.write(wholeFile, whole.toByteArray());
+
+		int rounds = 10;
+		long segmentedNanos = 0;
+		long wholeNanos = 0;
+		for (int i = 0; i < rounds; i++) {
+			long start = System.nanoTime();
+			Diary loaded = Diary.load(FILE_NAME);
+			loaded.get(LocalDate.of(2020, 3, 2));
+			segmentedNanos += System.nanoTime() - start;
+			loaded.closeJournal();
+			start = System.nanoTime();
+			DiaryCodec.read(Files.newInputStream(wholeFile), FILE_NAME).get(LocalDate.of(2020, 3, 2));
+			wholeNanos += System.nanoTime() - start;
+		}
+		assertTrue(segmentedNanos < wholeNanos);
+		System.out.println(diary.days().size() + " days: " + segmentedNanos / rounds / 1000 + "us to load one month, "
+				+ wholeNanos / rounds / 1000 + "us to load all of them");
+	}
+
+	public static void main(String[] args) throws IOException {
+		TestDiarySegments test = new TestDiarySegments();
+		test.testLoadTime();
+		test.tearDown();
+	}
+}
@@ -0,0 +1,125 @@
+package com.github.sourzo.timeTracker;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import junit.framework.TestCase;
+
+public class TestDiarySnapshot extends TestCase {
+	private Path directory;
+
+	public void setUp() throws IOException {
+		CUI.setMessages(false);
+		directory = Files.createTempDirectory("snapshot");
+	}
+
+	public void tearDown() throws IOException {
+		TestDiaryStore.deleteDirectory(directory);
+		CUI.setMessages(true);
+	}
+
+	/**A snapshot answers as the diary did when it was taken, whatever happens to the diary after.*/
+	public void testUnchangedByLaterChanges() throws IOException {
+		String fileName = directory.resolve("sample.diary").toString();
+		Diary sample = TestDiaryCodec.sampleDiary(2);
+		sample.saveAs(fileName);
+		sample.closeJournal();
+		Diary diary = Diary.load(fileName);
+		LocalDate day = LocalDate.of(2015, 6, 10);
+		LocalDate end = LocalDate.of(2016, 12, 31);
+
+		DiarySnapshot before = diary.snapshot();
+		assertEquals(0, diary.segments().loadedCount());									// Nothing read to take it
+		assertEquals(sample.balanceToDate(end), before.balanceToDate(end));
+		assertEquals(sample.balanceToDate(day, day.plusDays(40)), before.balanceToDate(day, day.plusDays(40)));
+		assertEquals(sample.getWeek(day).getBalance(), before.getWeek(day).getBalance());
+		assertEquals(sample.getMonth(YearMonth.of(2016, 2)).getHoursWorked(), before.getMonth(YearMonth.of(2016, 2)).getHoursWorked());
+		assertEquals(sample.getUnrecordedDays(), before.getUnrecordedDays());
+		assertEquals(sample.countUnrecordedDays(day, end), before.countUnrecordedDays(day, end));
+		assertEquals(0, diary.segments().loadedCount());									// Read without the diary
+		Duration balance = before.balanceToDate(end);
+
+		diary.get(day).addActivity(ActivityType.TRAINING, Duration.ofHours(1));
+		diary.get(LocalDate.of(2015, 6, 13)).addTimeStamp(LocalTime.of(10, 0), StampType.IN);	// A Saturday
+		DiarySnapshot after = diary.snapshot();
+		assertEquals(balance, before.balanceToDate(end));
+		assertEquals(sample.getWeek(day).getBalance(), before.getWeek(day).getBalance());
+		assertEquals(balance.plusHours(1), after.balanceToDate(end));
+		assertEquals(diary.getWeek(day).getBalance(), after.getWeek(day).getBalance());
+		assertEquals(diary.getMissedStampDays(day, end), after.getMissedStampDays(day, end));
+		assertFalse(before.getMissedStampDays(day, end).contains(LocalDate.of(2015, 6, 13)));
+
+		diary.save();																		// Replaces the 2015 archive
+		diary.closeJournal();
+		try {
+			before.getWeek(day);																// June has changed since
+			fail();
+		} catch (UncheckedIOException e) {
+			//Expected
+		}
+		assertEquals(balance, before.balanceToDate(end));									// From the totals
+		assertEquals(sample.getMonth(YearMonth.of(2016, 2)).getHoursWorked(), before.getMonth(YearMonth.of(2016, 2)).getHoursWorked());
+		assertEquals(sample.getMonth(YearMonth.of(2015, 3)).getBalance(),
+				after.getMonth(YearMonth.of(2015, 3)).getBalance());							// Unchanged, so read from the new archive
+		assertEquals(diary.getWeek(day).getBalance(), after.getWeek(day).getBalance());
+	}
+
+	/**Reports on snapshots while another thread changes the diary always see a consistent diary.*/
+	public void testReadersDuringChanges() throws Exception {
+		Diary diary = new Diary();
+		LocalDate start = LocalDate.of(2021, 1, 4);
+		diary.setStartDate(start);
+		LocalDate end = start.plusWeeks(26).minusDays(1);
+		AtomicBoolean writing = new AtomicBoolean(true);
+		ExecutorService readers = Executors.newFixedThreadPool(4);
+		List<Future<Integer>> reports = new ArrayList<>();
+		for (int r = 0; r < 4; r++) {
+			reports.add(readers.submit(() -> {
+				int checked = 0;
+				while (writing.get() || checked == 0) {
+					DiarySnapshot snapshot = diary.snapshot();
+					Duration weeks = Duration.ZERO;
+					for (LocalDate monday = start; monday.isBefore(end); monday = monday.plusWeeks(1)) {
+						weeks = weeks.plus(snapshot.getWeek(monday).getBalance());
+					}
+					assertEquals(snapshot.balanceToDate(start, end), weeks);
+					checked++;
+				}
+				return checked;
+			}));
+		}
+		for (int i = 0; i < 20000; i++) {
+			LocalDate date = start.plusDays(i % 182);
+			diary.get(date).addActivity(ActivityType.WORK, Duration.ofMinutes(1 + i % 7));
+		}
+		writing.set(false);
+		int checked = 0;
+		for (Future<Integer> report : reports) {
+			checked += report.get();
+		}
+		readers.shutdown();
+		assertTrue(checked > 0);
+		assertEquals(diary.balanceToDate(start, end), diary.snapshot().balanceToDate(start, end));
+		assertEquals(diary.getUnrecordedDays(), diary.snapshot().getUnrecordedDays());
+	}
+
+	public static void main(String[] args) throws Exception {
+		TestDiarySnapshot test = new TestDiarySnapshot();
+		test.setUp();
+		test.testUnchangedByLaterChanges();
+		test.testReadersDuringChanges();
+		test.tearDown();
+	}
+}
@@ -0,0 +1,124 @@
+package com.github.sourzo.timeTracker;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import junit.framework.TestCase;
+
+public class TestDiaryStore extends TestCase {
+	private Path directory;
+	private DiaryStore store;
+
+	public void setUp() throws IOException {
+		CUI.setMessages(false);
+		directory = Files.createTempDirectory("diaryStore");
+		store = new DiaryStore(directory, 8);
+	}
+
+	public void tearDown() throws IOException {
+		store.close();
+		deleteDirectory(directory);
+		CUI.setMessages(true);
+	}
+
+	static void deleteDirectory(Path directory) throws IOException {
+		if (!Files.exists(directory)) {
+			return;
+		}
+		try (Stream<Path> files = Files.walk(directory)) {
+			for (Object file : files.sorted(Comparator.reverseOrder()).toArray()) {
+				Files.deleteIfExists((Path) file);
+			}
+		}
+	}
+
+	public void testLazyLoading() {
+		assertFalse(store.isLoaded("e1"));
+		store.addActivity("e1", ActivityType.TRAINING, Duration.ofHours(1));
+		assertTrue(store.isLoaded("e1"));										// Loaded when first used
+		assertFalse(store.isLoaded("e2"));
+		assertTrue(Files.exists(store.fileFor("e1")));
+
+		store.close();															// Changes are journalled, so survive a reload
+		assertEquals(Duration.ofHours(1), store.withDiary("e1",
+				diary -> diary.get(LocalDate.now()).getActivities().get(ActivityType.TRAINING)));
+	}
+
+	public void testInvalidEmployeeId() {
+		try {
+			store.stamp("../elsewhere", StampType.IN);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	/**A diary which can't be read fails each request, rather than taking stamps in an empty diary.*/
+	public void testUnreadableDiary() throws IOException {
+		byte[] corrupt = {1, 2, 3, 4, 5, 6};
+		Files.write(store.fileFor("e1"), corrupt);
+		for (int attempt = 0; attempt < 2; attempt++) {
+			try {
+				store.stamp("e1", StampType.IN);
+				fail();
+			} catch (UncheckedIOException e) {
+				// expected
+			}
+		}
+		assertFalse(store.isLoaded("e1"));
+		store.saveAll();
+		store.close();
+		assertTrue(Arrays.equals(corrupt, Files.readAllBytes(store.fileFor("e1"))));		// Left as it was
+		assertFalse(Files.exists(DiaryJournal.pathFor(store.fileFor("e1").toString())));
+		assertEquals(1, directory.toFile().list().length);
+	}
+
+	public void testConcurrentChanges() throws Exception {
+		int employees = 50;
+		int changesEach = 40;
+		ExecutorService pool = Executors.newFixedThreadPool(16);
+		List<Future<?>> results = new ArrayList<>();
+		for (int change = 0; change < changesEach; change++) {
+			for (int e = 0; e < employees; e++) {
+				String employeeId = "e" + e;
+				results.add(pool.submit(() -> store.addActivity(employeeId, ActivityType.WORK, Duration.ofMinutes(1))));
+				results.add(pool.submit(() -> store.stamp(employeeId, StampType.IN)));
+				results.add(pool.submit(() -> store.balanceToDate(employeeId, LocalDate.now(), LocalDate.now())));
+			}
+		}
+		for (Future<?> result : results) {
+			result.get();
+		}
+		pool.shutdown();
+		assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+
+		for (int e = 0; e < employees; e++) {									// No changes were lost
+			Duration work = store.withDiary("e" + e,
+					diary -> diary.get(LocalDate.now()).getActivities().get(ActivityType.WORK));
+			assertEquals(Duration.ofMinutes(changesEach), work);
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		TestDiaryStore test = new TestDiaryStore();
+		test.setUp();
+		test.testLazyLoading();
+		test.tearDown();
+		test.setUp();
+		test.testConcurrentChanges();
+		test.tearDown();
+	}
+}
@@ -0,0 +1,87 @@
+package com.github.sourzo.timeTracker;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class TestLoadDriver extends TestCase {
+	private Path directory;
+
+	public void setUp() throws IOException {
+		CUI.setMessages(false);
+		directory = Files.createTempDirectory("loadDriver");
+	}
+
+	public void tearDown() throws IOException {
+		TestDiaryStore.deleteDirectory(directory);
+		CUI.setMessages(true);
+	}
+
+	/**A seed always gives the same script, which reads back from a file as it was written.*/
+	public void testScript() throws IOException {
+		List<String> employeeIds = Arrays.asList("a", "b", "c");
+		List<LoadDriver.Request> script = LoadDriver.script(9, employeeIds, 500, LoadDriver.DEFAULT_MIX);
+		assertEquals(script.toString(), LoadDriver.script(9, employeeIds, 500, LoadDriver.DEFAULT_MIX).toString());
+		assertFalse(script.toString().equals(LoadDriver.script(10, employeeIds, 500, LoadDriver.DEFAULT_MIX).toString()));
+		int[] counts = new int[LoadDriver.Operation.values().length];
+		for (LoadDriver.Request request : script) {
+			counts[request.operation.ordinal()]++;
+		}
+		for (int i = 0; i < counts.length; i++) {
+			assertTrue(counts[i] > 0);
+		}
+		assertTrue(counts[LoadDriver.Operation.STAMP.ordinal()] > counts[LoadDriver.Operation.REPORT.ordinal()]);
+
+		Path file = directory.resolve("script.txt");
+		LoadDriver.write(script, file);
+		assertEquals(script.toString(), LoadDriver.read(file).toString());
+		for (LoadDriver.Request request : LoadDriver.script(9, employeeIds, 50, new int[] {0, 0, 1})) {
+			assertEquals(LoadDriver.Operation.REPORT, request.operation);
+		}
+	}
+
+	public void testRun() throws Exception {
+		new WorkloadGenerator(2, LocalDate.now(), 1).populate(directory, 4);
+		List<String> employeeIds = LoadDriver.employeeIdsIn(directory);
+		assertEquals(Arrays.asList("e00000", "e00001", "e00002", "e00003"), employeeIds);
+		List<LoadDriver.Request> script = LoadDriver.script(1, employeeIds, 400, LoadDriver.DEFAULT_MIX);
+		DiaryStore store = new DiaryStore(directory);
+		LoadDriver driver = new LoadDriver(store, true);
+
+		LoadDriver.Result result = driver.run(script, 0, 4);
+		assertEquals(0, result.getFailures(null));
+		assertTrue(result.getThroughput() > 0);
+		assertTrue(result.percentile(null, 0.5) <= result.percentile(null, 0.99));
+		assertTrue(result.percentile(null, 0.99) <= result.percentile(null, 1));
+		assertTrue(result.percentile(LoadDriver.Operation.REPORT, 0.5) >= 0);
+
+		result = driver.run(script.subList(0, 51), 1000, 4);								// The last is due after 50ms
+		assertEquals(0, result.getFailures(null));
+		assertTrue(result.getElapsed().toMillis() >= 50);
+		driver.close();
+		store.close();
+
+		store = new DiaryStore(directory);
+		String stamped = null;
+		for (LoadDriver.Request request : script) {
+			if (request.operation == LoadDriver.Operation.STAMP && stamped == null) {
+				stamped = request.employeeId;
+			}
+		}
+		assertTrue(store.withDiary(stamped, diary -> diary.get(LocalDate.now()).getTimeStamps().size()) > 0);
+		store.close();
+	}
+
+	public static void main(String[] args) throws Exception {
+		TestLoadDriver test = new TestLoadDriver();
+		test.setUp();
+		test.testScript();
+		test.testRun();
+		test.tearDown();
+	}
+}
@@ -0,0 +1,77 @@
+package com.github.sourzo.timeTracker;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+
+import junit.framework.TestCase;
+
+public class TestMetrics extends TestCase {
+
+	public void testHistogram() {
+		Histogram histogram = new Histogram("us");
+		assertEquals(0, histogram.getMedian());
+		for (int i = 1; i <= 100; i++) {
+			histogram.record(i);
+		}
+		assertEquals(100, histogram.getCount());
+		assertEquals(5050, histogram.getSum());
+		assertEquals(50.5, histogram.getMean());
+		assertEquals(100, histogram.getMax());
+		assertEquals(63, histogram.getMedian());								// Top of the 32..63 bucket
+		assertEquals(100, histogram.getPercentile99());						// Capped at the largest value
+		histogram.record(-5);
+		assertEquals(0, histogram.percentile(0.001));
+	}
+
+	public void testConcurrentRecording() throws InterruptedException {
+		Histogram histogram = new Histogram("us");
+		ExecutorService threads = Executors.newFixedThreadPool(8);
+		for (int t = 0; t < 8; t++) {
+			threads.execute(() -> {
+				for (int i = 0; i < 100000; i++) {
+					histogram.record(i & 1023);
+				}
+			});
+		}
+		threads.shutdown();
+		assertTrue(threads.awaitTermination(30, TimeUnit.SECONDS));
+		assertEquals(800000, histogram.getCount());
+		assertEquals(1023, histogram.getMax());
+	}
+
+	public void testPublishedThroughJmx() throws Exception {
+		CUI.setMessages(false);
+		Metrics.publish();
+		Diary diary = new Diary("TestMetrics.txt");
+		long stamps = Metrics.STAMP.getCount();
+		diary.stamp(StampType.IN);
+		diary.balanceToDate(LocalDate.now());
+		diary.save();
+		diary.closeJournal();
+		CUI.setMessages(true);
+		Files.deleteIfExists(Paths.get("TestMetrics.txt"));
+		Files.deleteIfExists(Paths.get("TestMetrics.txt.journal"));
+		TestDiaryStore.deleteDirectory(DiarySegments.directoryFor("TestMetrics.txt"));
+
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		assertEquals(stamps + 1, server.getAttribute(Metrics.objectName("Diary.stamp"), "Count"));
+		assertEquals("us", server.getAttribute(Metrics.objectName("Diary.stamp"), "Unit"));
+		assertTrue((Long) server.getAttribute(Metrics.objectName("Diary.balanceToDate"), "Count") > 0);
+		assertTrue((Long) server.getAttribute(Metrics.objectName("SaveBytes"), "Max") > 0);
+		assertTrue((Long) server.getAttribute(Metrics.objectName("StampsPerDay"), "Max") > 0);
+	}
+
+	public static void main(String[] args) throws Exception {
+		TestMetrics test = new TestMetrics();
+		test.testHistogram();
+		test.testConcurrentRecording();
+		test.testPublishedThroughJmx();
+	}
+}
@@ -0,0 +1,198 @@
+package com.github.sourzo.timeTracker;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class TestOccupancyIndex extends TestCase {
+	private final LocalDate monday = LocalDate.of(2021, 6, 7);
+	private Path directory;
+
+	public void setUp() throws IOException {
+		CUI.setMessages(false);
+		directory = Files.createTempDirectory("occupancy");
+	}
+
+	public void tearDown() throws IOException {
+		TestDiaryStore.deleteDirectory(directory);
+		CUI.setMessages(true);
+	}
+
+	private static WorkDay day(LocalDate date, String... stamps) {
+		WorkDay day = new WorkDay(date);
+		for (String stamp : stamps) {
+			String[] fields = stamp.split(" ");
+			day.addTimeStamp(LocalTime.parse(fields[0]), StampType.valueOf(fields[1]));
+		}
+		return day;
+	}
+
+	public void testPeriods() {
+		OccupancyIndex index = new OccupancyIndex(monday);
+		index.update("a", day(monday, "09:00 IN", "12:00 OUT", "13:00 IN", "17:00 OUT"));
+		index.update("b", day(monday, "08:00 OUT", "10:00 IN", "10:30 IN", "14:00 OUT"));		// First OUT and second IN ignored
+		index.update("c", day(monday, "11:00 IN"));												// Not clocked out
+		index.update("d", day(monday.minusDays(1), "11:00 IN"));									// Before the index
+
+		assertEquals(Collections.emptyList(), index.presentAt(monday.atTime(8, 30)));
+		assertEquals(Arrays.asList("a"), index.presentAt(monday.atTime(9, 0)));
+		assertEquals(Arrays.asList("a", "b", "c"), index.presentAt(monday.atTime(11, 59)));
+		assertEquals(Arrays.asList("b", "c"), index.presentAt(monday.atTime(12, 0)));
+		assertEquals(Arrays.asList("c", "a"), index.presentAt(monday.atTime(14, 0)));
+		assertEquals(Arrays.asList("c"), index.presentAt(monday.atTime(23, 59)));
+		assertEquals(Collections.emptyList(), index.presentAt(monday.plusDays(1).atTime(12, 0)));
+
+		int[] headcounts = index.headcounts(monday);
+		assertEquals(96, headcounts.length);
+		assertEquals(0, headcounts[8 * 4]);
+		assertEquals(1, headcounts[9 * 4]);
+		assertEquals(2, headcounts[10 * 4]);
+		assertEquals(3, headcounts[11 * 4 + 3]);
+		assertEquals(3, headcounts[13 * 4 + 3]);												// Most at once, not at the end
+		assertEquals(1, headcounts[95]);
+
+		index.update("c", day(monday, "11:00 IN", "11:30 OUT"));								// Replaces c's periods
+		assertEquals(Arrays.asList("a", "b", "c"), index.presentAt(monday.atTime(11, 15)));
+		assertEquals(Arrays.asList("a", "b"), index.presentAt(monday.atTime(11, 45)));
+		assertEquals(0, index.headcounts(monday)[95]);
+
+		try {
+			index.presentAt(monday.minusDays(1).atTime(11, 0));
+			fail();
+		} catch (IllegalArgumentException e) {
+			//Expected
+		}
+	}
+
+	/**The store keeps the index up to date as stamps are made, and adds diaries as they are loaded.*/
+	public void testStore() throws IOException {
+		LocalDate today = LocalDate.now();
+		DiaryStore store = new DiaryStore(directory);
+		store.update("early", diary -> diary.get(today).addTimeStamp(LocalTime.MIDNIGHT, StampType.IN));
+		store.update("old", diary -> diary.get(today.minusDays(1)).addTimeStamp(LocalTime.NOON, StampType.IN));
+		store.saveAll();
+		store.close();
+
+		store = new DiaryStore(directory);
+		OccupancyIndex index = store.indexOccupancy(today.minusDays(1));
+		assertTrue(store.isLoaded("early"));
+		assertEquals(Arrays.asList("early"), index.presentAt(today.atStartOfDay()));
+		assertEquals(Arrays.asList("old"), index.presentAt(today.minusDays(1).atTime(LocalTime.MAX)));
+
+		store.stamp("late", StampType.IN);														// Loaded after indexing
+		List<String> present = index.clockedIn();
+		assertTrue(present.contains("early"));
+		assertTrue(present.contains("late"));
+		store.update("early", diary -> diary.get(today).addTimeStamp(LocalTime.of(0, 1), StampType.OUT));
+		assertFalse(index.clockedIn().contains("early"));
+		store.close();
+	}
+
+	/**Employees stamping at the same time are all indexed, and queries can be answered meanwhile.*/
+	public void testConcurrentUpdates() throws InterruptedException {
+		OccupancyIndex index = new OccupancyIndex(monday);
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			int first = t * 500;
+			threads[t] = new Thread(() -> {
+				for (int e = first; e < first + 500; e++) {
+					index.update("e" + e, day(monday, "09:00 IN"));
+					index.update("e" + e, day(monday, "09:00 IN", e % 2 == 0 ? "10:00 OUT" : "11:00 OUT"));
+					index.presentAt(monday.atTime(9, 30));
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(2000, index.presentAt(monday.atTime(9, 30)).size());
+		assertEquals(1000, index.presentAt(monday.atTime(10, 30)).size());
+		int[] headcounts = index.headcounts(monday);
+		assertEquals(2000, headcounts[9 * 4]);
+		assertEquals(1000, headcounts[10 * 4 + 2]);
+		assertEquals(0, headcounts[11 * 4]);
+	}
+
+	/**Queries between changes see the same as an index built from the days as they are then.*/
+	public void testQueriesBetweenChanges() {
+		Random random = new Random(23);
+		OccupancyIndex index = new OccupancyIndex(monday);
+		WorkDay[] days = new WorkDay[200];
+		for (int e = 0; e < days.length; e++) {
+			days[e] = day(monday);
+			index.update("e" + e, days[e]);
+		}
+		for (int change = 0; change < 500; change++) {
+			int e = random.nextInt(days.length);
+			days[e] = random.nextInt(4) == 0 ? day(monday)
+					: day(monday, LocalTime.MIN.plusMinutes(random.nextInt(12 * 60)) + " IN", 
+							LocalTime.MIN.plusMinutes(12 * 60 + random.nextInt(12 * 60)) + (random.nextBoolean() ? " OUT" : " IN"));
+			index.update("e" + e, days[e]);
+			if (change % 7 == 0) {
+				OccupancyIndex rebuilt = new OccupancyIndex(monday);
+				for (int r = 0; r < days.length; r++) {
+					rebuilt.update("e" + r, days[r]);
+				}
+				LocalDateTime at = monday.atStartOfDay().plusMinutes(random.nextInt(24 * 60));
+				assertEquals(rebuilt.presentAt(at), index.presentAt(at));
+			}
+		}
+	}
+
+	/**Thousands of employees, each with a few periods a day, should be answered in well under a millisecond.*/
+	public void testScale() {
+		int employees = 5000;
+		Random random = new Random(22);
+		OccupancyIndex index = new OccupancyIndex(monday);
+		long start = System.nanoTime();
+		for (int e = 0; e < employees; e++) {
+			int arrive = 6 * 60 + random.nextInt(4 * 60);
+			int lunch = 11 * 60 + random.nextInt(3 * 60);
+			WorkDay day = day(monday, LocalTime.MIN.plusMinutes(arrive) + " IN", LocalTime.MIN.plusMinutes(lunch) + " OUT",
+					LocalTime.MIN.plusMinutes(lunch + 30) + " IN", LocalTime.MIN.plusMinutes(lunch + 30 + random.nextInt(6 * 60)) + " OUT");
+			index.update("e" + e, day);
+		}
+		long built = System.nanoTime() - start;
+
+		LocalDateTime noon = monday.atTime(12, 0);
+		int present = 0;
+		int queries = 1000;
+		start = System.nanoTime();
+		for (int i = 0; i < queries; i++) {
+			present += index.presentAt(noon.plusMinutes(i % 60)).size();
+			present += index.headcounts(monday)[48];
+		}
+		long each = (System.nanoTime() - start) / queries;
+		assertTrue(present > 0);
+
+		start = System.nanoTime();																// As in the morning, with a stamp before each
+		for (int i = 0; i < queries; i++) {
+			index.update("e" + random.nextInt(employees), day(monday, "09:00 IN"));
+			present += index.presentAt(noon).size();
+		}
+		long eachAfterChange = (System.nanoTime() - start) / queries;
+		System.out.println(employees + " employees indexed in " + built / 1000000 + "ms, "
+				+ each / 1000 + "us per presentAt and headcounts, " + eachAfterChange / 1000 + "us per change and presentAt");
+	}
+
+	public static void main(String[] args) throws Exception {
+		TestOccupancyIndex test = new TestOccupancyIndex();
+		test.setUp();
+		test.testPeriods();
+		test.testStore();
+		test.testConcurrentUpdates();
+		test.testQueriesBetweenChanges();
+		test.testScale();
+		test.tearDown();
+	}
+}
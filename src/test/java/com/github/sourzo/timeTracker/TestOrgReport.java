@@ -0,0 +1,106 @@
+package com.github.sourzo.timeTracker;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.Arrays;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+public class TestOrgReport extends TestCase {
+	private Path directory;
+	private final LocalDate monday = LocalDate.of(2021, 6, 7);
+
+	public void setUp() throws IOException {
+		CUI.setMessages(false);
+		directory = Files.createTempDirectory("orgReport");
+		DiaryStore store = new DiaryStore(directory);
+		for (int e = 0; e < 20; e++) {
+			int extra = e;
+			store.update("e" + e, diary -> {
+				diary.setStartDate(monday);
+				for (int d = 0; d < 5; d++) {
+					WorkDay day = diary.get(monday.plusDays(d));
+					day.addTimeStamp(LocalTime.of(9, 0), StampType.IN);
+					day.addTimeStamp(LocalTime.of(16, 0).plusMinutes(extra * d), StampType.OUT);	// 7h + e*d minutes
+				}
+				diary.get(monday.plusDays(7)).addActivity(ActivityType.SICK, Duration.ofHours(7));
+			});
+		}
+		store.saveAll();
+		store.close();
+	}
+
+	public void tearDown() throws IOException {
+		TestDiaryStore.deleteDirectory(directory);
+		CUI.setMessages(true);
+	}
+
+	public void testFigures() throws IOException {
+		OrgReport report = OrgReport.run(directory, monday, monday.plusDays(13), 4, 1);
+		assertEquals(20, report.getEmployees().size());
+		OrgReport.Figures e3 = report.getEmployees().get("e3");
+		assertEquals(3 * (0 + 1 + 2 + 3 + 4), e3.overtimeMinutes);
+		assertEquals(3 * 10, e3.balanceMinutes);
+		assertEquals(420, e3.activityMinutes[ActivityType.SICK.ordinal()]);
+		assertEquals(4, e3.unrecordedDays);											// Tuesday to Friday of the second week
+		assertEquals(20 * 420, report.getTotals().activityMinutes[ActivityType.SICK.ordinal()]);
+		assertEquals(10 * 19 * 20 / 2, report.getTotals().overtimeMinutes);
+
+		OrgReport firstWeek = OrgReport.run(directory, monday, monday.plusDays(4), 4, 1);
+		assertEquals(0, firstWeek.getTotals().activityMinutes[ActivityType.SICK.ordinal()]);
+		assertEquals(0, firstWeek.getTotals().unrecordedDays);
+	}
+
+	/**A diary which can't be read is listed as a failure rather than reported as empty, and 
+	 * nothing is rewritten on disk.*/
+	public void testUnreadableDiary() throws IOException {
+		Files.write(directory.resolve("broken" + DiaryStore.FILE_EXTENSION), new byte[] {1, 2, 3, 4, 5, 6});
+		Path e3 = directory.resolve("e3" + DiaryStore.FILE_EXTENSION);
+		long modified = Files.getLastModifiedTime(e3).toMillis();
+		OrgReport report = OrgReport.run(directory, monday, monday.plusDays(13), 4, 1);
+		assertEquals(20, report.getEmployees().size());
+		assertFalse(report.getEmployees().containsKey("broken"));
+		assertEquals(1, report.getFailures().size());
+		assertTrue(report.getFailures().get("broken") instanceof IOException);
+		assertEquals(20 * 420, report.getTotals().activityMinutes[ActivityType.SICK.ordinal()]);
+		assertEquals(modified, Files.getLastModifiedTime(e3).toMillis());
+		assertFalse(Files.exists(DiaryJournal.pathFor(e3.toString())));
+	}
+
+	/**Splitting the work between threads doesn't change the results.*/
+	public void testParallelMatchesSerial() throws IOException {
+		OrgReport serial = OrgReport.run(directory, monday, monday.plusDays(13), 1, Integer.MAX_VALUE);
+		OrgReport parallel = OrgReport.run(directory, monday, monday.plusDays(13), 8, 1);
+		assertEquals(serial.getEmployees().keySet(), parallel.getEmployees().keySet());
+		for (Map.Entry<String, OrgReport.Figures> employee : serial.getEmployees().entrySet()) {
+			OrgReport.Figures other = parallel.getEmployees().get(employee.getKey());
+			assertEquals(employee.getValue().balanceMinutes, other.balanceMinutes);
+			assertEquals(employee.getValue().overtimeMinutes, other.overtimeMinutes);
+			assertEquals(employee.getValue().unrecordedDays, other.unrecordedDays);
+			assertTrue(Arrays.equals(employee.getValue().activityMinutes, other.activityMinutes));
+		}
+
+		ByteArrayOutputStream serialOut = new ByteArrayOutputStream();
+		serial.print(new PrintStream(serialOut));
+		ByteArrayOutputStream parallelOut = new ByteArrayOutputStream();
+		parallel.print(new PrintStream(parallelOut));
+		assertEquals(serialOut.toString(), parallelOut.toString());
+		assertEquals(22, serialOut.toString().split("\n").length);					// Header, employees, totals
+	}
+
+	public static void main(String[] args) throws IOException {
+		TestOrgReport test = new TestOrgReport();
+		test.setUp();
+		test.testFigures();
+		test.testParallelMatchesSerial();
+		test.testUnreadableDiary();
+		test.tearDown();
+	}
+}
@@ -0,0 +1,176 @@
+package com.github.sourzo.timeTracker;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.lang.reflect.Field;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**Runs a {@link StampServer} on a local port and sends it requests (including a load test).*/
+public class TestStampServer extends TestCase {
+	private Path directory;
+	private DiaryStore store;
+	private StampServer server;
+	/**Minutes a new diary expects today (none at the weekend).*/
+	private final long expectedToday = new Diary().getExpectedHours(LocalDate.now()).toMinutes();
+
+	public void setUp() throws IOException {
+		CUI.setMessages(false);
+		directory = Files.createTempDirectory("stampServer");
+		store = new DiaryStore(directory);
+		server = new StampServer(store, new InetSocketAddress("127.0.0.1", 0));
+		server.start();
+	}
+
+	public void tearDown() throws Exception {
+		server.stop();
+		TestDiaryStore.deleteDirectory(directory);
+		CUI.setMessages(true);
+	}
+
+	/**Sends a request and returns the status code followed by the response body.*/
+	private String request(String method, String pathAndQuery) throws IOException {
+		URL url = new URL("http://127.0.0.1:" + server.getPort() + pathAndQuery);
+		HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+		connection.setRequestMethod(method);
+		int status = connection.getResponseCode();
+		InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		byte[] buffer = new byte[256];
+		for (int n = in.read(buffer); n > 0; n = in.read(buffer)) {
+			body.write(buffer, 0, n);
+		}
+		in.close();
+		return status + " " + new String(body.toByteArray(), StandardCharsets.UTF_8).trim();
+	}
+
+	public void testEndpoints() throws IOException {
+		assertTrue(request("POST", "/stamp?employee=e1&type=in").startsWith("200 IN "));
+		assertEquals("200 TRAINING 480", request("POST", "/activity?employee=e1&activity=training&minutes=480"));
+		assertEquals("200 " + (480 - expectedToday), request("GET", "/balance?employee=e1"));	// 8h worked - 7h expected on a weekday
+		assertEquals("200 0", request("GET", "/balance?employee=e1&from=2000-01-01&to=2000-12-31"));
+
+		assertTrue(request("GET", "/stamp?employee=e1&type=IN").startsWith("405"));	// Wrong method
+		assertTrue(request("POST", "/stamp?type=IN").startsWith("400"));					// No employee
+		assertTrue(request("POST", "/stamp?employee=e1&type=SIDEWAYS").startsWith("400"));
+		assertTrue(request("POST", "/stamp?employee=../e1&type=IN").startsWith("400"));
+		assertTrue(request("GET", "/balance?employee=e1&from=yesterday").startsWith("400"));
+		assertTrue(request("POST", "/activity?employee=e1&activity=WORK&minutes=0").startsWith("400"));
+		assertTrue(request("POST", "/activity?employee=e1&activity=WORK&minutes=-30").startsWith("400"));
+		assertTrue(request("POST", "/activity?employee=e1&activity=WORK&minutes=4294967356").startsWith("400"));
+		assertEquals("200 " + (480 - expectedToday), request("GET", "/balance?employee=e1"));	// None of them were added
+	}
+
+	public void testOccupancy() throws IOException {
+		assertTrue(request("GET", "/onsite").startsWith("500"));							// Not indexed
+		assertTrue(request("POST", "/stamp?employee=e1&type=IN").startsWith("200"));
+		store.indexOccupancy(LocalDate.now());
+		assertTrue(request("POST", "/stamp?employee=e2&type=IN").startsWith("200"));
+		assertEquals("200 e1\ne2", request("GET", "/onsite"));
+		assertEquals("200 ", request("GET", "/onsite?at=" + LocalDate.now() + "T00:00"));
+		assertTrue(request("GET", "/onsite?at=2000-01-01T12:00").startsWith("400"));		// Before the index
+		assertEquals(24 * 4, request("GET", "/headcount").split("\n").length);
+		assertTrue(request("GET", "/headcount?date=" + LocalDate.now().minusDays(1)).startsWith("400"));
+	}
+
+	/**A stamp whose journal can't be synced is reported as not saved, and doesn't hold up anyone else's.*/
+	public void testSyncFailure() throws Exception {
+		assertTrue(request("POST", "/stamp?employee=e1&type=IN").startsWith("200"));
+		Field journalField = Diary.class.getDeclaredField("journal");
+		journalField.setAccessible(true);
+		Field channelField = DiaryJournal.class.getDeclaredField("channel");
+		channelField.setAccessible(true);
+		DiaryJournal journal = (DiaryJournal) journalField.get(store.withDiary("e1", diary -> diary));
+		((FileChannel) channelField.get(journal)).close();									// As if the disk had gone
+
+		assertTrue(request("POST", "/stamp?employee=e1&type=OUT").startsWith("500 Not saved"));
+		assertTrue(request("POST", "/activity?employee=e1&activity=WORK&minutes=1").startsWith("500 Not saved"));
+		assertTrue(request("POST", "/stamp?employee=e2&type=IN").startsWith("200"));
+	}
+
+	/**Every commit asked for while the committer is closing is either written or failed, never left waiting.*/
+	public void testCloseWhileCommitting() throws Exception {
+		store.stamp("e1", StampType.IN);
+		for (int round = 0; round < 20; round++) {
+			GroupCommitter committer = new GroupCommitter(store);
+			ExecutorService clients = Executors.newFixedThreadPool(4);
+			List<Future<CompletableFuture<Void>>> commits = new ArrayList<>();
+			for (int i = 0; i < 200; i++) {
+				commits.add(clients.submit(() -> committer.commit("e1")));
+			}
+			committer.close();
+			for (Future<CompletableFuture<Void>> commit : commits) {
+				try {
+					commit.get().get(10, TimeUnit.SECONDS);
+				} catch (ExecutionException e) {
+					assertTrue(e.getCause() instanceof IllegalStateException);				// Closed before it was queued
+				}
+			}
+			clients.shutdown();
+		}
+	}
+
+	/**Sends thousands of concurrent requests, then checks none were lost.*/
+	public void testLoad() throws Exception {
+		int employees = 200;
+		int requestsEach = 10;
+		ExecutorService clients = Executors.newFixedThreadPool(64);
+		List<Future<String>> responses = new ArrayList<>();
+		long start = System.nanoTime();
+		for (int r = 0; r < requestsEach; r++) {
+			for (int e = 0; e < employees; e++) {
+				String query = "?employee=e" + e;
+				if (r % 2 == 0) {
+					responses.add(clients.submit(() -> request("POST", "/stamp" + query + "&type=IN")));
+				} else {
+					responses.add(clients.submit(() -> request("POST", "/activity" + query + "&activity=WORK&minutes=1")));
+				}
+			}
+		}
+		for (Future<String> response : responses) {
+			assertTrue(response.get().startsWith("200"));
+		}
+		long nanos = System.nanoTime() - start;
+		clients.shutdown();
+		System.out.println(responses.size() + " requests in " + nanos / 1000000 + "ms ("
+				+ responses.size() * 1000000000L / nanos + "/s), " + server.getCommitGroups() + " group commits");
+
+		for (int e = 0; e < employees; e++) {
+			// 5 minutes of activity each, 7h target
+			assertEquals("200 " + (5 - expectedToday), request("GET", "/balance?employee=e" + e));
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		TestStampServer test = new TestStampServer();
+		test.setUp();
+		test.testLoad();
+		test.tearDown();
+		test.setUp();
+		test.testOccupancy();
+		test.tearDown();
+		test.setUp();
+		test.testSyncFailure();
+		test.tearDown();
+		test.setUp();
+		test.testCloseWhileCommitting();
+		test.tearDown();
+	}
+}
@@ -3,6 +3,7 @@ package com.github.sourzo.timeTracker;
 import java.time.Duration;
 import java.time.LocalDate;
 import java.time.LocalTime;
+import java.util.Random;
 
 import junit.framework.TestCase;
 
@@ -97,6 +98,63 @@ public class TestWorkDay extends TestCase {
 		assertEquals(hrsWorked, wd.getHoursWorked());									// recalculateHoursWorked doesn't change number of hours worked when nothing else has changed
 	}
 	
+	public void testIncrementalMatchesRecalculation() {
+		Random random = new Random(1234);
+		for (int round = 0; round < 200; round++) {
+			setUp();
+			for (int change = 0; change < 60; change++) {
+				LocalTime time = LocalTime.of(6 + random.nextInt(4), random.nextInt(60));
+				switch (random.nextInt(6)) {
+				case 0:
+				case 1:
+					wd.addTimeStamp(time, random.nextBoolean() ? StampType.IN : StampType.OUT);	//including replacing a stamp
+					break;
+				case 2:
+					wd.addTimeStamp(time);
+					break;
+				case 3:
+					if (!wd.getTimeStamps().isEmpty()) {
+						int i = random.nextInt(wd.getTimeStamps().size());
+						wd.removeTimeStamp(wd.getTimeStamps().keySet().toArray(new LocalTime[0])[i]);
+					}
+					break;
+				case 4:
+					wd.addActivity(ActivityType.values()[random.nextInt(3)], Duration.ofMinutes(random.nextInt(100)));
+					break;
+				case 5:
+					if (random.nextBoolean()) {
+						wd.removeActivity(ActivityType.values()[random.nextInt(3)]);
+					} else {
+						wd.removeActivity(ActivityType.values()[random.nextInt(3)], Duration.ofMinutes(random.nextInt(100)));
+					}
+					break;
+				}
+				assertEquals(wd.timeStampsTotal().plus(wd.activitiesTotal()), wd.getHoursWorked(false));
+				assertEquals(anomalies(wd), wd.getAnomalies());
+			}
+			Duration incremental = wd.getHoursWorked(false);
+			assertEquals(incremental, wd.recalculateHoursWorked());
+		}
+	}
+	
+	/**Works out {@link WorkDay#getAnomalies()} from all the stamps.*/
+	private static int anomalies(WorkDay day) {
+		StampType[] types = day.getTimeStamps().values().toArray(new StampType[0]);
+		int anomalies = 0;
+		if (types.length > 0 && types[0] == StampType.OUT) {
+			anomalies |= WorkDay.STARTS_WITH_OUT;
+		}
+		for (int i = 1; i < types.length; i++) {
+			if (types[i] == types[i - 1]) {
+				anomalies |= WorkDay.REPEATED_STAMP;
+			}
+		}
+		if (types.length > 0 && types[types.length - 1] == StampType.IN) {
+			anomalies |= WorkDay.STILL_CLOCKED_IN;
+		}
+		return anomalies;
+	}
+	
 	public static void main(String[] args) {
 		TestWorkDay test = new TestWorkDay();
 		test.setUp();
@@ -109,6 +167,7 @@ public class TestWorkDay extends TestCase {
 		test.testActivities();
 		test.setUp();
 		test.testCalculationsWithNonemptyFields();
+		test.testIncrementalMatchesRecalculation();
 		
 	}
 }
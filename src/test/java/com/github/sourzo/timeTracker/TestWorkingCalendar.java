@@ -0,0 +1,156 @@
+package com.github.sourzo.timeTracker;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.DayOfWeek;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.YearMonth;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import junit.framework.TestCase;
+
+public class TestWorkingCalendar extends TestCase {
+	private final LocalDate monday = LocalDate.of(2021, 6, 7);
+	private Path directory;
+
+	public void setUp() throws IOException {
+		CUI.setMessages(false);
+		directory = Files.createTempDirectory("calendar");
+	}
+
+	public void tearDown() throws IOException {
+		TestDiaryStore.deleteDirectory(directory);
+		CUI.setMessages(true);
+	}
+
+	private static Map<DayOfWeek, Duration> partTime() {
+		Map<DayOfWeek, Duration> hours = new EnumMap<>(DayOfWeek.class);
+		hours.put(DayOfWeek.MONDAY, Duration.ofHours(6));
+		hours.put(DayOfWeek.TUESDAY, Duration.ofHours(6));
+		hours.put(DayOfWeek.WEDNESDAY, Duration.ofMinutes(210));
+		return hours;
+	}
+
+	public void testRules() throws IOException {
+		WorkingCalendar calendar = new WorkingCalendar();
+		calendar.setDefaultWeek(Duration.ofHours(7), EnumSet.of(DayOfWeek.SATURDAY, DayOfWeek.SUNDAY));
+		assertEquals(420, calendar.expectedMinutes(monday));
+		assertEquals(0, calendar.expectedMinutes(monday.minusDays(1)));
+
+		LocalDate partTimeFrom = monday.plusWeeks(1).plusDays(2);									// A Wednesday
+		for (DayOfWeek day : DayOfWeek.values()) {
+			calendar.setWeekDay(partTimeFrom, day, (int) partTime().getOrDefault(day, Duration.ZERO).toMinutes());
+		}
+		assertEquals(420, calendar.expectedMinutes(partTimeFrom.minusDays(1)));
+		assertEquals(210, calendar.expectedMinutes(partTimeFrom));
+		assertEquals(0, calendar.expectedMinutes(partTimeFrom.plusDays(1)));
+		assertEquals(360, calendar.expectedMinutes(partTimeFrom.plusYears(3).with(DayOfWeek.MONDAY)));	// Until the next pattern
+
+		Files.write(directory.resolve("holidays.txt"), Arrays.asList("# Public holidays", "", "7/6/2021 Whit Monday",
+				"31/02/2021 Not a day", "25/12/2021 Christmas Day"));
+		assertEquals(Arrays.asList("line 4: 31/02/2021 Not a day"), calendar.readHolidays(directory.resolve("holidays.txt")));
+		assertEquals(2, calendar.getHolidays().size());
+		assertEquals(0, calendar.expectedMinutes(monday));
+		assertEquals("Christmas Day", calendar.getHolidays().get(LocalDate.of(2021, 12, 25)));
+		calendar.setOverride(monday, 120);														// Overrides the holiday
+		assertEquals(120, calendar.expectedMinutes(monday));
+		calendar.clearOverride(monday);
+		assertEquals(0, calendar.expectedMinutes(monday));
+
+		int mask = 1 << 7 | 1 << 8 | 1 << 15;														// 8th, 9th and 16th June
+		assertEquals(420 + 420 + 210, calendar.expectedMinutes(YearMonth.of(2021, 6), mask));
+		DayBitmap working = calendar.workingDays(LocalDate.of(2021, 6, 1), LocalDate.of(2021, 6, 30));
+		assertFalse(working.contains(monday.toEpochDay()));
+		assertTrue(working.contains(partTimeFrom.toEpochDay()));
+		assertFalse(working.contains(partTimeFrom.plusDays(1).toEpochDay()));
+	}
+
+	/**The compiled years give the same answers as going through the rules day by day.*/
+	public void testCompiledMatchesRules() {
+		Random random = new Random(21);
+		WorkingCalendar calendar = new WorkingCalendar();
+		calendar.setDefaultWeek(Duration.ofHours(7), EnumSet.of(DayOfWeek.SUNDAY));
+		TreeSet<LocalDate> changes = new TreeSet<>();
+		Map<LocalDate, int[]> weeks = new TreeMap<>();
+		for (int i = 0; i < 6; i++) {
+			LocalDate from = LocalDate.of(2018, 1, 1).plusDays(random.nextInt(2000));
+			int[] week = new int[7];
+			for (int d = 0; d < 7; d++) {
+				week[d] = random.nextInt(3) * 150;
+				calendar.setWeekDay(from, DayOfWeek.values()[d], week[d]);
+			}
+			weeks.put(from, week);
+			changes.add(from);
+		}
+		Map<LocalDate, Integer> overrides = new HashMap<>();
+		for (int i = 0; i < 50; i++) {
+			LocalDate date = LocalDate.of(2018, 1, 1).plusDays(random.nextInt(2000));
+			overrides.put(date, random.nextInt(600));
+			calendar.setOverride(date, overrides.get(date));
+		}
+		for (LocalDate date = LocalDate.of(2017, 6, 1); date.getYear() < 2024; date = date.plusDays(1)) {
+			LocalDate from = changes.floor(date);
+			int expected = from == null ? (date.getDayOfWeek() == DayOfWeek.SUNDAY ? 0 : 420)
+					: weeks.get(from)[date.getDayOfWeek().ordinal()];
+			if (overrides.containsKey(date)) {
+				expected = overrides.get(date);
+			}
+			assertEquals(date.toString(), expected, calendar.expectedMinutes(date));
+		}
+	}
+
+	public void testDiaryUsesCalendar() throws IOException {
+		Files.write(directory.resolve(WorkingCalendar.HOLIDAYS_FILE_NAME), Arrays.asList("07/06/2021 Whit Monday"));
+		String fileName = directory.resolve("employee.diary").toString();
+		Diary diary = Diary.load(fileName);
+		diary.setStartDate(monday);
+		assertEquals(Duration.ZERO, diary.getExpectedHours(monday));								// Shared holidays are read
+		diary.setWeeklyHours(monday.plusWeeks(1), partTime());
+		diary.setExpectedHours(monday.plusDays(1), Duration.ofHours(4));
+		for (int i = 0; i < 14; i++) {
+			diary.get(monday.plusDays(i)).addTimeStamp(LocalTime.of(9, 0), StampType.IN);
+			diary.get(monday.plusDays(i)).addTimeStamp(LocalTime.of(14, 0), StampType.OUT);
+		}
+		LocalDate end = monday.plusDays(13);
+		//Week 1: 5h on the holiday, +1h (4h expected), -2h x 3, then 5h x 2 at the weekend
+		//Week 2: -1h x 2, +1h30 (3h30 expected), then 5h x 4
+		Duration balance = Duration.ofMinutes(300 + 60 - 3 * 120 + 2 * 300 - 2 * 60 + 90 + 4 * 300);
+		assertEquals(balance, diary.balanceToDate(end));
+		assertEquals(Duration.ofMinutes(300 + 60 - 3 * 120 + 2 * 300), diary.getWeek(monday).getBalance());
+		diary.save();
+		diary.setExpectedHours(monday.plusDays(2), Duration.ZERO);								// Only journalled
+		balance = balance.plusHours(7);
+		diary.closeJournal();
+
+		Diary reloaded = Diary.load(fileName);
+		assertEquals(0, reloaded.segments().loadedCount());
+		assertEquals(balance, reloaded.balanceToDate(end));										// From the manifest's totals
+		assertEquals(Duration.ofMinutes(210), reloaded.getExpectedHours(monday.plusWeeks(1).plusDays(2)));
+		assertEquals(Duration.ofHours(4), reloaded.getExpectedHours(monday.plusDays(1)));
+		TreeSet<LocalDate> unrecorded = reloaded.getUnrecordedDays();
+		assertFalse(unrecorded.contains(end.plusDays(4)));											// Part-time Thursday
+		assertTrue(unrecorded.contains(end.plusDays(1)));
+		reloaded.setExpectedHours(monday.plusDays(1), null);
+		assertEquals(balance.minusHours(3), reloaded.balanceToDate(end));
+		reloaded.closeJournal();
+	}
+
+	public static void main(String[] args) throws IOException {
+		TestWorkingCalendar test = new TestWorkingCalendar();
+		test.setUp();
+		test.testRules();
+		test.testCompiledMatchesRules();
+		test.testDiaryUsesCalendar();
+		test.tearDown();
+	}
+}
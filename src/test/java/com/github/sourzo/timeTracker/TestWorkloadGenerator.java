@@ -0,0 +1,79 @@
+package com.github.sourzo.timeTracker;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.EnumSet;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+public class TestWorkloadGenerator extends TestCase {
+	private final LocalDate end = LocalDate.of(2021, 6, 30);
+	private Path directory;
+
+	public void setUp() throws IOException {
+		CUI.setMessages(false);
+		directory = Files.createTempDirectory("workload");
+	}
+
+	public void tearDown() throws IOException {
+		TestDiaryStore.deleteDirectory(directory);
+		CUI.setMessages(true);
+	}
+
+	/**The same seed gives the same diary for an employee, whatever else has been made.*/
+	public void testDeterministic() {
+		WorkloadGenerator generator = new WorkloadGenerator(5, end, 3);
+		Diary first = generator.diary("a.diary", 7);
+		generator.diary("b.diary", 8);
+		TestDiaryCodec.assertSameDays(first, new WorkloadGenerator(5, end, 3).diary("c.diary", 7));
+		assertFalse(first.balanceToDate(end).equals(generator.diary("d.diary", 8).balanceToDate(end)));
+		assertFalse(first.balanceToDate(end).equals(new WorkloadGenerator(6, end, 3).diary("e.diary", 7).balanceToDate(end)));
+	}
+
+	/**Between them, a few employees have leave of each kind, missed stamps and unrecorded days.*/
+	public void testIrregular() {
+		WorkloadGenerator generator = new WorkloadGenerator(1, end, 3);
+		Set<ActivityType> activities = EnumSet.noneOf(ActivityType.class);
+		int missed = 0;
+		int unrecorded = 0;
+		for (int employee = 0; employee < 10; employee++) {
+			Diary diary = generator.diary(employee + ".diary", employee);
+			assertFalse(diary.getStartDate().isBefore(end.minusYears(3)));
+			for (WorkDay day : diary.days()) {
+				assertFalse(day.getDate().isAfter(end));
+				activities.addAll(day.getActivities().keySet());
+			}
+			missed += diary.getMissedStampDays(diary.getStartDate(), end).size();
+			unrecorded += diary.countUnrecordedDays(diary.getStartDate(), end);
+		}
+		assertEquals(EnumSet.of(ActivityType.ANNUAL_LEAVE, ActivityType.SICK, ActivityType.TRAINING, ActivityType.SPECIAL_LEAVE,
+				ActivityType.MEDICAL_APPOINTMENT, ActivityType.GLOBAL_NON_WORKING_DAY), activities);
+		assertTrue(missed > 0);
+		assertTrue(unrecorded > 0);
+	}
+
+	public void testPopulate() {
+		WorkloadGenerator generator = new WorkloadGenerator(3, end, 2);
+		long days = generator.populate(directory, 5);
+		DiaryStore store = new DiaryStore(directory);
+		long loaded = 0;
+		for (int employee = 0; employee < 5; employee++) {
+			loaded += store.withDiary(WorkloadGenerator.employeeId(employee), Diary::dayCount);
+		}
+		assertEquals(days, loaded);
+		TestDiaryCodec.assertSameDays(generator.diary("e3.diary", 3), store.withDiary("e00003", diary -> diary));
+		store.close();
+	}
+
+	public static void main(String[] args) throws IOException {
+		TestWorkloadGenerator test = new TestWorkloadGenerator();
+		test.setUp();
+		test.testDeterministic();
+		test.testIrregular();
+		test.testPopulate();
+		test.tearDown();
+	}
+}
@@ -0,0 +1,69 @@
+package com.github.sourzo.timeTracker;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.HashMap;
+import java.util.TreeMap;
+
+/**Compares the heap used by 10,000 days stored as {@link WorkDay}s with the same days stored
+ * the way WorkDay used to store them (a TreeMap of stamps, a HashMap of activities and a Duration).
+ * Run with a fixed heap for steadier numbers, e.g. {@code -Xms512m -Xmx512m}.*/
+public class WorkDayFootprint {
+	private static final int DAYS = 10000;
+
+	/**The fields WorkDay had before it was packed into primitives.*/
+	static class MapDay {
+		LocalDate date;
+		TreeMap<LocalTime, StampType> timeStamps = new TreeMap<>();
+		HashMap<ActivityType, Duration> activities = new HashMap<>();
+		Duration hoursWorked = Duration.ofHours(0);
+	}
+
+	private static long usedHeap() {
+		for (int i = 0; i < 5; i++) {
+			System.gc();
+		}
+		Runtime runtime = Runtime.getRuntime();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	public static void main(String[] args) {
+		LocalDate start = LocalDate.of(2000, 1, 1);
+		new WorkDay(start).addTimeStamp(LocalTime.of(8, 1), StampType.IN); //load classes before measuring
+
+		long before = usedHeap();
+		MapDay[] mapDays = new MapDay[DAYS];
+		for (int i = 0; i < DAYS; i++) {
+			MapDay day = new MapDay();
+			day.date = start.plusDays(i);
+			day.timeStamps.put(LocalTime.of(8, i % 60), StampType.IN);
+			day.timeStamps.put(LocalTime.of(12, i % 60), StampType.OUT);
+			day.timeStamps.put(LocalTime.of(13, i % 60), StampType.IN);
+			day.timeStamps.put(LocalTime.of(16, i % 60), StampType.OUT);
+			day.activities.put(ActivityType.TRAINING, Duration.ofMinutes(i % 90));
+			day.hoursWorked = Duration.ofMinutes(420 + i % 90);
+			mapDays[i] = day;
+		}
+		long mapBytes = usedHeap() - before;
+
+		before = usedHeap();
+		WorkDay[] packedDays = new WorkDay[DAYS];
+		for (int i = 0; i < DAYS; i++) {
+			WorkDay day = new WorkDay(start.plusDays(i));
+			day.addTimeStamp(LocalTime.of(8, i % 60), StampType.IN);
+			day.addTimeStamp(LocalTime.of(12, i % 60), StampType.OUT);
+			day.addTimeStamp(LocalTime.of(13, i % 60), StampType.IN);
+			day.addTimeStamp(LocalTime.of(16, i % 60), StampType.OUT);
+			day.addActivity(ActivityType.TRAINING, Duration.ofMinutes(i % 90));
+			packedDays[i] = day;
+		}
+		long packedBytes = usedHeap() - before;
+
+		System.out.println("Heap per " + DAYS + " days (4 stamps, 1 activity each):");
+		System.out.println("  maps:   " + mapBytes / 1024 + " KiB (" + mapBytes / DAYS + " bytes/day)");
+		System.out.println("  packed: " + packedBytes / 1024 + " KiB (" + packedBytes / DAYS + " bytes/day)");
+		//Keep both alive until after measuring
+		System.out.println(mapDays.length + packedDays.length == 2 * DAYS ? "" : "?");
+	}
+}